@@ -26,6 +26,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.jhapy.commons.config.AppProperties;
 import org.jhapy.commons.utils.DefaultProfileUtil;
 import org.jhapy.commons.utils.SpringProfileConstants;
+import org.jhapy.resource.config.ResourceServerProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
@@ -34,6 +35,7 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.client.circuitbreaker.EnableCircuitBreaker;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.core.env.Environment;
 import org.springframework.security.config.annotation.method.configuration.EnableGlobalMethodSecurity;
@@ -45,7 +47,7 @@ import org.springframework.security.config.annotation.method.configuration.Enabl
  */
 @SpringBootApplication
 @EnableDiscoveryClient
-@EnableConfigurationProperties(AppProperties.class)
+@EnableConfigurationProperties({AppProperties.class, ResourceServerProperties.class})
 @EnableCircuitBreaker
 @EnableGlobalMethodSecurity(prePostEnabled = true)
 @ComponentScan({"org.jhapy.resource", "org.jhapy.commons"})
@@ -62,7 +64,12 @@ public class Application implements InitializingBean {
   public static void main(String[] args) {
     SpringApplication app = new SpringApplication(Application.class);
     DefaultProfileUtil.addDefaultProfile(app);
-    Environment env = app.run(args).getEnvironment();
+    ConfigurableApplicationContext context = app.run(args);
+    Environment env = context.getEnvironment();
+    if (env.getProperty("jhapy.resource.startup.training-run", Boolean.class, false)) {
+      // Class data sharing training run: the classes loaded so far are archived at exit
+      System.exit(SpringApplication.exit(context));
+    }
     logApplicationStartup(env);
   }
 
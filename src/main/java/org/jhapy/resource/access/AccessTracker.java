@@ -0,0 +1,244 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.access;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
+import lombok.Getter;
+import org.jhapy.commons.utils.HasLogger;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.repository.StoredFileRepository;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * In memory tracking of the stored files access frequency, without a write per read.
+ * <p>
+ * Accesses are counted in a {@link CountMinSketch} and the hottest stored files are kept in a
+ * bounded top list, both periodically halved so they follow the recent traffic. Accesses are also
+ * aggregated per stored file and flushed to the store in bulk (last access time and access count)
+ * at a fixed interval.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Component
+public class AccessTracker implements HasLogger {
+
+  private final StoredFileRepository storedFileRepository;
+  private final ResourceServerProperties.Access access;
+
+  private final CountMinSketch sketch;
+
+  /**
+   * Hottest stored files, insertions and evictions are done under the <code>topLock</code>
+   */
+  private final ConcurrentHashMap<String, HotResource> top = new ConcurrentHashMap<>();
+  private final Object topLock = new Object();
+  private volatile long topMinimum;
+
+  private final ConcurrentHashMap<String, PendingAccess> pendingAccesses = new ConcurrentHashMap<>();
+
+  private final Counter flushedCounter;
+  private final Counter droppedCounter;
+
+  public AccessTracker(StoredFileRepository storedFileRepository,
+      ResourceServerProperties resourceServerProperties, MeterRegistry meterRegistry) {
+    this.storedFileRepository = storedFileRepository;
+    this.access = resourceServerProperties.getAccess();
+    this.sketch = new CountMinSketch(access.getSketchWidth(), access.getSketchDepth());
+
+    Gauge.builder("resource.access.pending", pendingAccesses, Map::size)
+        .description("Stored files with accesses waiting to be flushed")
+        .register(meterRegistry);
+    flushedCounter = Counter.builder("resource.access.flushed")
+        .description("Stored files access aggregates flushed to the store")
+        .register(meterRegistry);
+    droppedCounter = Counter.builder("resource.access.dropped")
+        .description("Accesses not flushed because too many stored files were pending")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Record a read of a stored file
+   *
+   * @param bytes the number of bytes served
+   */
+  public void recordAccess(String id, long bytes) {
+    if (id == null) {
+      return;
+    }
+    long estimate = sketch.add(id, 1);
+    updateTop(id, estimate, bytes);
+
+    PendingAccess pendingAccess = pendingAccesses.get(id);
+    if (pendingAccess == null) {
+      if (pendingAccesses.size() >= access.getMaxPendingFlushes()) {
+        droppedCounter.increment();
+        return;
+      }
+      pendingAccess = pendingAccesses.computeIfAbsent(id, k -> new PendingAccess());
+    }
+    pendingAccess.count.increment();
+    pendingAccess.lastAccessed = Instant.now();
+  }
+
+  /**
+   * @return the estimated number of recent accesses of a stored file
+   */
+  public long estimate(String id) {
+    return sketch.estimate(id);
+  }
+
+  /**
+   * @return the hottest stored files, hottest first
+   */
+  public List<HotResource> getHottest() {
+    return top.values().stream()
+        .map(HotResource::copy)
+        .sorted(Comparator.comparingLong(HotResource::getAccesses).reversed())
+        .collect(Collectors.toList());
+  }
+
+  @Scheduled(initialDelayString = "${jhapy.resource.access.flush-interval:PT1M}",
+      fixedDelayString = "${jhapy.resource.access.flush-interval:PT1M}")
+  @PreDestroy
+  public void flush() {
+    if (pendingAccesses.isEmpty()) {
+      return;
+    }
+    Map<String, AccessAggregate> aggregates = new HashMap<>();
+    for (String id : new ArrayList<>(pendingAccesses.keySet())) {
+      PendingAccess pendingAccess = pendingAccesses.remove(id);
+      if (pendingAccess != null) {
+        aggregates.put(id,
+            new AccessAggregate(pendingAccess.count.sum(), pendingAccess.lastAccessed));
+      }
+    }
+    try {
+      storedFileRepository.recordAccesses(aggregates);
+      flushedCounter.increment(aggregates.size());
+    } catch (Exception e) {
+      logger().warn(getLoggerPrefix("flush") + "Cannot flush " + aggregates.size()
+          + " access aggregates : " + e.getMessage());
+    }
+  }
+
+  @Scheduled(initialDelayString = "${jhapy.resource.access.decay-interval:PT10M}",
+      fixedDelayString = "${jhapy.resource.access.decay-interval:PT10M}")
+  public void decay() {
+    sketch.decay();
+    synchronized (topLock) {
+      top.values().removeIf(hotResource -> {
+        hotResource.accesses >>>= 1;
+        hotResource.bytes >>>= 1;
+        return hotResource.accesses == 0;
+      });
+      topMinimum = computeTopMinimum();
+    }
+  }
+
+  private void updateTop(String id, long estimate, long bytes) {
+    HotResource hotResource = top.get(id);
+    if (hotResource != null) {
+      // Already in the top list, plain field updates are good enough for a ranking
+      long previous = hotResource.accesses;
+      hotResource.accesses = Math.max(previous, estimate);
+      hotResource.bytes += bytes;
+      if (previous <= topMinimum) {
+        synchronized (topLock) {
+          topMinimum = computeTopMinimum();
+        }
+      }
+      return;
+    }
+    if (estimate <= topMinimum && top.size() >= access.getTopSize()) {
+      // Not hot enough to enter the top list
+      return;
+    }
+    synchronized (topLock) {
+      if (top.containsKey(id)) {
+        return;
+      }
+      if (top.size() >= access.getTopSize()) {
+        HotResource coldest = null;
+        for (HotResource candidate : top.values()) {
+          if (coldest == null || candidate.accesses < coldest.accesses) {
+            coldest = candidate;
+          }
+        }
+        if (coldest != null) {
+          if (coldest.accesses >= estimate) {
+            return;
+          }
+          top.remove(coldest.id);
+        }
+      }
+      hotResource = new HotResource(id);
+      hotResource.accesses = estimate;
+      hotResource.bytes = bytes;
+      top.put(id, hotResource);
+      topMinimum = computeTopMinimum();
+    }
+  }
+
+  private long computeTopMinimum() {
+    return top.values().stream().mapToLong(HotResource::getAccesses).min().orElse(0);
+  }
+
+  private static class PendingAccess {
+
+    private final LongAdder count = new LongAdder();
+    private volatile Instant lastAccessed;
+  }
+
+  /**
+   * A hot stored file, with its decayed access count and bytes served
+   */
+  @Getter
+  public static class HotResource {
+
+    private final String id;
+    private volatile long accesses;
+    private volatile long bytes;
+
+    HotResource(String id) {
+      this.id = id;
+    }
+
+    HotResource copy() {
+      HotResource copy = new HotResource(id);
+      copy.accesses = accesses;
+      copy.bytes = bytes;
+      return copy;
+    }
+  }
+}
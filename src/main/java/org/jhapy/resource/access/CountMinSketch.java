@@ -0,0 +1,93 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.access;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-min sketch estimating the number of occurrences of keys in a fixed amount of memory.
+ * <p>
+ * Estimates never under count, and over count by at most <code>e / width</code> of the total with
+ * a probability of <code>1 - e^-depth</code>. Counters are updated lock free and can be halved
+ * with {@link #decay()} to age the counts.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+public class CountMinSketch {
+
+  private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F,
+      0x165667B1, 0xD3A2646C, 0xFD7046C5, 0xB55A4F09};
+
+  private final int width;
+  private final int depth;
+  private final AtomicLongArray counters;
+
+  public CountMinSketch(int width, int depth) {
+    if (depth < 1 || depth > SEEDS.length) {
+      throw new IllegalArgumentException("Depth must be between 1 and " + SEEDS.length);
+    }
+    this.width = Integer.highestOneBit(Math.max(width, 16));
+    this.depth = depth;
+    this.counters = new AtomicLongArray(this.width * depth);
+  }
+
+  /**
+   * Add occurrences of a key
+   *
+   * @return the new estimate of the key count
+   */
+  public long add(String key, long count) {
+    int hash = key.hashCode();
+    long estimate = Long.MAX_VALUE;
+    for (int row = 0; row < depth; row++) {
+      long value = counters.addAndGet(index(row, hash), count);
+      estimate = Math.min(estimate, value);
+    }
+    return estimate;
+  }
+
+  public long estimate(String key) {
+    int hash = key.hashCode();
+    long estimate = Long.MAX_VALUE;
+    for (int row = 0; row < depth; row++) {
+      estimate = Math.min(estimate, counters.get(index(row, hash)));
+    }
+    return estimate;
+  }
+
+  /**
+   * Halve all the counters
+   */
+  public void decay() {
+    for (int i = 0; i < counters.length(); i++) {
+      long value;
+      do {
+        value = counters.get(i);
+      } while (value != 0 && !counters.compareAndSet(i, value, value >>> 1));
+    }
+  }
+
+  private int index(int row, int hash) {
+    int h = hash * SEEDS[row];
+    h ^= h >>> 16;
+    return row * width + (h & (width - 1));
+  }
+}
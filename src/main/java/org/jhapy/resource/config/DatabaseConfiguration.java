@@ -19,16 +19,21 @@
 package org.jhapy.resource.config;
 
 
-import com.github.cloudyrock.spring.v5.EnableMongock;
+import com.mongodb.ReadPreference;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 import org.jhapy.commons.utils.HasLogger;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
 import org.springframework.boot.autoconfigure.mongo.MongoAutoConfiguration;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.context.annotation.Primary;
 import org.springframework.data.mongodb.MongoDatabaseFactory;
 import org.springframework.data.mongodb.MongoTransactionManager;
 import org.springframework.data.mongodb.config.EnableMongoAuditing;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
 import org.springframework.data.mongodb.core.mapping.event.ValidatingMongoEventListener;
 import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
@@ -45,9 +50,45 @@ import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
 @EnableMongoRepositories(basePackages = "org.jhapy.resource.repository")
 @EntityScan("org.jhapy.resource.domain")
 @EnableTransactionManagement
-@EnableMongock
 public class DatabaseConfiguration implements HasLogger {
 
+  public static final String METADATA_MONGO_TEMPLATE = "metadataMongoTemplate";
+
+  /**
+   * Template of the reads and writes, on the primary
+   */
+  @Bean
+  @Primary
+  public MongoTemplate mongoTemplate(MongoDatabaseFactory dbFactory, MongoConverter converter) {
+    return new MongoTemplate(dbFactory, converter);
+  }
+
+  /**
+   * Template of the metadata reads which accept a bounded staleness, with the configured read
+   * preference, usually from a secondary so they do not compete with the binary writes on the
+   * primary
+   */
+  @Bean(METADATA_MONGO_TEMPLATE)
+  public MongoTemplate metadataMongoTemplate(MongoDatabaseFactory dbFactory,
+      MongoConverter converter, ResourceServerProperties resourceServerProperties) {
+    ResourceServerProperties.MetadataReads metadataReads = resourceServerProperties
+        .getMetadataReads();
+    ReadPreference readPreference = ReadPreference.valueOf(metadataReads.getReadPreference());
+    if (!readPreference.equals(ReadPreference.primary())) {
+      long maxStalenessSeconds = metadataReads.getMaxStaleness().getSeconds();
+      if (maxStalenessSeconds < 90) {
+        throw new IllegalArgumentException(
+            "Metadata reads max staleness must be at least 90 seconds : " + maxStalenessSeconds);
+      }
+      readPreference = ReadPreference.valueOf(metadataReads.getReadPreference(),
+          Collections.emptyList(), maxStalenessSeconds, TimeUnit.SECONDS);
+    }
+    logger().info(getLoggerPrefix("metadataMongoTemplate") + "Metadata reads : " + readPreference);
+    MongoTemplate mongoTemplate = new MongoTemplate(dbFactory, converter);
+    mongoTemplate.setReadPreference(readPreference);
+    return mongoTemplate;
+  }
+
   @Bean
   public MongoTransactionManager transactionManager(MongoDatabaseFactory dbFactory) {
     return new MongoTransactionManager(dbFactory);
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.config;
+
+import com.github.cloudyrock.spring.v5.EnableMongock;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Database migrations, applied at startup by the instances with
+ * <code>jhapy.resource.startup.migrations</code> enabled. Mongock holds a lock in the database
+ * while it checks and applies the change sets, so starting instances wait for each other: the
+ * instances started with the <code>faststart</code> profile skip it.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "jhapy.resource.startup", name = "migrations", havingValue = "true",
+    matchIfMissing = true)
+@EnableMongock
+public class MigrationConfiguration {
+
+}
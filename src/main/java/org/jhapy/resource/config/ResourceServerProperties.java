@@ -0,0 +1,684 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.config;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Properties specific to the resource server.
+ * <p>
+ * Properties are configured in the application configuration under the <code>jhapy.resource</code>
+ * prefix.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Data
+@ConfigurationProperties(prefix = "jhapy.resource", ignoreUnknownFields = false)
+public class ResourceServerProperties {
+
+  private final Admission admission = new Admission();
+
+  private final BufferPool bufferPool = new BufferPool();
+
+  private final Archive archive = new Archive();
+
+  private final Store store = new Store();
+
+  private final Access access = new Access();
+
+  private final Upload upload = new Upload();
+
+  private final Integrity integrity = new Integrity();
+
+  private final Purge purge = new Purge();
+
+  private final Ingest ingest = new Ingest();
+
+  private final ImageOptimization imageOptimization = new ImageOptimization();
+
+  private final Coalescing coalescing = new Coalescing();
+
+  private final GroupCommit groupCommit = new GroupCommit();
+
+  private final StaleCache staleCache = new StaleCache();
+
+  private final MetadataReads metadataReads = new MetadataReads();
+
+  private final Sharding sharding = new Sharding();
+
+  private final Export export = new Export();
+
+  private final SignedUrls signedUrls = new SignedUrls();
+
+  private final Events events = new Events();
+
+  private final Usage usage = new Usage();
+
+  private final Startup startup = new Startup();
+
+  /**
+   * Admission control of the transfers, by in-flight bytes and concurrent large transfers
+   */
+  @Data
+  public static class Admission {
+
+    private boolean enabled = true;
+
+    /**
+     * Transfers above this size go through the large lane, smaller ones through the small lane
+     */
+    private DataSize largeTransferThreshold = DataSize.ofMegabytes(1);
+
+    /**
+     * Maximum number of payload bytes in flight in the large lane
+     */
+    private DataSize maxInFlightBytes = DataSize.ofMegabytes(256);
+
+    private int maxConcurrentLargeTransfers = 8;
+
+    /**
+     * Maximum number of large transfers waiting for admission, over this they are rejected
+     */
+    private int maxQueuedLargeTransfers = 32;
+
+    private int maxConcurrentSmallTransfers = 200;
+
+    /**
+     * Maximum size of a streamed upload
+     */
+    private DataSize maxUploadSize = DataSize.ofMegabytes(128);
+
+    /**
+     * How long a transfer waits in the queue before being rejected
+     */
+    private Duration queueTimeout = Duration.ofSeconds(5);
+
+    /**
+     * Value of the <code>Retry-After</code> header sent with rejected transfers
+     */
+    private Duration retryAfter = Duration.ofSeconds(5);
+  }
+
+  /**
+   * Pool of direct buffers used to copy content between the store and the clients
+   */
+  @Data
+  public static class BufferPool {
+
+    private DataSize bufferSize = DataSize.ofKilobytes(64);
+
+    /**
+     * Maximum number of idle buffers kept in the pool, buffers released over this are dropped
+     */
+    private int maxPooledBuffers = 256;
+
+    /**
+     * Report buffers garbage collected without having been released to the pool
+     */
+    private boolean leakDetection = true;
+  }
+
+  /**
+   * Tiering of cold stored files content to an archive store
+   */
+  @Data
+  public static class Archive {
+
+    /**
+     * Enable the background archiving job, archived content is rehydrated whatever this value
+     */
+    private boolean enabled = false;
+
+    /**
+     * Root directory of the file system archive store
+     */
+    private String directory = "/var/lib/jhapy/resource/archive";
+
+    /**
+     * Only files created before this age are archived
+     */
+    private Duration minAge = Duration.ofDays(30);
+
+    /**
+     * Only files not accessed for this duration are archived
+     */
+    private Duration idleTime = Duration.ofDays(14);
+
+    private Duration initialDelay = Duration.ofMinutes(5);
+
+    /**
+     * Delay between two runs of the archiving job
+     */
+    private Duration interval = Duration.ofHours(1);
+
+    /**
+     * Number of files archived per run
+     */
+    private int batchSize = 100;
+
+    /**
+     * Move the content back to the hot collection when an archived file is read
+     */
+    private boolean restoreOnRead = true;
+  }
+
+  /**
+   * Backend holding the content of the stored files
+   */
+  @Data
+  public static class Store {
+
+    /**
+     * Store used for new content, content already stored in another backend stays readable
+     */
+    private StoreType type = StoreType.MONGO;
+
+    /**
+     * Root directory of the file system content store
+     */
+    private String directory = "/var/lib/jhapy/resource/content";
+
+    /**
+     * Files up to this size are read through a cached memory mapping
+     */
+    private DataSize mmapThreshold = DataSize.ofKilobytes(256);
+
+    /**
+     * Maximum size of the memory mapped files kept open, approximate: evicted mappings are only
+     * released once garbage collected
+     */
+    private DataSize mmapCacheSize = DataSize.ofMegabytes(128);
+
+    /**
+     * Files from this size are served with the container sendfile support when available, up to
+     * the large transfer threshold when the admission control is enabled
+     */
+    private DataSize sendfileThreshold = DataSize.ofKilobytes(48);
+
+    /**
+     * Number of buffer sized blocks read ahead in parallel when streaming a file which is not
+     * memory mapped, <code>1</code> to stream with a plain channel transfer
+     */
+    private int readAheadBlocks = 4;
+  }
+
+  public enum StoreType {
+    MONGO,
+    FILESYSTEM
+  }
+
+  /**
+   * In memory tracking of the stored files access frequency
+   */
+  @Data
+  public static class Access {
+
+    /**
+     * Number of hottest stored files tracked
+     */
+    private int topSize = 100;
+
+    /**
+     * Width and depth of the count-min sketch estimating the access counts
+     */
+    private int sketchWidth = 16384;
+
+    private int sketchDepth = 4;
+
+    /**
+     * Accesses are aggregated in memory and flushed to the store at this interval
+     */
+    private Duration flushInterval = Duration.ofMinutes(1);
+
+    /**
+     * Counts are halved at this interval so the ranking follows the recent traffic
+     */
+    private Duration decayInterval = Duration.ofMinutes(10);
+
+    /**
+     * Maximum number of distinct stored files aggregated between two flushes, accesses to other
+     * files are still counted in the sketch
+     */
+    private int maxPendingFlushes = 100000;
+  }
+
+  /**
+   * Resumable chunked uploads
+   */
+  @Data
+  public static class Upload {
+
+    /**
+     * Staging directory of the received chunks, shared by the instances serving the uploads
+     */
+    private String directory = "/var/lib/jhapy/resource/upload";
+
+    private DataSize minChunkSize = DataSize.ofKilobytes(256);
+
+    private DataSize maxChunkSize = DataSize.ofMegabytes(16);
+
+    /**
+     * A session without any chunk received for this duration expires and its chunks are deleted
+     */
+    private Duration sessionTimeout = Duration.ofHours(24);
+
+    /**
+     * Delay between two runs of the expired sessions cleanup
+     */
+    private Duration cleanupInterval = Duration.ofHours(1);
+  }
+
+  /**
+   * Checksums of the stored files content
+   */
+  @Data
+  public static class Integrity {
+
+    /**
+     * Also compute and verify a SHA-256 of the content, a CRC32C is always computed
+     */
+    private boolean sha256 = false;
+
+    /**
+     * Verify the checksums when a whole content is read or streamed
+     */
+    private boolean verifyOnRead = true;
+
+    private final Scrub scrub = new Scrub();
+  }
+
+  /**
+   * Background verification of the stored content
+   */
+  @Data
+  public static class Scrub {
+
+    private boolean enabled = false;
+
+    private Duration initialDelay = Duration.ofMinutes(10);
+
+    /**
+     * Delay between two batches
+     */
+    private Duration interval = Duration.ofMinutes(1);
+
+    /**
+     * Number of files verified per batch
+     */
+    private int batchSize = 200;
+
+    /**
+     * Read rate the verification is throttled to, so it does not compete with the clients
+     */
+    private DataSize maxBytesPerSecond = DataSize.ofMegabytes(16);
+  }
+
+  /**
+   * Background purge of the deleted stored files
+   */
+  @Data
+  public static class Purge {
+
+    private boolean enabled = true;
+
+    /**
+     * When the purge runs, off-peak by default
+     */
+    private String cron = "0 */10 1-5 * * *";
+
+    /**
+     * Deleted files are kept at least this long before being purged
+     */
+    private Duration retention = Duration.ofDays(1);
+
+    /**
+     * Number of files purged per run
+     */
+    private int batchSize = 500;
+
+    /**
+     * Purge rate, so it does not compete with the clients
+     */
+    private int maxFilesPerSecond = 20;
+  }
+
+  /**
+   * Inspection of the uploaded content type
+   */
+  @Data
+  public static class Ingest {
+
+    /**
+     * Number of leading bytes inspected to detect the content type
+     */
+    private DataSize sniffLength = DataSize.ofKilobytes(8);
+
+    /**
+     * What to do when the detected type does not match the declared one
+     */
+    private MismatchPolicy mismatchPolicy = MismatchPolicy.RECORD;
+
+    /**
+     * Detected types always rejected, for instance <code>text/html</code>
+     */
+    private List<String> deniedTypes = new ArrayList<>();
+  }
+
+  public enum MismatchPolicy {
+    /**
+     * Keep the declared type, only record the detected one
+     */
+    RECORD,
+    /**
+     * Replace the declared type by the detected one
+     */
+    OVERRIDE,
+    /**
+     * Reject the content
+     */
+    REJECT
+  }
+
+  /**
+   * Optimisation of the uploaded images, per related object class
+   */
+  @Data
+  public static class ImageOptimization {
+
+    private boolean enabled = false;
+
+    /**
+     * Policies by related object class, class names are written between brackets in the
+     * configuration so their dots are kept : <code>policies.[org.jhapy.dto.domain.User]</code>
+     */
+    private Map<String, ImagePolicy> policies = new HashMap<>();
+
+    /**
+     * Images with more pixels are left untouched instead of being decoded
+     */
+    private long maxPixels = 50_000_000;
+  }
+
+  @Data
+  public static class ImagePolicy {
+
+    /**
+     * Images are downscaled so their largest side is at most this size
+     */
+    private int maxDimension = 2048;
+
+    /**
+     * JPEG quality, between 0 and 1
+     */
+    private float quality = 0.85f;
+
+    /**
+     * Keep the uploaded image as the original content
+     */
+    private boolean keepOriginal = true;
+
+    /**
+     * Smaller images are stored as is
+     */
+    private DataSize minSize = DataSize.ofKilobytes(64);
+  }
+
+  /**
+   * Coalescing of the concurrent reads of the same stored file
+   */
+  @Data
+  public static class Coalescing {
+
+    private boolean enabled = true;
+  }
+
+  /**
+   * Group commit of the small new stored files
+   */
+  @Data
+  public static class GroupCommit {
+
+    private boolean enabled = false;
+
+    /**
+     * Only new stored files up to this payload size are group committed
+     */
+    private DataSize maxSize = DataSize.ofKilobytes(64);
+
+    /**
+     * Maximum number of stored files per batch
+     */
+    private int maxBatch = 64;
+
+    /**
+     * How long a batch waits for more stored files after its first one
+     */
+    private Duration window = Duration.ofNanos(500_000);
+
+    /**
+     * Stored files waiting to be committed, callers write directly when it is full
+     */
+    private int queueCapacity = 1024;
+  }
+
+  /**
+   * Recently served stored files, served stale when the database cannot answer
+   */
+  @Data
+  public static class StaleCache {
+
+    private boolean enabled = true;
+
+    private DataSize maxSize = DataSize.ofMegabytes(128);
+
+    /**
+     * Larger stored files are not kept
+     */
+    private DataSize maxEntrySize = DataSize.ofMegabytes(16);
+  }
+
+  /**
+   * Read preference of the metadata reads which accept a stale answer, the reads of a flow
+   * depending on its own writes always go to the primary
+   */
+  @Data
+  public static class MetadataReads {
+
+    /**
+     * Read preference mode : primary, primaryPreferred, secondary, secondaryPreferred or nearest
+     */
+    private String readPreference = "secondaryPreferred";
+
+    /**
+     * Secondaries lagging more are not read, at least 90 seconds as required by the driver
+     */
+    private Duration maxStaleness = Duration.ofSeconds(90);
+  }
+
+  /**
+   * Sharding of the <code>storedFile</code> collection on its hashed id, see {@link
+   * org.jhapy.resource.config.changelogs.InitialValuesChangeLog}
+   */
+  @Data
+  public static class Sharding {
+
+    /**
+     * Shard the collection at startup when connected to a <code>mongos</code>
+     */
+    private boolean enabled = false;
+  }
+
+  /**
+   * ZIP export of several stored files
+   */
+  @Data
+  public static class Export {
+
+    /**
+     * Maximum number of stored files in one archive
+     */
+    private int maxEntries = 1000;
+  }
+
+  /**
+   * Signed, content addressed, download URLs
+   */
+  @Data
+  public static class SignedUrls {
+
+    /**
+     * HMAC key of the signatures, signed URLs are disabled when blank
+     */
+    private String secret;
+
+    /**
+     * How long a signed URL is valid
+     */
+    private Duration ttl = Duration.ofDays(7);
+
+    /**
+     * Longest time a response can be cached, never past the URL expiry
+     */
+    private Duration maxAge = Duration.ofDays(365);
+
+    /**
+     * Longest time a response is cached when its content is only identified by a CRC32C, which
+     * is not cached as immutable
+     */
+    private Duration checksumMaxAge = Duration.ofMinutes(1);
+  }
+
+  /**
+   * Feed of the stored file mutations, published on an ActiveMQ topic
+   */
+  @Data
+  public static class Events {
+
+    private boolean enabled = false;
+
+    /**
+     * Topic the events are published on
+     */
+    private String topic = "jhapy.resource.storedFile";
+
+    /**
+     * How often the resume token of the last published change is saved, changes published since
+     * the last checkpoint are published again after a restart
+     */
+    private Duration checkpointInterval = Duration.ofSeconds(1);
+
+    /**
+     * How long the feed is owned by an instance without checkpointing, before another instance
+     * takes it over
+     */
+    private Duration lease = Duration.ofSeconds(30);
+  }
+
+  /**
+   * Storage usage per owner, and its quotas
+   */
+  @Data
+  public static class Usage {
+
+    private boolean enabled = true;
+
+    /**
+     * How often the usage changes are written to the database, quotas are checked against the
+     * changes of the other instances written so far
+     */
+    private Duration flushInterval = Duration.ofSeconds(5);
+
+    /**
+     * When the usages are recomputed from the stored files
+     */
+    private String reconcileCron = "0 30 4 * * *";
+
+    /**
+     * How often the usage metrics are refreshed
+     */
+    private Duration metricsInterval = Duration.ofMinutes(1);
+
+    private final Quotas quotas = new Quotas();
+  }
+
+  /**
+   * Storage quotas, no quota by default. Class names are written between brackets in the
+   * configuration so their dots are kept : <code>related-object.[org.jhapy.dto.domain.User]</code>
+   */
+  @Data
+  public static class Quotas {
+
+    /**
+     * Quota of all the stored files of a related object class
+     */
+    private Map<String, Quota> relatedObjectClass = new HashMap<>();
+
+    /**
+     * Quota of the stored files of each related object, by related object class
+     */
+    private Map<String, Quota> relatedObject = new HashMap<>();
+
+    /**
+     * Quota of the stored files created by each user
+     */
+    private Quota createdBy = new Quota();
+  }
+
+  @Data
+  public static class Quota {
+
+    /**
+     * Maximum content size, unlimited if not set
+     */
+    private DataSize maxBytes;
+
+    /**
+     * Maximum number of stored files, unlimited if not set
+     */
+    private Long maxFiles;
+  }
+
+  /**
+   * Startup of the instance
+   */
+  @Data
+  public static class Startup {
+
+    /**
+     * Apply the database migrations at startup. Instances started with the
+     * <code>faststart</code> profile leave them to the other instances, so they run once per
+     * cluster
+     */
+    private boolean migrations = true;
+
+    /**
+     * Exit once started, for the class data sharing training run of the image build
+     */
+    private boolean trainingRun = false;
+  }
+}
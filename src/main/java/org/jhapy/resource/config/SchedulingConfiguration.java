@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.config;
+
+import java.util.Map;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.MethodIntrospector;
+import org.springframework.core.MethodIntrospector.MetadataLookup;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+
+/**
+ * Enable the background jobs of the resource server, on their own small pool so a long running
+ * job does not delay the others.
+ * <p>
+ * With lazy initialisation, the beans running background jobs are still created at startup: a
+ * lazy bean would only be scheduled once another bean needs it, or never.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfiguration implements SchedulingConfigurer {
+
+  @Override
+  public void configureTasks(ScheduledTaskRegistrar taskRegistrar) {
+    ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+    taskScheduler.setPoolSize(4);
+    taskScheduler.setThreadNamePrefix("resource-job-");
+    taskScheduler.initialize();
+    taskRegistrar.setTaskScheduler(taskScheduler);
+  }
+
+  @Bean
+  public static LazyInitializationExcludeFilter scheduledBeansLazyInitializationExcludeFilter() {
+    return (beanName, beanDefinition, beanType) -> {
+      if (beanType == null) {
+        return false;
+      }
+      Map<?, Scheduled> scheduledMethods = MethodIntrospector.selectMethods(beanType,
+          (MetadataLookup<Scheduled>) method -> AnnotatedElementUtils
+              .findMergedAnnotation(method, Scheduled.class));
+      return !scheduledMethods.isEmpty();
+    };
+  }
+}
@@ -21,6 +21,8 @@ package org.jhapy.resource.config;
 import org.jhapy.commons.config.AppProperties;
 import org.jhapy.commons.security.oauth2.AudienceValidator;
 import org.jhapy.commons.security.oauth2.JwtGrantedAuthorityConverter;
+import org.jhapy.resource.security.SignedUrlAuthenticationFilter;
+import org.jhapy.resource.security.SignedUrlSigner;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Import;
@@ -39,6 +41,7 @@ import org.springframework.security.oauth2.jwt.JwtDecoders;
 import org.springframework.security.oauth2.jwt.JwtValidators;
 import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
+import org.springframework.security.oauth2.server.resource.web.BearerTokenAuthenticationFilter;
 import org.springframework.security.web.header.writers.ReferrerPolicyHeaderWriter;
 import org.zalando.problem.spring.web.advice.security.SecurityProblemSupport;
 
@@ -52,10 +55,13 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
 
   private final AppProperties appProperties;
   private final SecurityProblemSupport problemSupport;
+  private final SignedUrlSigner signedUrlSigner;
 
-  public SecurityConfiguration(AppProperties appProperties, SecurityProblemSupport problemSupport) {
+  public SecurityConfiguration(AppProperties appProperties, SecurityProblemSupport problemSupport,
+      SignedUrlSigner signedUrlSigner) {
     this.problemSupport = problemSupport;
     this.appProperties = appProperties;
+    this.signedUrlSigner = signedUrlSigner;
   }
 
   @Override
@@ -64,6 +70,9 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
     http
         .csrf()
         .disable()
+        // Signed URLs are validated statelessly, without a bearer token
+        .addFilterBefore(new SignedUrlAuthenticationFilter(signedUrlSigner),
+            BearerTokenAuthenticationFilter.class)
         .exceptionHandling()
         .authenticationEntryPoint(problemSupport)
         .accessDeniedHandler(problemSupport)
@@ -91,6 +100,8 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
         .antMatchers("/management/info").permitAll()
         .antMatchers("/management/prometheus").permitAll()
         .antMatchers("/management/**").hasAuthority("ROLE_ADMIN")
+        .antMatchers(SignedUrlSigner.PATH_PREFIX + "**")
+        .hasAuthority(SignedUrlAuthenticationFilter.SIGNED_URL_AUTHORITY)
         .and()
         .oauth2ResourceServer()
         .jwt()
@@ -21,11 +21,17 @@ package org.jhapy.resource.config;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import org.jhapy.commons.config.AppProperties;
+import org.jhapy.resource.metric.FirstRequestFilter;
+import org.jhapy.resource.metric.StartupMetrics;
+import org.jhapy.resource.transfer.TransferAdmissionController;
+import org.jhapy.resource.transfer.TransferAdmissionFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.boot.web.servlet.ServletContextInitializer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
 import org.springframework.core.env.Environment;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
@@ -70,4 +76,22 @@ public class WebConfigurer implements ServletContextInitializer {
     return new CorsFilter(source);
   }
 
+  @Bean
+  public FilterRegistrationBean<TransferAdmissionFilter> transferAdmissionFilter(
+      TransferAdmissionController transferAdmissionController) {
+    FilterRegistrationBean<TransferAdmissionFilter> registration = new FilterRegistrationBean<>(
+        new TransferAdmissionFilter(transferAdmissionController));
+    registration.addUrlPatterns("/resourceService/*");
+    return registration;
+  }
+
+  @Bean
+  public FilterRegistrationBean<FirstRequestFilter> firstRequestFilter(
+      StartupMetrics startupMetrics) {
+    FilterRegistrationBean<FirstRequestFilter> registration = new FilterRegistrationBean<>(
+        new FirstRequestFilter(startupMetrics));
+    registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+    return registration;
+  }
+
 }
@@ -21,17 +21,121 @@ package org.jhapy.resource.config.changelogs;
 import com.github.cloudyrock.mongock.ChangeLog;
 import com.github.cloudyrock.mongock.ChangeSet;
 import com.github.cloudyrock.mongock.driver.mongodb.springdata.v3.decorator.impl.MongockTemplate;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.data.domain.Sort.Direction;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.HashedIndex;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.PartialIndexFilter;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.stereotype.Component;
 
+/**
+ * Collections and indexes of the resource server.
+ * <p>
+ * The <code>storedFile</code> collection is laid out to be sharded on its hashed id: ids are
+ * ObjectIds, whose hash spreads the inserts evenly over the shards instead of always appending to
+ * the last chunk, and every read or write of a stored file is by id, so it is routed to the shard
+ * holding it, content included. Only the background jobs (archiving, scrubbing, purge) scan the
+ * collection, and they query all the shards.
+ * <p>
+ * The queries by related object (exports, listings) are not targeted: they are sent to all the
+ * shards, each serving them from its <code>relatedObject</code> index. The related object is not
+ * part of the shard key on purpose: it can be patched while a shard key is immutable, it is
+ * missing on many stored files, and a compound key would route the reads by id, the hot path, to
+ * all the shards.
+ */
 @Component
 @ChangeLog
 public class InitialValuesChangeLog {
 
+  private static final Logger logger = LoggerFactory.getLogger(InitialValuesChangeLog.class);
+
   @ChangeSet(order = "001", id = "createCollection", author = "jHapy Dev1")
   public void createCollection(MongockTemplate mongoTemplate) {
     if (!mongoTemplate.collectionExists("storedFile")) {
       mongoTemplate.createCollection("storedFile");
     }
   }
+
+  @ChangeSet(order = "002", id = "createArchiveIndex", author = "jHapy Dev1")
+  public void createArchiveIndex(MongockTemplate mongoTemplate) {
+    mongoTemplate.indexOps("storedFile").ensureIndex(new Index()
+        .on("archived", Direction.ASC)
+        .on("created", Direction.ASC)
+        .named("archived_created"));
+  }
+
+  @ChangeSet(order = "003", id = "createUploadSessionIndex", author = "jHapy Dev1")
+  public void createUploadSessionIndex(MongockTemplate mongoTemplate) {
+    if (!mongoTemplate.collectionExists("uploadSession")) {
+      mongoTemplate.createCollection("uploadSession");
+    }
+    mongoTemplate.indexOps("uploadSession").ensureIndex(new Index()
+        .on("expiresAt", Direction.ASC)
+        .named("expiresAt"));
+  }
+
+  @ChangeSet(order = "004", id = "createDeletedIndex", author = "jHapy Dev1")
+  public void createDeletedIndex(MongockTemplate mongoTemplate) {
+    mongoTemplate.indexOps("storedFile").ensureIndex(new Index()
+        .on("deleted", Direction.ASC)
+        .partial(PartialIndexFilter.of(Criteria.where("isActive").is(Boolean.FALSE)))
+        .named("inactive_deleted"));
+  }
+
+  @ChangeSet(order = "005", id = "createShardKeyIndex", author = "jHapy Dev1")
+  public void createShardKeyIndex(MongockTemplate mongoTemplate) {
+    mongoTemplate.indexOps("storedFile").ensureIndex(HashedIndex.hashed("_id"));
+  }
+
+  /**
+   * Shard the <code>storedFile</code> collection on its hashed id, once sharding is enabled and
+   * the server is a <code>mongos</code>. Run at every startup until it is sharded.
+   */
+  @ChangeSet(order = "006", id = "shardStoredFile", author = "jHapy Dev1", runAlways = true)
+  public void shardStoredFile(MongockTemplate mongoTemplate, MongoClient mongoClient,
+      Environment environment) {
+    if (!environment.getProperty("jhapy.resource.sharding.enabled", Boolean.class, false)) {
+      return;
+    }
+    MongoDatabase admin = mongoClient.getDatabase("admin");
+    if (!"isdbgrid".equals(admin.runCommand(new Document("isMaster", 1)).getString("msg"))) {
+      logger.warn("Sharding enabled but not connected to a mongos, storedFile is not sharded");
+      return;
+    }
+    String database = mongoTemplate.getDb().getName();
+    Document stats = mongoTemplate.getDb().runCommand(new Document("collStats", "storedFile"));
+    if (Boolean.TRUE.equals(stats.getBoolean("sharded"))) {
+      return;
+    }
+    admin.runCommand(new Document("enableSharding", database));
+    admin.runCommand(new Document("shardCollection", database + ".storedFile")
+        .append("key", new Document("_id", "hashed")));
+    logger.info("Collection storedFile sharded on its hashed id");
+  }
+
+  @ChangeSet(order = "007", id = "createRelatedObjectIndex", author = "jHapy Dev1")
+  public void createRelatedObjectIndex(MongockTemplate mongoTemplate) {
+    mongoTemplate.indexOps("storedFile").ensureIndex(new Index()
+        .on("relatedObjectClass", Direction.ASC)
+        .on("relatedObjectId", Direction.ASC)
+        .named("relatedObject"));
+  }
+
+  @ChangeSet(order = "008", id = "createStorageUsageCollection", author = "jHapy Dev1")
+  public void createStorageUsageCollection(MongockTemplate mongoTemplate) {
+    if (!mongoTemplate.collectionExists("storageUsage")) {
+      mongoTemplate.createCollection("storageUsage");
+    }
+    mongoTemplate.indexOps("storageUsage").ensureIndex(new Index()
+        .on("dimension", Direction.ASC)
+        .on("bytes", Direction.DESC)
+        .named("dimension_bytes"));
+  }
 }
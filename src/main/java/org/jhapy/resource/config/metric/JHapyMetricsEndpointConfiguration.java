@@ -20,6 +20,8 @@ package org.jhapy.resource.config.metric;
 
 import io.micrometer.core.annotation.Timed;
 import io.micrometer.core.instrument.MeterRegistry;
+import org.jhapy.resource.access.AccessTracker;
+import org.jhapy.resource.endpoint.HotResourcesEndpoint;
 import org.jhapy.resource.endpoint.JHapyMetricsEndpoint;
 import org.springframework.boot.actuate.autoconfigure.endpoint.condition.ConditionalOnAvailableEndpoint;
 import org.springframework.boot.actuate.autoconfigure.metrics.MetricsEndpointAutoConfiguration;
@@ -49,4 +51,17 @@ public class JHapyMetricsEndpointConfiguration {
   public JHapyMetricsEndpoint jHapyMetricsEndpoint(MeterRegistry meterRegistry) {
     return new JHapyMetricsEndpoint(meterRegistry);
   }
-}
\ No newline at end of file
+
+  /**
+   * <p>hotResourcesEndpoint.</p>
+   *
+   * @param accessTracker a {@link AccessTracker} object.
+   * @return a {@link HotResourcesEndpoint} object.
+   */
+  @Bean
+  @ConditionalOnMissingBean
+  @ConditionalOnAvailableEndpoint
+  public HotResourcesEndpoint hotResourcesEndpoint(AccessTracker accessTracker) {
+    return new HotResourcesEndpoint(accessTracker);
+  }
+}
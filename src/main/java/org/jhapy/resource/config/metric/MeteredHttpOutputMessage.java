@@ -0,0 +1,133 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.config.metric;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import org.jhapy.resource.metric.ResourceMetrics;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+
+/**
+ * Output message measuring the time a message converter spends serializing a resource service
+ * response and writing it out (time blocked writing to the client), and the number of bytes sent.
+ * Shared by the metered Jackson converters of every wire format.
+ */
+class MeteredHttpOutputMessage implements HttpOutputMessage {
+
+  /**
+   * Writes a message body through an output message
+   */
+  @FunctionalInterface
+  interface BodyWriter {
+
+    void write(HttpOutputMessage outputMessage) throws IOException;
+  }
+
+  private final HttpOutputMessage delegate;
+  private MeteredOutputStream body;
+
+  MeteredHttpOutputMessage(HttpOutputMessage delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * Write a response, measured only if it is bound to an operation with {@link
+   * ResourceMetrics#bindOperation(String, String)}
+   */
+  static void write(ResourceMetrics resourceMetrics, HttpOutputMessage outputMessage,
+      BodyWriter bodyWriter) throws IOException {
+    String operation = ResourceMetrics.currentOperation();
+    if (operation == null) {
+      bodyWriter.write(outputMessage);
+      return;
+    }
+
+    MeteredHttpOutputMessage meteredOutputMessage = new MeteredHttpOutputMessage(outputMessage);
+    long start = System.nanoTime();
+    try {
+      bodyWriter.write(meteredOutputMessage);
+    } finally {
+      long total = System.nanoTime() - start;
+      MeteredOutputStream body = meteredOutputMessage.body;
+      long writeNanos = body == null ? 0 : body.writeNanos;
+      long bytes = body == null ? 0 : body.bytes;
+      resourceMetrics
+          .recordStage(operation, ResourceMetrics.STAGE_SERIALIZATION, total - writeNanos);
+      resourceMetrics.recordStage(operation, ResourceMetrics.STAGE_WRITE, writeNanos);
+      resourceMetrics.recordResponse(operation, ResourceMetrics.currentMimeType(), bytes);
+    }
+  }
+
+  @Override
+  public OutputStream getBody() throws IOException {
+    if (body == null) {
+      body = new MeteredOutputStream(delegate.getBody());
+    }
+    return body;
+  }
+
+  @Override
+  public HttpHeaders getHeaders() {
+    return delegate.getHeaders();
+  }
+
+  /**
+   * Count the bytes written and the time spent blocked in the underlying stream
+   */
+  private static class MeteredOutputStream extends OutputStream {
+
+    private final OutputStream delegate;
+    private long bytes;
+    private long writeNanos;
+
+    MeteredOutputStream(OutputStream delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      long start = System.nanoTime();
+      delegate.write(b);
+      writeNanos += System.nanoTime() - start;
+      bytes++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      long start = System.nanoTime();
+      delegate.write(b, off, len);
+      writeNanos += System.nanoTime() - start;
+      bytes += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      long start = System.nanoTime();
+      delegate.flush();
+      writeNanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void close() throws IOException {
+      delegate.close();
+    }
+  }
+}
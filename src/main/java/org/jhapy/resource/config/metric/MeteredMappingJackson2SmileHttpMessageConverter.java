@@ -0,0 +1,51 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.config.metric;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import org.jhapy.resource.metric.ResourceMetrics;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+/**
+ * Binary Smile Jackson converter, measuring the resource service responses like {@link
+ * MeteredMappingJackson2HttpMessageConverter}.
+ */
+public class MeteredMappingJackson2SmileHttpMessageConverter extends
+    MappingJackson2SmileHttpMessageConverter {
+
+  private final ResourceMetrics resourceMetrics;
+
+  public MeteredMappingJackson2SmileHttpMessageConverter(ObjectMapper objectMapper,
+      ResourceMetrics resourceMetrics) {
+    super(objectMapper);
+    this.resourceMetrics = resourceMetrics;
+  }
+
+  @Override
+  protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+      throws IOException, HttpMessageNotWritableException {
+    MeteredHttpOutputMessage.write(resourceMetrics, outputMessage,
+        message -> super.writeInternal(object, type, message));
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.config.metric;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import org.jhapy.resource.metric.ResourceMetrics;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+/**
+ * Replace the default Jackson converters by ones measuring the serialization and write-out stages
+ * of the resource service responses.
+ * <p>
+ * Besides JSON, the service to service API negotiates the binary Smile
+ * (<code>application/x-jackson-smile</code>) and CBOR (<code>application/cbor</code>) encodings,
+ * where the <code>byte[]</code> contents travel raw instead of base64 encoded (Smile would
+ * otherwise spread them over 7 bit bytes). They replace the default Spring MVC binary converters
+ * in place, after the JSON one, so JSON stays the encoding of the clients which do not ask for
+ * another one. The binary mappers are built with the application Jackson configuration.
+ */
+@Configuration
+public class ResourceMetricsConfiguration {
+
+  /**
+   * <p>mappingJackson2HttpMessageConverter.</p>
+   *
+   * @param objectMapper the application {@link ObjectMapper}
+   * @param resourceMetrics a {@link ResourceMetrics} object.
+   * @return a {@link MeteredMappingJackson2HttpMessageConverter} object.
+   */
+  @Bean
+  public MappingJackson2HttpMessageConverter mappingJackson2HttpMessageConverter(
+      ObjectMapper objectMapper, ResourceMetrics resourceMetrics) {
+    return new MeteredMappingJackson2HttpMessageConverter(objectMapper, resourceMetrics);
+  }
+
+  /**
+   * <p>mappingJackson2SmileHttpMessageConverter.</p>
+   *
+   * @param jackson2ObjectMapperBuilder a new builder with the application Jackson configuration
+   * @param resourceMetrics a {@link ResourceMetrics} object.
+   * @return a {@link MeteredMappingJackson2SmileHttpMessageConverter} object.
+   */
+  @Bean
+  public MappingJackson2SmileHttpMessageConverter mappingJackson2SmileHttpMessageConverter(
+      Jackson2ObjectMapperBuilder jackson2ObjectMapperBuilder, ResourceMetrics resourceMetrics) {
+    return new MeteredMappingJackson2SmileHttpMessageConverter(
+        jackson2ObjectMapperBuilder.createXmlMapper(false)
+            .factory(new SmileFactory().disable(SmileGenerator.Feature.ENCODE_BINARY_AS_7BIT))
+            .build(),
+        resourceMetrics);
+  }
+
+  /**
+   * <p>mappingJackson2CborHttpMessageConverter.</p>
+   *
+   * @param jackson2ObjectMapperBuilder a new builder with the application Jackson configuration
+   * @param resourceMetrics a {@link ResourceMetrics} object.
+   * @return a {@link MeteredMappingJackson2CborHttpMessageConverter} object.
+   */
+  @Bean
+  public MappingJackson2CborHttpMessageConverter mappingJackson2CborHttpMessageConverter(
+      Jackson2ObjectMapperBuilder jackson2ObjectMapperBuilder, ResourceMetrics resourceMetrics) {
+    return new MeteredMappingJackson2CborHttpMessageConverter(
+        jackson2ObjectMapperBuilder.createXmlMapper(false).factory(new CBORFactory()).build(),
+        resourceMetrics);
+  }
+}
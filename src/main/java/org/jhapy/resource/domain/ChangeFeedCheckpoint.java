@@ -0,0 +1,57 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.domain;
+
+import java.time.Instant;
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Progress of a change stream feed: the resume token of the last published change, and the lease
+ * of the instance tailing the stream.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Document(collection = "changeFeedCheckpoint")
+@Data
+public class ChangeFeedCheckpoint {
+
+  /**
+   * Name of the watched collection
+   */
+  @Id
+  private String id;
+
+  /**
+   * Resume token of the last published change, as JSON
+   */
+  private String resumeToken;
+
+  /**
+   * Instance tailing the stream, until its lease expires
+   */
+  private String owner;
+  private Instant leaseUntil;
+
+  private Instant updated;
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.domain;
+
+import java.time.Instant;
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Storage used by an owner of stored files: total content bytes and number of active stored
+ * files. Maintained incrementally as stored files are saved and deleted, and periodically
+ * reconciled with the stored files.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Document(collection = "storageUsage")
+@Data
+public class StorageUsage {
+
+  public enum Dimension {
+    RELATED_OBJECT_CLASS,
+    /**
+     * A related object, owners are written <code>relatedObjectClass#relatedObjectId</code>
+     */
+    RELATED_OBJECT,
+    CREATED_BY
+  }
+
+  /**
+   * <code>dimension:owner</code>
+   */
+  @Id
+  private String id;
+
+  private Dimension dimension;
+  private String owner;
+
+  private long bytes;
+  private long files;
+
+  private Instant updated;
+
+  /**
+   * Last time the usage was recomputed from the stored files
+   */
+  private Instant reconciled;
+
+  public static String id(Dimension dimension, String owner) {
+    return dimension.name() + ":" + owner;
+  }
+
+  public static String relatedObject(String relatedObjectClass, Long relatedObjectId) {
+    return relatedObjectClass + "#" + relatedObjectId;
+  }
+}
@@ -18,17 +18,26 @@
 
 package org.jhapy.resource.domain;
 
+import java.time.Instant;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.ToString;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Sharded;
+import org.springframework.data.mongodb.core.mapping.ShardingStrategy;
 
 /**
+ * Sharded on its hashed id: the content is stored in the document, or in files named after it, so
+ * the metadata and content of a stored file always live on the same shard, and the reads and
+ * writes by id are routed to a single shard. The queries by related object are sent to all the
+ * shards.
+ *
  * @author jHapy Lead Dev.
  * @version 1.0
  * @since 2019-05-15
  */
 @Document(collection = "storedFile")
+@Sharded(shardKey = "_id", shardingStrategy = ShardingStrategy.HASH, immutableKey = true)
 @Data
 @EqualsAndHashCode(callSuper = true)
 @ToString(callSuper = true, exclude = {"content", "orginalContent"})
@@ -38,6 +47,16 @@ public class StoredFile extends BaseEntity {
   private String mimeType;
   private long filesize;
 
+  /**
+   * Type detected from the first bytes of the content, <code>null</code> if unknown
+   */
+  private String detectedMimeType;
+
+  /**
+   * The content format is already compressed, <code>null</code> if unknown
+   */
+  private Boolean compressed;
+
   private byte[] content;
   private byte[] orginalContent;
 
@@ -45,4 +64,52 @@ public class StoredFile extends BaseEntity {
 
   private Long relatedObjectId;
   private String relatedObjectClass;
+
+  /**
+   * Path of the content in the file system content store, relative to its root directory. When
+   * set, the content is not stored in the document
+   */
+  private String contentPath;
+
+  /**
+   * Path of the original content in the file system content store
+   */
+  private String orginalContentPath;
+
+  /**
+   * Hex encoded CRC32C of the content, computed while it is received and verified when it is read
+   */
+  private String crc32c;
+
+  /**
+   * Hex encoded SHA-256 of the content, when enabled
+   */
+  private String sha256;
+
+  /**
+   * Last time the content was read, flushed periodically from the access tracker
+   */
+  private Instant lastAccessed;
+
+  /**
+   * Number of reads of the content, flushed periodically from the access tracker
+   */
+  private Long accessCount;
+
+  /**
+   * Indicate if the content has been moved to the archive store, the document then only holds
+   * the metadata
+   */
+  private Boolean archived;
+
+  /**
+   * Key of the content in the archive store
+   */
+  private String archiveKey;
+
+  /**
+   * When the stored file was deleted, <code>isActive</code> being then <code>false</code>. Its
+   * content is purged in the background once the retention is over
+   */
+  private Instant deleted;
 }
\ No newline at end of file
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.domain;
+
+import lombok.Data;
+
+/**
+ * Partial update of the metadata of a stored file. Only the non null fields are changed, the
+ * binary content is never transferred.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Data
+public class StoredFilePatch {
+
+  private String id;
+
+  /**
+   * Version of the stored file the changes are based on, the patch is rejected if it has been
+   * modified since
+   */
+  private Long version;
+
+  private String filename;
+  private String mimeType;
+  private Float zoom;
+
+  private Long relatedObjectId;
+  private String relatedObjectClass;
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.domain;
+
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Set;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Server side state of a resumable chunked upload. The chunks themselves are staged on disk until
+ * the session is committed to a {@link StoredFile}.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Document(collection = "uploadSession")
+@Data
+@EqualsAndHashCode(callSuper = true)
+@ToString(callSuper = true)
+public class UploadSession extends BaseEntity {
+
+  private String filename;
+  private String mimeType;
+
+  private Long relatedObjectId;
+  private String relatedObjectClass;
+
+  /**
+   * Size of the whole content
+   */
+  private long totalSize;
+
+  /**
+   * Size of every chunk but the last one
+   */
+  private long chunkSize;
+
+  private int chunkCount;
+
+  /**
+   * Expected SHA-256 of the whole content, hex encoded, verified on commit when set
+   */
+  private String checksum;
+
+  /**
+   * Indexes of the chunks already received
+   */
+  private Set<Integer> receivedChunks = new HashSet<>();
+
+  private Instant expiresAt;
+
+  /**
+   * Id of the stored file created by the commit of the session
+   */
+  private String storedFileId;
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.endpoint;
+
+import java.util.List;
+import org.jhapy.resource.access.AccessTracker;
+import org.jhapy.resource.access.AccessTracker.HotResource;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.web.annotation.WebEndpoint;
+
+/**
+ * Actuator endpoint listing the hottest stored files, with their recent access count and bytes
+ * served
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@WebEndpoint(id = "hotresources")
+public class HotResourcesEndpoint {
+
+  private final AccessTracker accessTracker;
+
+  public HotResourcesEndpoint(AccessTracker accessTracker) {
+    this.accessTracker = accessTracker;
+  }
+
+  /**
+   * GET /management/hotresources
+   *
+   * @return the hottest stored files, hottest first
+   */
+  @ReadOperation
+  public List<HotResource> hottest() {
+    return accessTracker.getHottest();
+  }
+}
@@ -19,6 +19,7 @@
 package org.jhapy.resource.endpoint;
 
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
 import io.micrometer.core.instrument.FunctionCounter;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
@@ -33,6 +34,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import org.jhapy.resource.metric.ResourceMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
@@ -88,10 +90,73 @@ public class JHapyMetricsEndpoint {
     results.put("garbageCollector", this.garbageCollectorMetrics());
     // Process stats
     results.put("processMetrics", this.processMetrics());
+    // Resource service stats
+    results.put("resources", this.resourceMetrics());
 
     return results;
   }
 
+  private Map<String, Map> resourceMetrics() {
+    Map<String, Map> resultsResources = new HashMap<>();
+
+    Map<String, Map<String, Map<String, Number>>> resultsPerOperation = new HashMap<>();
+    Collection<Timer> timers = this.meterRegistry.find(ResourceMetrics.OPERATION_TIMER).timers();
+    timers.forEach(timer -> {
+      String operation = timer.getId().getTag(ResourceMetrics.TAG_OPERATION);
+      String stage = timer.getId().getTag(ResourceMetrics.TAG_STAGE);
+
+      Map<String, Number> resultsPerStage = new HashMap<>();
+      resultsPerStage.put("count", timer.count());
+      resultsPerStage.put("max", timer.max(TimeUnit.MILLISECONDS));
+      resultsPerStage.put("totalTime", timer.totalTime(TimeUnit.MILLISECONDS));
+      resultsPerStage.put("mean", timer.mean(TimeUnit.MILLISECONDS));
+
+      ValueAtPercentile[] percentiles = timer.takeSnapshot().percentileValues();
+      for (ValueAtPercentile percentile : percentiles) {
+        resultsPerStage
+            .put(String.valueOf(percentile.percentile()), percentile.value(TimeUnit.MILLISECONDS));
+      }
+
+      resultsPerOperation.putIfAbsent(operation, new HashMap<>());
+      resultsPerOperation.get(operation).put(stage, resultsPerStage);
+    });
+    resultsResources.put("operations", resultsPerOperation);
+
+    resultsResources.put("payload", distributionSummaryMetrics(ResourceMetrics.PAYLOAD_SUMMARY));
+    resultsResources
+        .put("response", distributionSummaryMetrics(ResourceMetrics.RESPONSE_SUMMARY));
+
+    return resultsResources;
+  }
+
+  private Map<String, Map<String, Number>> distributionSummaryMetrics(String name) {
+    Map<String, Map<String, Number>> resultsSummary = new HashMap<>();
+
+    Collection<DistributionSummary> summaries = this.meterRegistry.find(name).summaries();
+    summaries.forEach(summary -> {
+      String key = summary.getId().getTag(ResourceMetrics.TAG_OPERATION);
+      if (summary.getId().getTag(ResourceMetrics.TAG_DIRECTION) != null) {
+        key += "." + summary.getId().getTag(ResourceMetrics.TAG_DIRECTION);
+      }
+      key += "." + summary.getId().getTag(ResourceMetrics.TAG_MIME_TYPE);
+
+      Map<String, Number> resultsPerKey = new HashMap<>();
+      resultsPerKey.put("count", summary.count());
+      resultsPerKey.put("max", summary.max());
+      resultsPerKey.put("total", summary.totalAmount());
+      resultsPerKey.put("mean", summary.mean());
+
+      ValueAtPercentile[] percentiles = summary.takeSnapshot().percentileValues();
+      for (ValueAtPercentile percentile : percentiles) {
+        resultsPerKey.put(String.valueOf(percentile.percentile()), percentile.value());
+      }
+
+      resultsSummary.put(key, resultsPerKey);
+    });
+
+    return resultsSummary;
+  }
+
   private Map<String, Number> processMetrics() {
     Map<String, Number> resultsProcess = new HashMap<>();
 
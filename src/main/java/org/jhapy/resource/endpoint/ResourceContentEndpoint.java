@@ -0,0 +1,467 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.endpoint;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.lang3.StringUtils;
+import org.jhapy.commons.endpoint.BaseEndpoint;
+import org.jhapy.commons.utils.OrikaBeanMapper;
+import org.jhapy.dto.serviceQuery.ServiceResult;
+import org.jhapy.resource.access.AccessTracker;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.config.ResourceServerProperties.Admission;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.exception.ContentTypeRejectedException;
+import org.jhapy.resource.exception.EntityNotFoundException;
+import org.jhapy.resource.exception.QuotaExceededException;
+import org.jhapy.resource.exception.TransferRejectedException;
+import org.jhapy.resource.ingest.ContentInspector;
+import org.jhapy.resource.integrity.ContentDigest;
+import org.jhapy.resource.metric.ResourceMetrics;
+import org.jhapy.resource.security.SignedUrlSigner;
+import org.jhapy.resource.service.ResourceService;
+import org.jhapy.resource.transfer.ContentTransfer;
+import org.jhapy.resource.transfer.TransferAdmissionController;
+import org.jhapy.resource.transfer.TransferAdmissionFilter;
+import org.jhapy.resource.usage.StorageUsageTracker;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Raw binary transfer of the stored files content.
+ * <p>
+ * Unlike the JSON {@link ResourceServiceEndpoint}, the content is neither mapped to a DTO nor
+ * base64 encoded: it is streamed between the client and the store. Downloads support byte
+ * ranges.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@CrossOrigin("http://localhost:4200")
+@RestController
+@RequestMapping("/resourceService/content")
+public class ResourceContentEndpoint extends BaseEndpoint {
+
+  private static final String X_CONTENT_TYPE_OPTIONS = "X-Content-Type-Options";
+  private static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+  private static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+  private static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+  private static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
+  private final ResourceService resourceService;
+  private final ResourceMetrics resourceMetrics;
+  private final TransferAdmissionController transferAdmissionController;
+  private final ContentTransfer contentTransfer;
+  private final AccessTracker accessTracker;
+  private final ContentInspector contentInspector;
+  private final SignedUrlSigner signedUrlSigner;
+  private final StorageUsageTracker storageUsageTracker;
+  private final long sendfileThreshold;
+  private final boolean sha256;
+
+  public ResourceContentEndpoint(ResourceService resourceService,
+      OrikaBeanMapper mapperFacade, ResourceMetrics resourceMetrics,
+      TransferAdmissionController transferAdmissionController,
+      ContentTransfer contentTransfer, AccessTracker accessTracker,
+      ContentInspector contentInspector, SignedUrlSigner signedUrlSigner,
+      StorageUsageTracker storageUsageTracker,
+      ResourceServerProperties resourceServerProperties) {
+    super(mapperFacade);
+    this.resourceService = resourceService;
+    this.resourceMetrics = resourceMetrics;
+    this.transferAdmissionController = transferAdmissionController;
+    this.contentTransfer = contentTransfer;
+    this.accessTracker = accessTracker;
+    this.contentInspector = contentInspector;
+    this.signedUrlSigner = signedUrlSigner;
+    this.storageUsageTracker = storageUsageTracker;
+    this.sendfileThreshold = resourceServerProperties.getStore().getSendfileThreshold().toBytes();
+    this.sha256 = resourceServerProperties.getIntegrity().isSha256();
+  }
+
+  /**
+   * Download the content of a stored file. <code>Range</code> requests are answered with the
+   * requested range, or a <code>multipart/byteranges</code> body for several ranges, so clients
+   * can fetch a large file as concurrent ranges.
+   */
+  @GetMapping(value = "/{id}")
+  public void download(@PathVariable("id") String id, HttpServletRequest request,
+      HttpServletResponse response) throws IOException {
+    StoredFile storedFile = resourceService.getMetadataById(id);
+    if (storedFile == null) {
+      response.sendError(HttpStatus.NOT_FOUND.value());
+      return;
+    }
+    send(storedFile, request, response);
+  }
+
+  /**
+   * Issue a signed URL of the current content of a stored file, see {@link SignedUrlSigner}
+   */
+  @PostMapping(value = "/{id}/signedUrl")
+  public ResponseEntity<ServiceResult> signedUrl(@PathVariable("id") String id) {
+    String loggerPrefix = getLoggerPrefix("signedUrl");
+    try {
+      StoredFile storedFile = resourceService.getCurrentMetadataById(id);
+      if (storedFile == null) {
+        throw new EntityNotFoundException();
+      }
+      return handleResult(loggerPrefix, signedUrlSigner.sign(storedFile));
+    } catch (Throwable t) {
+      return handleResult(loggerPrefix, t);
+    }
+  }
+
+  /**
+   * Download through a signed URL, whose signature and expiry have been checked by the {@link
+   * org.jhapy.resource.security.SignedUrlAuthenticationFilter}. The content of the URL never
+   * changes, so the response is cacheable as immutable until the URL expires, when the content is
+   * identified by its SHA-256.
+   */
+  @GetMapping(value = "/signed/{id}/{hash}")
+  public void downloadSigned(@PathVariable("id") String id, @PathVariable("hash") String hash,
+      @RequestParam(SignedUrlSigner.EXPIRES_PARAMETER) long expires, HttpServletRequest request,
+      HttpServletResponse response) throws IOException {
+    StoredFile storedFile = resourceService.getMetadataById(id);
+    if (storedFile == null || !hash.equals(SignedUrlSigner.contentHash(storedFile))) {
+      // Deleted, or replaced by a new content with its own URL
+      response.sendError(HttpStatus.NOT_FOUND.value());
+      return;
+    }
+    String etag = SignedUrlSigner.etag(storedFile);
+    response.setHeader(HttpHeaders.ETAG, etag);
+    response.setHeader(HttpHeaders.CACHE_CONTROL,
+        signedUrlSigner.cacheControl(storedFile, expires));
+    if (etag.equals(request.getHeader(HttpHeaders.IF_NONE_MATCH))) {
+      response.setStatus(HttpStatus.NOT_MODIFIED.value());
+      return;
+    }
+    send(storedFile, request, response);
+  }
+
+  private void send(StoredFile storedFile, HttpServletRequest request,
+      HttpServletResponse response) throws IOException {
+    String loggerPrefix = getLoggerPrefix("download");
+    Path contentFile = resourceService.getContentFile(storedFile);
+    long length = contentFile != null ? Files.size(contentFile) : storedFile.getFilesize();
+    List<ByteRange> ranges = length > 0 ? parseRanges(request.getHeader(HttpHeaders.RANGE), length)
+        : Collections.emptyList();
+    if (ranges == null) {
+      response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+      response.sendError(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+      return;
+    }
+    long admittedBytes = ranges.isEmpty() ? (length > 0 ? length : -1)
+        : ranges.stream().mapToLong(ByteRange::length).sum();
+    try {
+      transferAdmissionController.admitForCurrentRequest(admittedBytes);
+    } catch (TransferRejectedException e) {
+      logger().warn(loggerPrefix + "Transfer rejected : " + e.getMessage());
+      TransferAdmissionFilter.reject(request, response, e);
+      return;
+    }
+
+    // A declared type not matching the content is not rendered by the browsers: the content is
+    // served as detected, as an attachment
+    boolean inline = contentInspector.matchesDetectedType(storedFile);
+    String mimeType = !inline ? storedFile.getDetectedMimeType()
+        : StringUtils.isBlank(storedFile.getMimeType()) ? MediaType.APPLICATION_OCTET_STREAM_VALUE
+            : storedFile.getMimeType();
+    response.setContentType(mimeType);
+    response.setHeader(X_CONTENT_TYPE_OPTIONS, "nosniff");
+    response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+    ContentDisposition.Builder contentDisposition = ContentDisposition
+        .builder(inline ? "inline" : "attachment");
+    if (storedFile.getFilename() != null) {
+      contentDisposition.filename(storedFile.getFilename());
+    }
+    if (storedFile.getFilename() != null || !inline) {
+      response.setHeader(HttpHeaders.CONTENT_DISPOSITION, contentDisposition.build().toString());
+    }
+
+    // A sendfile transfer completes after the handler has returned and its permit released: the
+    // transfers held in the large lane are written by the handler so their bytes stay counted
+    Admission admission = transferAdmissionController.getAdmission();
+    boolean allowSendfile = !admission.isEnabled() || admittedBytes >= 0
+        && admittedBytes <= admission.getLargeTransferThreshold().toBytes();
+
+    long start = System.nanoTime();
+    byte[] content = null;
+    if (contentFile == null) {
+      storedFile = resourceService.getById(storedFile.getId());
+      if (storedFile == null || storedFile.getContent() == null) {
+        response.sendError(HttpStatus.NOT_FOUND.value());
+        return;
+      }
+      content = storedFile.getContent();
+      if (content.length != length) {
+        // Outdated file size, serve the whole content
+        length = content.length;
+        ranges = Collections.emptyList();
+      }
+    }
+
+    long bytes;
+    if (ranges.isEmpty()) {
+      response.setContentLengthLong(length);
+      bytes = writeRange(request, response, storedFile, contentFile, content,
+          new ByteRange(0, length - 1), allowSendfile, true);
+    } else if (ranges.size() == 1) {
+      ByteRange range = ranges.get(0);
+      response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+      response.setHeader(HttpHeaders.CONTENT_RANGE, range.contentRange(length));
+      response.setContentLengthLong(range.length());
+      bytes = writeRange(request, response, storedFile, contentFile, content, range,
+          allowSendfile, range.length() == length);
+    } else {
+      bytes = writeMultipart(request, response, storedFile, contentFile, content, ranges, length,
+          mimeType);
+    }
+    if (contentFile != null) {
+      accessTracker.recordAccess(storedFile.getId(), bytes);
+    }
+    resourceMetrics
+        .recordStage("download", ResourceMetrics.STAGE_WRITE, System.nanoTime() - start);
+    resourceMetrics.recordResponse("download", storedFile.getMimeType(), bytes);
+  }
+
+  /**
+   * Write several ranges as a <code>multipart/byteranges</code> body
+   */
+  private long writeMultipart(HttpServletRequest request, HttpServletResponse response,
+      StoredFile storedFile, Path contentFile, byte[] content, List<ByteRange> ranges,
+      long length, String mimeType) throws IOException {
+    String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+    List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+    long contentLength = 0;
+    for (ByteRange range : ranges) {
+      byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+          + HttpHeaders.CONTENT_TYPE + ": " + mimeType + "\r\n"
+          + HttpHeaders.CONTENT_RANGE + ": " + range.contentRange(length) + "\r\n\r\n")
+          .getBytes(StandardCharsets.US_ASCII);
+      partHeaders.add(partHeader);
+      contentLength += partHeader.length + range.length();
+    }
+    byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    contentLength += end.length;
+
+    response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+    response.setContentType("multipart/byteranges; boundary=" + boundary);
+    response.setContentLengthLong(contentLength);
+    OutputStream outputStream = response.getOutputStream();
+    long bytes = 0;
+    for (int i = 0; i < ranges.size(); i++) {
+      outputStream.write(partHeaders.get(i));
+      bytes += writeRange(request, response, storedFile, contentFile, content, ranges.get(i),
+          false, false);
+    }
+    outputStream.write(end);
+    response.flushBuffer();
+    return bytes;
+  }
+
+  /**
+   * Write a range of the content, handing a file backed content over to the container
+   * <code>sendfile</code> support when allowed and available so it is copied by the kernel, or
+   * with a channel transfer otherwise. The whole content is verified against its checksums while
+   * it is transferred, unless copied by the kernel
+   */
+  private long writeRange(HttpServletRequest request, HttpServletResponse response,
+      StoredFile storedFile, Path contentFile, byte[] content, ByteRange range,
+      boolean allowSendfile, boolean wholeContent) throws IOException {
+    if (content != null) {
+      OutputStream outputStream = response.getOutputStream();
+      long bytes = contentTransfer
+          .write(content, (int) range.start, (int) range.length(), outputStream);
+      outputStream.flush();
+      return bytes;
+    }
+    if (allowSendfile && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))
+        && range.length() >= sendfileThreshold) {
+      request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, contentFile.toString());
+      request.setAttribute(SENDFILE_START_ATTRIBUTE, range.start);
+      request.setAttribute(SENDFILE_END_ATTRIBUTE, range.end + 1);
+      return range.length();
+    }
+    WritableByteChannel channel = Channels.newChannel(response.getOutputStream());
+    long bytes = wholeContent ? resourceService.transferContent(storedFile, channel)
+        : resourceService.transferContent(storedFile, channel, range.start, range.length());
+    response.flushBuffer();
+    return bytes;
+  }
+
+  /**
+   * Parse a <code>Range</code> header, dropping the unsatisfiable ranges and coalescing the
+   * overlapping ones
+   *
+   * @return the ranges sorted by position, empty if the whole content is requested (no or
+   * malformed header) or <code>null</code> if no range can be satisfied
+   */
+  static List<ByteRange> parseRanges(String rangeHeader, long length) {
+    if (StringUtils.isBlank(rangeHeader)) {
+      return Collections.emptyList();
+    }
+    List<HttpRange> httpRanges;
+    try {
+      httpRanges = HttpRange.parseRanges(rangeHeader);
+    } catch (IllegalArgumentException e) {
+      return Collections.emptyList();
+    }
+    List<ByteRange> ranges = new ArrayList<>();
+    for (HttpRange httpRange : httpRanges) {
+      try {
+        long rangeStart = httpRange.getRangeStart(length);
+        long rangeEnd = httpRange.getRangeEnd(length);
+        if (rangeStart < length && rangeStart <= rangeEnd) {
+          ranges.add(new ByteRange(rangeStart, rangeEnd));
+        }
+      } catch (IllegalArgumentException e) {
+        // Unsatisfiable range
+      }
+    }
+    if (ranges.isEmpty()) {
+      return httpRanges.isEmpty() ? Collections.emptyList() : null;
+    }
+    ranges.sort(Comparator.comparingLong(range -> range.start));
+    List<ByteRange> coalesced = new ArrayList<>();
+    ByteRange current = ranges.get(0);
+    for (ByteRange range : ranges.subList(1, ranges.size())) {
+      if (range.start <= current.end + 1) {
+        current = new ByteRange(current.start, Math.max(current.end, range.end));
+      } else {
+        coalesced.add(current);
+        current = range;
+      }
+    }
+    coalesced.add(current);
+    return coalesced;
+  }
+
+  /**
+   * A satisfiable byte range, bounds included
+   */
+  static class ByteRange {
+
+    private final long start;
+    private final long end;
+
+    ByteRange(long start, long end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    long length() {
+      return end - start + 1;
+    }
+
+    String contentRange(long totalLength) {
+      return "bytes " + start + "-" + end + "/" + totalLength;
+    }
+  }
+
+  @PostMapping
+  public ResponseEntity<ServiceResult> upload(@RequestParam("filename") String filename,
+      @RequestParam(value = "mimeType", required = false) String mimeType,
+      @RequestParam(value = "relatedObjectClass", required = false) String relatedObjectClass,
+      @RequestParam(value = "relatedObjectId", required = false) Long relatedObjectId,
+      HttpServletRequest request) {
+    String loggerPrefix = getLoggerPrefix("upload");
+    try {
+      // Admitted by the TransferAdmissionFilter on its Content-Length, or as the largest upload
+      long contentLength = request.getContentLengthLong();
+
+      StoredFile storedFile = new StoredFile();
+      storedFile.setFilename(filename);
+      storedFile.setMimeType(mimeType == null ? request.getContentType() : mimeType);
+      storedFile.setRelatedObjectClass(relatedObjectClass);
+      storedFile.setRelatedObjectId(relatedObjectId);
+      // Quotas and content type are checked before the body is read, so a rejected upload is
+      // not received
+      storageUsageTracker.checkQuota(relatedObjectClass, relatedObjectId,
+          Math.max(0, contentLength));
+      InputStream inputStream = contentInspector.markable(request.getInputStream());
+      contentInspector.inspect(storedFile, inputStream);
+      ContentDigest contentDigest = new ContentDigest(sha256);
+      storedFile.setContent(resourceMetrics.record("upload", ResourceMetrics.STAGE_RECEIVE,
+          () -> readContent(inputStream, contentLength, contentDigest)));
+      storedFile.setFilesize(storedFile.getContent().length);
+      contentDigest.applyTo(storedFile);
+      if (contentLength < 0) {
+        storageUsageTracker.checkQuota(relatedObjectClass, relatedObjectId,
+            storedFile.getFilesize());
+      }
+
+      StoredFile savedFile = resourceService.save(storedFile);
+      savedFile.setContent(null);
+      return handleResult(loggerPrefix,
+          mapperFacade.map(savedFile, org.jhapy.dto.utils.StoredFile.class));
+    } catch (TransferRejectedException e) {
+      logger().warn(loggerPrefix + "Transfer rejected : " + e.getMessage());
+      return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+          .header(HttpHeaders.RETRY_AFTER,
+              String.valueOf(Math.max(1, e.getRetryAfter().getSeconds())))
+          .build();
+    } catch (ContentTypeRejectedException e) {
+      logger().warn(loggerPrefix + "Content rejected : " + e.getMessage());
+      return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).build();
+    } catch (QuotaExceededException e) {
+      logger().warn(loggerPrefix + "Upload rejected : " + e.getMessage());
+      return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).build();
+    } catch (Throwable t) {
+      return handleResult(loggerPrefix, t);
+    }
+  }
+
+  private byte[] readContent(InputStream inputStream, long contentLength,
+      ContentDigest contentDigest) {
+    try {
+      return contentTransfer.read(inputStream, contentLength,
+          transferAdmissionController.getAdmission().getMaxUploadSize().toBytes(),
+          contentDigest);
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e.getMessage(), e);
+    }
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.endpoint;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.lang3.StringUtils;
+import org.jhapy.commons.endpoint.BaseEndpoint;
+import org.jhapy.commons.utils.OrikaBeanMapper;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.exception.TransferRejectedException;
+import org.jhapy.resource.metric.ResourceMetrics;
+import org.jhapy.resource.service.ResourceExporter;
+import org.jhapy.resource.service.ResourceService;
+import org.jhapy.resource.transfer.TransferAdmissionController;
+import org.jhapy.resource.transfer.TransferAdmissionFilter;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Download of several stored files as one ZIP archive, streamed as it is built.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@CrossOrigin("http://localhost:4200")
+@RestController
+@RequestMapping("/resourceService/export")
+public class ResourceExportEndpoint extends BaseEndpoint {
+
+  private static final String ZIP_CONTENT_TYPE = "application/zip";
+
+  private final ResourceService resourceService;
+  private final ResourceExporter resourceExporter;
+  private final ResourceMetrics resourceMetrics;
+  private final TransferAdmissionController transferAdmissionController;
+  private final int maxEntries;
+
+  public ResourceExportEndpoint(ResourceService resourceService,
+      ResourceExporter resourceExporter, OrikaBeanMapper mapperFacade,
+      ResourceMetrics resourceMetrics, TransferAdmissionController transferAdmissionController,
+      ResourceServerProperties resourceServerProperties) {
+    super(mapperFacade);
+    this.resourceService = resourceService;
+    this.resourceExporter = resourceExporter;
+    this.resourceMetrics = resourceMetrics;
+    this.transferAdmissionController = transferAdmissionController;
+    this.maxEntries = resourceServerProperties.getExport().getMaxEntries();
+  }
+
+  /**
+   * Export the given stored files, or all the stored files of a related object
+   *
+   * @param ids the stored files to export, in this order
+   * @param filename the name of the archive
+   */
+  @GetMapping
+  public void export(@RequestParam(value = "ids", required = false) List<String> ids,
+      @RequestParam(value = "relatedObjectClass", required = false) String relatedObjectClass,
+      @RequestParam(value = "relatedObjectId", required = false) Long relatedObjectId,
+      @RequestParam(value = "filename", defaultValue = "export.zip") String filename,
+      HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String loggerPrefix = getLoggerPrefix("export");
+    List<StoredFile> storedFiles;
+    if (ids != null && !ids.isEmpty()) {
+      if (ids.size() > maxEntries) {
+        response.sendError(HttpStatus.BAD_REQUEST.value(),
+            "At most " + maxEntries + " stored files can be exported");
+        return;
+      }
+      storedFiles = new ArrayList<>();
+      for (String id : new LinkedHashSet<>(ids)) {
+        storedFiles.add(resourceService.getMetadataById(id));
+      }
+      storedFiles = storedFiles.stream().filter(Objects::nonNull).collect(Collectors.toList());
+    } else if (StringUtils.isNotBlank(relatedObjectClass) && relatedObjectId != null) {
+      // One more than allowed, only to tell a too large export apart
+      storedFiles = resourceService.getMetadataByRelatedObject(relatedObjectClass,
+          relatedObjectId, maxEntries + 1);
+      if (storedFiles.size() > maxEntries) {
+        response.sendError(HttpStatus.BAD_REQUEST.value(),
+            "At most " + maxEntries + " stored files can be exported");
+        return;
+      }
+    } else {
+      response.sendError(HttpStatus.BAD_REQUEST.value(),
+          "Stored file ids or a related object are required");
+      return;
+    }
+    if (storedFiles.isEmpty()) {
+      response.sendError(HttpStatus.NOT_FOUND.value());
+      return;
+    }
+
+    try {
+      long length = storedFiles.stream().mapToLong(StoredFile::getFilesize).sum();
+      transferAdmissionController.admitForCurrentRequest(length > 0 ? length : -1);
+    } catch (TransferRejectedException e) {
+      logger().warn(loggerPrefix + "Transfer rejected : " + e.getMessage());
+      TransferAdmissionFilter.reject(request, response, e);
+      return;
+    }
+
+    response.setContentType(ZIP_CONTENT_TYPE);
+    response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+        ContentDisposition.builder("attachment").filename(filename).build().toString());
+    long start = System.nanoTime();
+    long bytes = resourceExporter.export(storedFiles, response.getOutputStream());
+    response.flushBuffer();
+    resourceMetrics
+        .recordStage("export", ResourceMetrics.STAGE_WRITE, System.nanoTime() - start);
+    resourceMetrics.recordResponse("export", ZIP_CONTENT_TYPE, bytes);
+  }
+}
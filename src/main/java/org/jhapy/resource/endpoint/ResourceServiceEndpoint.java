@@ -25,7 +25,15 @@ import org.jhapy.dto.serviceQuery.generic.DeleteByStrIdQuery;
 import org.jhapy.dto.serviceQuery.generic.GetByStrIdQuery;
 import org.jhapy.dto.serviceQuery.generic.SaveQuery;
 import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.domain.StoredFilePatch;
+import org.jhapy.resource.exception.ContentTypeRejectedException;
+import org.jhapy.resource.exception.QuotaExceededException;
+import org.jhapy.resource.exception.TransferRejectedException;
+import org.jhapy.resource.metric.ResourceMetrics;
 import org.jhapy.resource.service.ResourceService;
+import org.jhapy.resource.transfer.TransferAdmissionController;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -34,6 +42,10 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 /**
+ * Service to service API. Requests and responses are JSON by default, or Smile / CBOR when sent
+ * with the matching <code>Content-Type</code> / <code>Accept</code> headers, see {@link
+ * org.jhapy.resource.config.metric.ResourceMetricsConfiguration}.
+ *
  * @author jHapy Lead Dev.
  * @version 1.0
  * @since 2019-06-05
@@ -45,19 +57,36 @@ import org.springframework.web.bind.annotation.RestController;
 public class ResourceServiceEndpoint extends BaseEndpoint {
 
   private final ResourceService resourceService;
+  private final ResourceMetrics resourceMetrics;
+  private final TransferAdmissionController transferAdmissionController;
 
   public ResourceServiceEndpoint(ResourceService resourceService,
-      OrikaBeanMapper mapperFacade) {
+      OrikaBeanMapper mapperFacade, ResourceMetrics resourceMetrics,
+      TransferAdmissionController transferAdmissionController) {
     super(mapperFacade);
     this.resourceService = resourceService;
+    this.resourceMetrics = resourceMetrics;
+    this.transferAdmissionController = transferAdmissionController;
   }
 
   @PostMapping(value = "/getById")
   public ResponseEntity<ServiceResult> getById(@RequestBody GetByStrIdQuery query) {
     String loggerPrefix = getLoggerPrefix("getById");
     try {
-      return handleResult(loggerPrefix, mapperFacade.map(resourceService
-          .getById(query.getId()), org.jhapy.dto.utils.StoredFile.class, getOrikaContext(query)));
+      StoredFile storedFile = resourceService.getById(query.getId());
+      if (storedFile != null && transferAdmissionController.getAdmission().isEnabled()) {
+        // Admitted on the loaded payload before it is mapped and written, without another query
+        transferAdmissionController
+            .admitForCurrentRequest(ResourceMetrics.payloadSize(storedFile));
+      }
+      ResourceMetrics
+          .bindOperation("getById", storedFile == null ? null : storedFile.getMimeType());
+      return handleResult(loggerPrefix,
+          resourceMetrics.record("getById", ResourceMetrics.STAGE_MAPPING,
+              () -> mapperFacade.map(storedFile, org.jhapy.dto.utils.StoredFile.class,
+                  getOrikaContext(query))));
+    } catch (TransferRejectedException e) {
+      return tooManyRequests(loggerPrefix, e);
     } catch (Throwable t) {
       return handleResult(loggerPrefix, t);
     }
@@ -68,10 +97,39 @@ public class ResourceServiceEndpoint extends BaseEndpoint {
       @RequestBody SaveQuery<org.jhapy.dto.utils.StoredFile> query) {
     String loggerPrefix = getLoggerPrefix("save");
     try {
-      return handleResult(loggerPrefix, mapperFacade.map(resourceService
-              .save(mapperFacade
-                  .map(query.getEntity(), StoredFile.class, getOrikaContext(query))),
-          org.jhapy.dto.utils.StoredFile.class, getOrikaContext(query)));
+      StoredFile storedFile = resourceMetrics.record("save", ResourceMetrics.STAGE_MAPPING,
+          () -> mapperFacade.map(query.getEntity(), StoredFile.class, getOrikaContext(query)));
+      ResourceMetrics.bindOperation("save", storedFile == null ? null : storedFile.getMimeType());
+      StoredFile savedFile = resourceService.save(storedFile);
+      return handleResult(loggerPrefix,
+          resourceMetrics.record("save", ResourceMetrics.STAGE_MAPPING,
+              () -> mapperFacade.map(savedFile, org.jhapy.dto.utils.StoredFile.class,
+                  getOrikaContext(query))));
+    } catch (ContentTypeRejectedException e) {
+      logger().warn(loggerPrefix + "Content rejected : " + e.getMessage());
+      return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).build();
+    } catch (QuotaExceededException e) {
+      logger().warn(loggerPrefix + "Save rejected : " + e.getMessage());
+      return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).build();
+    } catch (Throwable t) {
+      return handleResult(loggerPrefix, t);
+    }
+  }
+
+  /**
+   * Update metadata fields of a stored file without sending its content back and forth
+   */
+  @PostMapping(value = "/patch")
+  public ResponseEntity<ServiceResult> patch(@RequestBody StoredFilePatch patch) {
+    String loggerPrefix = getLoggerPrefix("patch");
+    try {
+      ResourceMetrics.bindOperation("patch", null);
+      StoredFile storedFile = resourceService.patch(patch);
+      return handleResult(loggerPrefix,
+          mapperFacade.map(storedFile, org.jhapy.dto.utils.StoredFile.class));
+    } catch (ContentTypeRejectedException e) {
+      logger().warn(loggerPrefix + "Patch rejected : " + e.getMessage());
+      return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).build();
     } catch (Throwable t) {
       return handleResult(loggerPrefix, t);
     }
@@ -81,10 +139,20 @@ public class ResourceServiceEndpoint extends BaseEndpoint {
   public ResponseEntity<ServiceResult> delete(@RequestBody DeleteByStrIdQuery query) {
     String loggerPrefix = getLoggerPrefix("delete");
     try {
+      ResourceMetrics.bindOperation("delete", null);
       resourceService.delete(query.getId());
       return handleResult(loggerPrefix);
     } catch (Throwable t) {
       return handleResult(loggerPrefix, t);
     }
   }
+
+  private ResponseEntity<ServiceResult> tooManyRequests(String loggerPrefix,
+      TransferRejectedException e) {
+    logger().warn(loggerPrefix + "Transfer rejected : " + e.getMessage());
+    return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+        .header(HttpHeaders.RETRY_AFTER,
+            String.valueOf(Math.max(1, e.getRetryAfter().getSeconds())))
+        .build();
+  }
 }
\ No newline at end of file
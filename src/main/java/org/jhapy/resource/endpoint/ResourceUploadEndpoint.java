@@ -0,0 +1,146 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.endpoint;
+
+import java.io.IOException;
+import javax.servlet.http.HttpServletRequest;
+import org.jhapy.commons.endpoint.BaseEndpoint;
+import org.jhapy.commons.utils.OrikaBeanMapper;
+import org.jhapy.dto.serviceQuery.ServiceResult;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.domain.UploadSession;
+import org.jhapy.resource.exception.EntityNotFoundException;
+import org.jhapy.resource.exception.QuotaExceededException;
+import org.jhapy.resource.service.UploadSessionService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Resumable chunked uploads.
+ * <p>
+ * A client opens a session, sends the raw chunks in any order (possibly in parallel), queries the
+ * session to find the chunks still missing after an interruption, then commits the session.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@CrossOrigin("http://localhost:4200")
+@RestController
+@RequestMapping("/resourceService/uploads")
+public class ResourceUploadEndpoint extends BaseEndpoint {
+
+  private final UploadSessionService uploadSessionService;
+
+  public ResourceUploadEndpoint(UploadSessionService uploadSessionService,
+      OrikaBeanMapper mapperFacade) {
+    super(mapperFacade);
+    this.uploadSessionService = uploadSessionService;
+  }
+
+  @PostMapping
+  public ResponseEntity<ServiceResult> open(@RequestParam("filename") String filename,
+      @RequestParam(value = "mimeType", required = false) String mimeType,
+      @RequestParam(value = "relatedObjectClass", required = false) String relatedObjectClass,
+      @RequestParam(value = "relatedObjectId", required = false) Long relatedObjectId,
+      @RequestParam("totalSize") long totalSize,
+      @RequestParam("chunkSize") long chunkSize,
+      @RequestParam(value = "checksum", required = false) String checksum) {
+    String loggerPrefix = getLoggerPrefix("open");
+    try {
+      UploadSession uploadSession = new UploadSession();
+      uploadSession.setFilename(filename);
+      uploadSession.setMimeType(mimeType);
+      uploadSession.setRelatedObjectClass(relatedObjectClass);
+      uploadSession.setRelatedObjectId(relatedObjectId);
+      uploadSession.setTotalSize(totalSize);
+      uploadSession.setChunkSize(chunkSize);
+      uploadSession.setChecksum(checksum);
+      return handleResult(loggerPrefix, uploadSessionService.open(uploadSession));
+    } catch (QuotaExceededException e) {
+      logger().warn(loggerPrefix + "Upload rejected : " + e.getMessage());
+      return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).build();
+    } catch (Throwable t) {
+      return handleResult(loggerPrefix, t);
+    }
+  }
+
+  @GetMapping(value = "/{sessionId}")
+  public ResponseEntity<ServiceResult> getById(@PathVariable("sessionId") String sessionId) {
+    String loggerPrefix = getLoggerPrefix("getById");
+    try {
+      UploadSession uploadSession = uploadSessionService.getById(sessionId);
+      if (uploadSession == null) {
+        throw new EntityNotFoundException("Upload session '" + sessionId + "' not found");
+      }
+      return handleResult(loggerPrefix, uploadSession);
+    } catch (Throwable t) {
+      return handleResult(loggerPrefix, t);
+    }
+  }
+
+  @PutMapping(value = "/{sessionId}/chunks/{index}")
+  public ResponseEntity<ServiceResult> writeChunk(@PathVariable("sessionId") String sessionId,
+      @PathVariable("index") int index, HttpServletRequest request) {
+    String loggerPrefix = getLoggerPrefix("writeChunk");
+    try {
+      return handleResult(loggerPrefix, uploadSessionService
+          .writeChunk(sessionId, index, request.getInputStream(),
+              request.getContentLengthLong()));
+    } catch (IOException e) {
+      return handleResult(loggerPrefix, new IllegalArgumentException(e.getMessage(), e));
+    } catch (Throwable t) {
+      return handleResult(loggerPrefix, t);
+    }
+  }
+
+  @PostMapping(value = "/{sessionId}/commit")
+  public ResponseEntity<ServiceResult> commit(@PathVariable("sessionId") String sessionId) {
+    String loggerPrefix = getLoggerPrefix("commit");
+    try {
+      StoredFile storedFile = uploadSessionService.commit(sessionId);
+      storedFile.setContent(null);
+      storedFile.setOrginalContent(null);
+      return handleResult(loggerPrefix,
+          mapperFacade.map(storedFile, org.jhapy.dto.utils.StoredFile.class));
+    } catch (Throwable t) {
+      return handleResult(loggerPrefix, t);
+    }
+  }
+
+  @DeleteMapping(value = "/{sessionId}")
+  public ResponseEntity<ServiceResult> abort(@PathVariable("sessionId") String sessionId) {
+    String loggerPrefix = getLoggerPrefix("abort");
+    try {
+      uploadSessionService.abort(sessionId);
+      return handleResult(loggerPrefix);
+    } catch (Throwable t) {
+      return handleResult(loggerPrefix, t);
+    }
+  }
+}
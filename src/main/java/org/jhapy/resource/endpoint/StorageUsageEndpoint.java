@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.endpoint;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.jhapy.commons.endpoint.BaseEndpoint;
+import org.jhapy.commons.utils.OrikaBeanMapper;
+import org.jhapy.dto.serviceQuery.ServiceResult;
+import org.jhapy.resource.domain.StorageUsage;
+import org.jhapy.resource.domain.StorageUsage.Dimension;
+import org.jhapy.resource.usage.StorageUsageTracker;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Storage usage per owner, read from the maintained aggregates: by id for the given owners, or
+ * the largest owners of a dimension.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@CrossOrigin("http://localhost:4200")
+@RestController
+@RequestMapping("/resourceService/usage")
+public class StorageUsageEndpoint extends BaseEndpoint {
+
+  private static final int MAX_LIMIT = 1000;
+
+  private final StorageUsageTracker storageUsageTracker;
+
+  public StorageUsageEndpoint(StorageUsageTracker storageUsageTracker,
+      OrikaBeanMapper mapperFacade) {
+    super(mapperFacade);
+    this.storageUsageTracker = storageUsageTracker;
+  }
+
+  /**
+   * Usages of a related object class, a related object and / or a user
+   */
+  @GetMapping
+  public ResponseEntity<ServiceResult> getUsages(
+      @RequestParam(value = "relatedObjectClass", required = false) String relatedObjectClass,
+      @RequestParam(value = "relatedObjectId", required = false) Long relatedObjectId,
+      @RequestParam(value = "createdBy", required = false) String createdBy) {
+    String loggerPrefix = getLoggerPrefix("getUsages");
+    try {
+      List<StorageUsage> usages = new ArrayList<>();
+      if (relatedObjectClass != null) {
+        usages.addAll(storageUsageTracker
+            .getUsages(Dimension.RELATED_OBJECT_CLASS, List.of(relatedObjectClass)));
+        if (relatedObjectId != null) {
+          usages.addAll(storageUsageTracker.getUsages(Dimension.RELATED_OBJECT,
+              List.of(StorageUsage.relatedObject(relatedObjectClass, relatedObjectId))));
+        }
+      }
+      if (createdBy != null) {
+        usages.addAll(storageUsageTracker.getUsages(Dimension.CREATED_BY, List.of(createdBy)));
+      }
+      return handleResult(loggerPrefix, usages);
+    } catch (Throwable t) {
+      return handleResult(loggerPrefix, t);
+    }
+  }
+
+  /**
+   * Largest usages of a dimension, largest first
+   */
+  @GetMapping(value = "/largest")
+  public ResponseEntity<ServiceResult> getLargest(@RequestParam("dimension") Dimension dimension,
+      @RequestParam(value = "limit", defaultValue = "20") int limit) {
+    String loggerPrefix = getLoggerPrefix("getLargest");
+    try {
+      return handleResult(loggerPrefix, storageUsageTracker
+          .getLargest(dimension, Math.max(1, Math.min(limit, MAX_LIMIT))));
+    } catch (Throwable t) {
+      return handleResult(loggerPrefix, t);
+    }
+  }
+}
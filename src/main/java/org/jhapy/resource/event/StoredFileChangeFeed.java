@@ -0,0 +1,304 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.event;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.UpdateDescription;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+import javax.jms.Topic;
+import org.apache.activemq.command.ActiveMQTopic;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.jhapy.commons.utils.HasLogger;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.domain.ChangeFeedCheckpoint;
+import org.jhapy.resource.repository.ChangeFeedCheckpointRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Feed of the stored file mutations, tailing the MongoDB change stream of the
+ * <code>storedFile</code> collection and republishing every change as a {@link StoredFileEvent}
+ * on an ActiveMQ topic.
+ * <p>
+ * The content is projected out of the stream on the server. The changes made by the background
+ * jobs only (access statistics, archiving, checksums) are not published. The resume token of the
+ * last published change is checkpointed, so a restart resumes after it: delivery is at least once,
+ * the changes published after the last checkpoint being published again. Only the instance holding
+ * the feed lease tails the stream, the others take over when it expires.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Component
+@ConditionalOnProperty(prefix = "jhapy.resource.events", name = "enabled", havingValue = "true")
+public class StoredFileChangeFeed implements HasLogger {
+
+  private static final String COLLECTION = "storedFile";
+
+  /**
+   * MongoDB error codes of a resume token no longer in the oplog
+   */
+  private static final Set<Integer> HISTORY_LOST_CODES = Set.of(136, 280, 286);
+
+  /**
+   * Fields only updated by the background jobs
+   */
+  private static final Set<String> INTERNAL_FIELDS = Set
+      .of("lastAccessed", "accessCount", "archived", "archiveKey", "content", "orginalContent",
+          "contentPath", "orginalContentPath", "crc32c", "sha256", "version");
+
+  private final MongoTemplate mongoTemplate;
+  private final JmsTemplate jmsTemplate;
+  private final ObjectMapper objectMapper;
+  private final ChangeFeedCheckpointRepository checkpointRepository;
+  private final ResourceServerProperties.Events events;
+  private final Topic topic;
+  private final String owner = UUID.randomUUID().toString();
+
+  private final MeterRegistry meterRegistry;
+  private final Counter historyLostCounter;
+
+  private volatile boolean running;
+  private Thread tailer;
+
+  public StoredFileChangeFeed(MongoTemplate mongoTemplate, JmsTemplate jmsTemplate,
+      ObjectMapper objectMapper, ChangeFeedCheckpointRepository checkpointRepository,
+      ResourceServerProperties resourceServerProperties, MeterRegistry meterRegistry) {
+    this.mongoTemplate = mongoTemplate;
+    this.jmsTemplate = jmsTemplate;
+    this.objectMapper = objectMapper;
+    this.checkpointRepository = checkpointRepository;
+    this.events = resourceServerProperties.getEvents();
+    this.topic = new ActiveMQTopic(events.getTopic());
+    this.meterRegistry = meterRegistry;
+    this.historyLostCounter = Counter.builder("resource.events.history.lost")
+        .description("Restarts of the change feed from the current changes, its resume token "
+            + "being no longer available")
+        .register(meterRegistry);
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void start() {
+    running = true;
+    tailer = new Thread(this::run, "resource-change-feed");
+    tailer.setDaemon(true);
+    tailer.start();
+  }
+
+  @PreDestroy
+  public void stop() throws InterruptedException {
+    running = false;
+    if (tailer != null) {
+      tailer.join(TimeUnit.SECONDS.toMillis(10));
+      checkpointRepository.releaseLease(COLLECTION, owner);
+    }
+  }
+
+  private void run() {
+    String loggerPrefix = getLoggerPrefix("run");
+    while (running) {
+      ChangeFeedCheckpoint checkpoint = null;
+      try {
+        checkpoint = checkpointRepository.acquireLease(COLLECTION, owner, leaseUntil());
+        if (checkpoint != null) {
+          logger().info(loggerPrefix + "Tailing the " + COLLECTION + " change stream");
+          tail(checkpoint.getResumeToken());
+        }
+      } catch (MongoCommandException e) {
+        if (HISTORY_LOST_CODES.contains(e.getErrorCode())) {
+          logger().error(loggerPrefix + "Resume token lost, restarting from the current changes, "
+              + "changes since the last checkpoint are not published : " + e.getMessage());
+          historyLostCounter.increment();
+          checkpointRepository.checkpoint(COLLECTION, owner, null, leaseUntil());
+          continue;
+        }
+        logger().error(loggerPrefix + "Change feed failure : " + e.getMessage(), e);
+      } catch (RuntimeException e) {
+        logger().error(loggerPrefix + "Change feed failure : " + e.getMessage(), e);
+      }
+      if (running) {
+        sleep(checkpoint == null ? events.getLease().dividedBy(2) : Duration.ofSeconds(5));
+      }
+    }
+  }
+
+  /**
+   * Publish the changes until stopped or the lease is lost
+   */
+  private void tail(String resumeToken) {
+    List<Bson> pipeline = Arrays.asList(
+        Aggregates.match(Filters.in("operationType",
+            Arrays.asList("insert", "update", "replace", "delete"))),
+        Aggregates.project(Projections.exclude("fullDocument.content",
+            "fullDocument.orginalContent", "updateDescription.updatedFields.content",
+            "updateDescription.updatedFields.orginalContent")));
+    var changeStream = mongoTemplate.getCollection(COLLECTION).watch(pipeline)
+        .fullDocument(FullDocument.UPDATE_LOOKUP)
+        .maxAwaitTime(1, TimeUnit.SECONDS);
+    if (resumeToken != null) {
+      changeStream = changeStream.resumeAfter(BsonDocument.parse(resumeToken));
+    }
+
+    try (MongoCursor<ChangeStreamDocument<Document>> cursor = changeStream.cursor()) {
+      String lastToken = resumeToken;
+      long lastCheckpoint = System.nanoTime();
+      while (running) {
+        ChangeStreamDocument<Document> change = cursor.tryNext();
+        if (change != null) {
+          publish(change);
+          lastToken = change.getResumeToken().toJson();
+        }
+        if (System.nanoTime() - lastCheckpoint >= events.getCheckpointInterval().toNanos()) {
+          if (!checkpointRepository.checkpoint(COLLECTION, owner, lastToken, leaseUntil())) {
+            logger().warn(getLoggerPrefix("tail") + "Change feed lease lost");
+            return;
+          }
+          lastCheckpoint = System.nanoTime();
+        }
+      }
+      checkpointRepository.checkpoint(COLLECTION, owner, lastToken, leaseUntil());
+    }
+  }
+
+  private void publish(ChangeStreamDocument<Document> change) {
+    StoredFileEvent event = toEvent(change);
+    if (event == null) {
+      return;
+    }
+    String json;
+    try {
+      json = objectMapper.writeValueAsString(event);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException("Cannot serialize event : " + e.getMessage(), e);
+    }
+    jmsTemplate.convertAndSend(topic, json, message -> {
+      message.setStringProperty("eventType", event.getType().name());
+      message.setStringProperty("storedFileId", event.getId());
+      return message;
+    });
+    Counter.builder("resource.events.published")
+        .description("Stored file events published")
+        .tag("type", event.getType().name())
+        .register(meterRegistry)
+        .increment();
+  }
+
+  /**
+   * @return the event of a change, <code>null</code> if it is not published
+   */
+  StoredFileEvent toEvent(ChangeStreamDocument<Document> change) {
+    StoredFileEvent event = new StoredFileEvent();
+    event.setId(change.getDocumentKey() == null ? null
+        : change.getDocumentKey().get("_id").isObjectId()
+            ? change.getDocumentKey().getObjectId("_id").getValue().toHexString()
+            : change.getDocumentKey().get("_id").asString().getValue());
+    event.setTimestamp(change.getClusterTime() == null ? Instant.now()
+        : Instant.ofEpochSecond(change.getClusterTime().getTime()));
+
+    Document document = change.getFullDocument();
+    switch (change.getOperationType()) {
+      case INSERT:
+        event.setType(StoredFileEvent.Type.CREATED);
+        break;
+      case REPLACE:
+        event.setType(Boolean.FALSE.equals(document == null ? null : document.get("isActive"))
+            ? StoredFileEvent.Type.DELETED : StoredFileEvent.Type.UPDATED);
+        break;
+      case UPDATE:
+        UpdateDescription updateDescription = change.getUpdateDescription();
+        if (updateDescription != null && updateDescription.getUpdatedFields() != null
+            && Boolean.FALSE.equals(updateDescription.getUpdatedFields().containsKey("isActive")
+            ? updateDescription.getUpdatedFields().getBoolean("isActive").getValue() : null)) {
+          event.setType(StoredFileEvent.Type.DELETED);
+        } else if (isInternal(updateDescription)) {
+          return null;
+        } else {
+          event.setType(StoredFileEvent.Type.UPDATED);
+        }
+        break;
+      case DELETE:
+        event.setType(StoredFileEvent.Type.PURGED);
+        return event;
+      default:
+        return null;
+    }
+    if (document != null) {
+      event.setVersion(document.get("version", Number.class) == null ? null
+          : document.get("version", Number.class).longValue());
+      event.setFilename(document.getString("filename"));
+      event.setMimeType(document.getString("mimeType"));
+      event.setFilesize(document.get("filesize", Number.class) == null ? null
+          : document.get("filesize", Number.class).longValue());
+      event.setRelatedObjectId(document.get("relatedObjectId", Number.class) == null ? null
+          : document.get("relatedObjectId", Number.class).longValue());
+      event.setRelatedObjectClass(document.getString("relatedObjectClass"));
+      event.setContentHash(document.getString("sha256") != null ? document.getString("sha256")
+          : document.getString("crc32c"));
+    }
+    return event;
+  }
+
+  private boolean isInternal(UpdateDescription updateDescription) {
+    if (updateDescription == null) {
+      return false;
+    }
+    boolean internal = updateDescription.getUpdatedFields() == null || updateDescription
+        .getUpdatedFields().keySet().stream().allMatch(INTERNAL_FIELDS::contains);
+    return internal && (updateDescription.getRemovedFields() == null || INTERNAL_FIELDS
+        .containsAll(updateDescription.getRemovedFields()));
+  }
+
+  private Instant leaseUntil() {
+    return Instant.now().plus(events.getLease());
+  }
+
+  private void sleep(Duration duration) {
+    try {
+      Thread.sleep(duration.toMillis());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      running = false;
+    }
+  }
+}
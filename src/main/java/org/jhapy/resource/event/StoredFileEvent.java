@@ -0,0 +1,67 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.event;
+
+import java.time.Instant;
+import lombok.Data;
+
+/**
+ * Mutation of a stored file published to the other services: ids and metadata, never the content.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Data
+public class StoredFileEvent {
+
+  public enum Type {
+    CREATED,
+    UPDATED,
+    /**
+     * Deleted by the clients, the stored file is not served anymore
+     */
+    DELETED,
+    /**
+     * Removed from the store by the purge
+     */
+    PURGED
+  }
+
+  private Type type;
+  private String id;
+
+  /**
+   * When the mutation happened in the database
+   */
+  private Instant timestamp;
+
+  private Long version;
+  private String filename;
+  private String mimeType;
+  private Long filesize;
+  private Long relatedObjectId;
+  private String relatedObjectClass;
+
+  /**
+   * Hash of the content, changes when the content is replaced
+   */
+  private String contentHash;
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.ingest;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Set;
+import org.apache.commons.lang3.StringUtils;
+import org.jhapy.commons.utils.HasLogger;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.config.ResourceServerProperties.MismatchPolicy;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.exception.ContentTypeRejectedException;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+/**
+ * Ingest stage checking the declared type of a content against the type detected from its first
+ * bytes, and applying the configured {@link MismatchPolicy}.
+ * <p>
+ * Only the first <code>sniff-length</code> bytes are inspected: streamed uploads are inspected,
+ * and possibly rejected, before their body is read.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Component
+public class ContentInspector implements HasLogger {
+
+  private static final Set<String> GENERIC_TYPES = Set
+      .of(MediaType.APPLICATION_OCTET_STREAM_VALUE, "binary/octet-stream",
+          "application/x-download", "application/unknown");
+
+  private final ContentTypeDetector contentTypeDetector;
+  private final ResourceServerProperties.Ingest ingest;
+  private final int sniffLength;
+  private final MeterRegistry meterRegistry;
+
+  public ContentInspector(ContentTypeDetector contentTypeDetector,
+      ResourceServerProperties resourceServerProperties, MeterRegistry meterRegistry) {
+    this.contentTypeDetector = contentTypeDetector;
+    this.ingest = resourceServerProperties.getIngest();
+    this.sniffLength = (int) Math.max(16, ingest.getSniffLength().toBytes());
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * Wrap an upload stream so its first bytes can be inspected then read again
+   */
+  public InputStream markable(InputStream inputStream) {
+    return inputStream.markSupported() ? inputStream
+        : new BufferedInputStream(inputStream, sniffLength);
+  }
+
+  /**
+   * Inspect the first bytes of a stream returned by {@link #markable(InputStream)}, the stream is
+   * reset to its start afterwards
+   *
+   * @throws ContentTypeRejectedException if the content is rejected by the policy
+   */
+  public void inspect(StoredFile storedFile, InputStream inputStream) throws IOException {
+    byte[] head = new byte[sniffLength];
+    inputStream.mark(sniffLength);
+    int length = 0;
+    try {
+      while (length < sniffLength) {
+        int read = inputStream.read(head, length, sniffLength - length);
+        if (read < 0) {
+          break;
+        }
+        length += read;
+      }
+    } finally {
+      inputStream.reset();
+    }
+    apply(storedFile, contentTypeDetector.detect(head, length));
+  }
+
+  /**
+   * Inspect the first bytes of a content already in memory
+   *
+   * @throws ContentTypeRejectedException if the content is rejected by the policy
+   */
+  public void inspect(StoredFile storedFile, byte[] content) {
+    apply(storedFile,
+        contentTypeDetector.detect(content, Math.min(content.length, sniffLength)));
+  }
+
+  private void apply(StoredFile storedFile, DetectedType detectedType) {
+    String declared = normalize(storedFile.getMimeType());
+    if (isDenied(declared)) {
+      count("denied");
+      throw new ContentTypeRejectedException("Content type '" + declared + "' is not accepted");
+    }
+    if (detectedType == null) {
+      storedFile.setDetectedMimeType(null);
+      storedFile.setCompressed(null);
+      return;
+    }
+    String detected = detectedType.getMimeType();
+    storedFile.setDetectedMimeType(detected);
+    storedFile.setCompressed(detectedType.isCompressed());
+
+    if (isDenied(detected)) {
+      count("denied");
+      throw new ContentTypeRejectedException("Content type '" + detected + "' is not accepted");
+    }
+    storedFile.setMimeType(resolve(storedFile.getFilename(), storedFile.getMimeType(), detected));
+  }
+
+  /**
+   * Check a type declared for a content already stored, against the type detected when it was
+   * ingested
+   *
+   * @return the type to record, the declared one unless replaced by the policy
+   * @throws ContentTypeRejectedException if the declared type is rejected by the policy
+   */
+  public String checkDeclaredType(StoredFile storedFile, String mimeType) {
+    String declared = normalize(mimeType);
+    if (isDenied(declared)) {
+      count("denied");
+      throw new ContentTypeRejectedException("Content type '" + declared + "' is not accepted");
+    }
+    String detected = storedFile.getDetectedMimeType();
+    if (detected == null) {
+      return mimeType;
+    }
+    return resolve(storedFile.getFilename(), mimeType, detected);
+  }
+
+  /**
+   * Apply the mismatch policy to the declared type of a content
+   *
+   * @return the type to record
+   */
+  private String resolve(String filename, String mimeType, String detected) {
+    String declared = normalize(mimeType);
+    if (declared == null || GENERIC_TYPES.contains(declared)) {
+      return detected;
+    }
+    if (isCompatible(declared, detected)) {
+      return mimeType;
+    }
+    switch (ingest.getMismatchPolicy()) {
+      case REJECT:
+        count("rejected");
+        throw new ContentTypeRejectedException(
+            "Declared type '" + declared + "' does not match the content (" + detected + ")");
+      case OVERRIDE:
+        count("overridden");
+        logger().debug(getLoggerPrefix("resolve") + "Declared type '" + declared + "' of '"
+            + filename + "' replaced by " + detected);
+        return detected;
+      default:
+        count("recorded");
+        return mimeType;
+    }
+  }
+
+  /**
+   * @return <code>true</code> if the declared type of a stored file matches the type detected from
+   * its content when it was ingested, or if no type was detected
+   */
+  public boolean matchesDetectedType(StoredFile storedFile) {
+    String declared = normalize(storedFile.getMimeType());
+    String detected = storedFile.getDetectedMimeType();
+    return detected == null || declared != null && isCompatible(declared, detected);
+  }
+
+  /**
+   * A declared type matches a detected one when it is the same type, an alias, or a more specific
+   * type of the same container (an office document for a ZIP archive, a JSON document for text)
+   */
+  private boolean isCompatible(String declared, String detected) {
+    if (declared.equals(detected)) {
+      return true;
+    }
+    switch (detected) {
+      case "image/jpeg":
+        return declared.equals("image/jpg") || declared.equals("image/pjpeg");
+      case "application/zip":
+        return declared.endsWith("+zip") || declared.endsWith("zip-compressed")
+            || declared.startsWith("application/vnd.openxmlformats")
+            || declared.startsWith("application/vnd.oasis.opendocument")
+            || declared.equals("application/java-archive")
+            || declared.startsWith("application/vnd.android");
+      case "application/gzip":
+        return declared.equals("application/x-gzip") || declared.endsWith("+gzip");
+      case "application/x-ole-storage":
+        return declared.startsWith("application/vnd.ms-") || declared
+            .equals("application/msword");
+      case "audio/wav":
+        return declared.equals("audio/x-wav") || declared.equals("audio/wave");
+      case "video/mp4":
+      case "video/quicktime":
+      case "audio/mp4":
+        return declared.startsWith("video/") || declared.startsWith("audio/");
+      case "image/heic":
+        return declared.startsWith("image/hei");
+      case "application/xml":
+      case "image/svg+xml":
+        return declared.endsWith("xml");
+      case "application/json":
+        return declared.endsWith("json") || declared.startsWith("text/")
+            || declared.endsWith("javascript");
+      case "text/plain":
+        return declared.startsWith("text/") || declared.endsWith("json")
+            || declared.endsWith("xml") || declared.endsWith("javascript")
+            || declared.endsWith("yaml") || declared.endsWith("csv");
+      default:
+        return false;
+    }
+  }
+
+  private boolean isDenied(String mimeType) {
+    return mimeType != null && ingest.getDeniedTypes().stream()
+        .anyMatch(mimeType::equalsIgnoreCase);
+  }
+
+  private static String normalize(String mimeType) {
+    if (StringUtils.isBlank(mimeType)) {
+      return null;
+    }
+    int parameters = mimeType.indexOf(';');
+    return (parameters < 0 ? mimeType : mimeType.substring(0, parameters)).trim()
+        .toLowerCase(Locale.ROOT);
+  }
+
+  private void count(String action) {
+    Counter.builder("resource.ingest.mismatches")
+        .description("Contents whose detected type is denied or does not match the declared one")
+        .tag("action", action)
+        .register(meterRegistry)
+        .increment();
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.ingest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import org.springframework.stereotype.Component;
+
+/**
+ * Detect the real type of a content from its first bytes (magic numbers), without reading the
+ * whole content.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Component
+public class ContentTypeDetector {
+
+  private static final List<Signature> SIGNATURES = List.of(
+      new Signature("image/png", true, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A),
+      new Signature("image/jpeg", true, 0, 0xFF, 0xD8, 0xFF),
+      new Signature("image/gif", true, 0, 'G', 'I', 'F', '8'),
+      new Signature("image/webp", true, 8, 'W', 'E', 'B', 'P'),
+      new Signature("image/tiff", false, 0, 'I', 'I', 0x2A, 0x00),
+      new Signature("image/tiff", false, 0, 'M', 'M', 0x00, 0x2A),
+      new Signature("image/vnd.microsoft.icon", false, 0, 0x00, 0x00, 0x01, 0x00),
+      new Signature("application/pdf", true, 0, '%', 'P', 'D', 'F', '-'),
+      new Signature("application/zip", true, 0, 'P', 'K', 0x03, 0x04),
+      new Signature("application/zip", true, 0, 'P', 'K', 0x05, 0x06),
+      new Signature("application/gzip", true, 0, 0x1F, 0x8B),
+      new Signature("application/x-bzip2", true, 0, 'B', 'Z', 'h'),
+      new Signature("application/x-xz", true, 0, 0xFD, '7', 'z', 'X', 'Z', 0x00),
+      new Signature("application/x-7z-compressed", true, 0, '7', 'z', 0xBC, 0xAF, 0x27, 0x1C),
+      new Signature("application/vnd.rar", true, 0, 'R', 'a', 'r', '!', 0x1A, 0x07),
+      new Signature("application/x-ole-storage", false, 0, 0xD0, 0xCF, 0x11, 0xE0, 0xA1, 0xB1,
+          0x1A, 0xE1),
+      new Signature("audio/mpeg", true, 0, 'I', 'D', '3'),
+      new Signature("audio/ogg", true, 0, 'O', 'g', 'g', 'S'),
+      new Signature("audio/flac", true, 0, 'f', 'L', 'a', 'C'),
+      new Signature("audio/wav", false, 8, 'W', 'A', 'V', 'E'),
+      new Signature("video/webm", true, 0, 0x1A, 0x45, 0xDF, 0xA3));
+
+  private static final Signature FILE_TYPE_BOX = new Signature(null, true, 4, 'f', 't', 'y', 'p');
+
+  /**
+   * @param head the first bytes of the content
+   * @param length the number of bytes available in <code>head</code>
+   * @return the detected type, or <code>null</code> if it cannot be determined
+   */
+  public DetectedType detect(byte[] head, int length) {
+    if (head == null || length <= 0) {
+      return null;
+    }
+    for (Signature signature : SIGNATURES) {
+      if (signature.matches(head, length)) {
+        return new DetectedType(signature.mimeType, signature.compressed);
+      }
+    }
+    if (FILE_TYPE_BOX.matches(head, length)) {
+      return detectIsoMedia(head, length);
+    }
+    return detectText(head, length);
+  }
+
+  /**
+   * ISO base media files (MP4, QuickTime, HEIF, AVIF) are told apart by the major brand of their
+   * file type box
+   */
+  private DetectedType detectIsoMedia(byte[] head, int length) {
+    String brand = length >= 12 ? new String(head, 8, 4, StandardCharsets.US_ASCII) : "";
+    switch (brand) {
+      case "heic":
+      case "heix":
+      case "mif1":
+        return new DetectedType("image/heic", true);
+      case "avif":
+        return new DetectedType("image/avif", true);
+      case "qt  ":
+        return new DetectedType("video/quicktime", true);
+      case "M4A ":
+        return new DetectedType("audio/mp4", true);
+      default:
+        return new DetectedType("video/mp4", true);
+    }
+  }
+
+  /**
+   * Markup and plain text: no control characters other than white spaces in the sample
+   */
+  private DetectedType detectText(byte[] head, int length) {
+    for (int i = 0; i < length; i++) {
+      int b = head[i] & 0xFF;
+      if (b < 0x09 || (b > 0x0D && b < 0x20 && b != 0x1B)) {
+        return null;
+      }
+    }
+    int start = length >= 3 && (head[0] & 0xFF) == 0xEF && (head[1] & 0xFF) == 0xBB
+        && (head[2] & 0xFF) == 0xBF ? 3 : 0;
+    String text = new String(head, start, Math.min(length - start, 512),
+        StandardCharsets.UTF_8).stripLeading().toLowerCase(Locale.ROOT);
+    if (text.startsWith("<svg") || (text.startsWith("<?xml") && text.contains("<svg"))) {
+      return new DetectedType("image/svg+xml", false);
+    }
+    if (text.startsWith("<!doctype html") || text.startsWith("<html")) {
+      return new DetectedType("text/html", false);
+    }
+    if (text.startsWith("<?xml")) {
+      return new DetectedType("application/xml", false);
+    }
+    if (text.startsWith("{") || text.startsWith("[")) {
+      return new DetectedType("application/json", false);
+    }
+    return new DetectedType("text/plain", false);
+  }
+
+  private static class Signature {
+
+    private final String mimeType;
+    private final boolean compressed;
+    private final int offset;
+    private final int[] magic;
+
+    Signature(String mimeType, boolean compressed, int offset, int... magic) {
+      this.mimeType = mimeType;
+      this.compressed = compressed;
+      this.offset = offset;
+      this.magic = magic;
+    }
+
+    boolean matches(byte[] head, int length) {
+      if (length < offset + magic.length) {
+        return false;
+      }
+      for (int i = 0; i < magic.length; i++) {
+        if ((head[offset + i] & 0xFF) != magic[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.ingest;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import org.jhapy.commons.utils.HasLogger;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.config.ResourceServerProperties.ImagePolicy;
+import org.jhapy.resource.domain.StoredFile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Ingest stage optimising the uploaded JPEG and PNG images, with the {@link ImagePolicy} of their
+ * related object class.
+ * <p>
+ * Images are decoded with the JDK Image I/O codecs, downscaled so their largest side fits the
+ * policy, and encoded again without their metadata, the EXIF orientation being applied to the
+ * pixels first. The optimised image replaces the content, the uploaded one is kept as the original
+ * content only if the policy says so. Images which cannot be decoded, or would not be smaller, are
+ * stored as is.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Component
+public class ImageOptimizer implements HasLogger {
+
+  private static final String JPEG = "image/jpeg";
+  private static final String PNG = "image/png";
+
+  private final ResourceServerProperties.ImageOptimization imageOptimization;
+  private final MeterRegistry meterRegistry;
+  private final Counter savedBytesCounter;
+
+  public ImageOptimizer(ResourceServerProperties resourceServerProperties,
+      MeterRegistry meterRegistry) {
+    this.imageOptimization = resourceServerProperties.getImageOptimization();
+    this.meterRegistry = meterRegistry;
+    this.savedBytesCounter = Counter.builder("resource.ingest.images.saved")
+        .description("Bytes saved by the image optimisation")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Optimise the content of a stored file, if it is an image with a policy
+   *
+   * @return <code>true</code> if the content has been replaced, its checksums are then cleared
+   */
+  public boolean optimize(StoredFile storedFile) {
+    if (!imageOptimization.isEnabled() || storedFile.getContent() == null
+        || storedFile.getRelatedObjectClass() == null) {
+      return false;
+    }
+    ImagePolicy policy = imageOptimization.getPolicies().get(storedFile.getRelatedObjectClass());
+    String type = storedFile.getDetectedMimeType();
+    if (policy == null || !(JPEG.equals(type) || PNG.equals(type))) {
+      return false;
+    }
+    byte[] content = storedFile.getContent();
+    if (content.length < policy.getMinSize().toBytes()) {
+      count("skipped");
+      return false;
+    }
+
+    byte[] optimized;
+    try {
+      optimized = optimize(content, type, policy);
+    } catch (IOException | RuntimeException e) {
+      count("failed");
+      logger().warn(getLoggerPrefix("optimize") + "Cannot optimise image '" + storedFile
+          .getFilename() + "' : " + e.getMessage());
+      return false;
+    }
+    if (optimized == null) {
+      count("skipped");
+      return false;
+    }
+
+    if (policy.isKeepOriginal()) {
+      if (storedFile.getOrginalContent() == null) {
+        storedFile.setOrginalContent(content);
+      }
+    } else {
+      storedFile.setOrginalContent(null);
+    }
+    storedFile.setContent(optimized);
+    storedFile.setFilesize(optimized.length);
+    storedFile.setCompressed(Boolean.TRUE);
+    storedFile.setCrc32c(null);
+    storedFile.setSha256(null);
+    savedBytesCounter.increment(content.length - optimized.length);
+    count("optimized");
+    return true;
+  }
+
+  /**
+   * @return the optimised image, or <code>null</code> if it would not be smaller
+   */
+  private byte[] optimize(byte[] content, String type, ImagePolicy policy) throws IOException {
+    int orientation = JPEG.equals(type) ? exifOrientation(content) : 1;
+    BufferedImage image;
+    int width;
+    int height;
+    try (ImageInputStream input = ImageIO
+        .createImageInputStream(new ByteArrayInputStream(content))) {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+      if (!readers.hasNext()) {
+        return null;
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(input, true, true);
+        width = reader.getWidth(0);
+        height = reader.getHeight(0);
+        if ((long) width * height > imageOptimization.getMaxPixels()) {
+          return null;
+        }
+        ImageReadParam readParam = reader.getDefaultReadParam();
+        // Decode only every n-th pixel of the very large images, still above the target size
+        int subsampling = Math
+            .max(1, Math.max(width, height) / Math.max(1, 2 * policy.getMaxDimension()));
+        if (subsampling > 1) {
+          readParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+        image = reader.read(0, readParam);
+      } finally {
+        reader.dispose();
+      }
+    }
+
+    boolean resized = Math.max(width, height) > policy.getMaxDimension();
+    boolean opaque = JPEG.equals(type) || !image.getColorModel().hasAlpha();
+    image = scale(image, policy.getMaxDimension(), opaque);
+    image = orient(image, orientation);
+
+    byte[] optimized = JPEG.equals(type) ? writeJpeg(image, policy.getQuality())
+        : writePng(image);
+    if (!resized && orientation == 1 && optimized.length >= content.length) {
+      return null;
+    }
+    return optimized;
+  }
+
+  private BufferedImage scale(BufferedImage image, int maxDimension, boolean opaque) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    double ratio = Math.min(1d, (double) maxDimension / Math.max(width, height));
+    int targetWidth = Math.max(1, (int) Math.round(width * ratio));
+    int targetHeight = Math.max(1, (int) Math.round(height * ratio));
+    int targetType = opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+    if (ratio == 1d && image.getType() == targetType) {
+      return image;
+    }
+    BufferedImage scaled = new BufferedImage(targetWidth, targetHeight, targetType);
+    Graphics2D graphics = scaled.createGraphics();
+    try {
+      graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+          RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+      graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+      if (opaque) {
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, targetWidth, targetHeight);
+      }
+      graphics.drawImage(image, 0, 0, targetWidth, targetHeight, null);
+    } finally {
+      graphics.dispose();
+    }
+    return scaled;
+  }
+
+  /**
+   * Apply an EXIF orientation to the pixels, as the tag is not written again
+   */
+  private BufferedImage orient(BufferedImage image, int orientation) {
+    if (orientation < 2 || orientation > 8) {
+      return image;
+    }
+    int width = image.getWidth();
+    int height = image.getHeight();
+    boolean swap = orientation >= 5;
+    AffineTransform transform = new AffineTransform();
+    switch (orientation) {
+      case 2:
+        transform.scale(-1, 1);
+        transform.translate(-width, 0);
+        break;
+      case 3:
+        transform.translate(width, height);
+        transform.rotate(Math.PI);
+        break;
+      case 4:
+        transform.scale(1, -1);
+        transform.translate(0, -height);
+        break;
+      case 5:
+        transform.rotate(-Math.PI / 2);
+        transform.scale(-1, 1);
+        break;
+      case 6:
+        transform.translate(height, 0);
+        transform.rotate(Math.PI / 2);
+        break;
+      case 7:
+        transform.scale(-1, 1);
+        transform.translate(-height, 0);
+        transform.translate(0, width);
+        transform.rotate(3 * Math.PI / 2);
+        break;
+      default:
+        transform.translate(0, width);
+        transform.rotate(3 * Math.PI / 2);
+    }
+    BufferedImage oriented = new BufferedImage(swap ? height : width, swap ? width : height,
+        image.getType());
+    Graphics2D graphics = oriented.createGraphics();
+    try {
+      graphics.drawImage(image, transform, null);
+    } finally {
+      graphics.dispose();
+    }
+    return oriented;
+  }
+
+  private byte[] writeJpeg(BufferedImage image, float quality) throws IOException {
+    ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+    ImageWriteParam writeParam = writer.getDefaultWriteParam();
+    writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+    writeParam.setCompressionQuality(Math.max(0f, Math.min(1f, quality)));
+    writeParam.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+    return write(writer, image, writeParam);
+  }
+
+  private byte[] writePng(BufferedImage image) throws IOException {
+    ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+    return write(writer, image, writer.getDefaultWriteParam());
+  }
+
+  /**
+   * Encode an image without any metadata
+   */
+  private byte[] write(ImageWriter writer, BufferedImage image, ImageWriteParam writeParam)
+      throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    try (ImageOutputStream output = ImageIO.createImageOutputStream(outputStream)) {
+      writer.setOutput(output);
+      writer.write(null, new IIOImage(image, null, null), writeParam);
+    } finally {
+      writer.dispose();
+    }
+    return outputStream.toByteArray();
+  }
+
+  /**
+   * Orientation tag of the EXIF segment of a JPEG image
+   *
+   * @return the orientation, from 1 to 8, 1 when there is none
+   */
+  static int exifOrientation(byte[] jpeg) {
+    int offset = 2;
+    while (offset + 4 <= jpeg.length && (jpeg[offset] & 0xFF) == 0xFF) {
+      int marker = jpeg[offset + 1] & 0xFF;
+      int length = ((jpeg[offset + 2] & 0xFF) << 8) | (jpeg[offset + 3] & 0xFF);
+      if (marker == 0xDA || marker == 0xD9 || length < 2) {
+        // Start of the image data, no more metadata
+        return 1;
+      }
+      int start = offset + 4;
+      if (marker == 0xE1 && start + 14 <= jpeg.length && jpeg[start] == 'E'
+          && jpeg[start + 1] == 'x' && jpeg[start + 2] == 'i' && jpeg[start + 3] == 'f') {
+        return tiffOrientation(jpeg, start + 6, Math.min(jpeg.length, offset + 2 + length));
+      }
+      offset += 2 + length;
+    }
+    return 1;
+  }
+
+  private static int tiffOrientation(byte[] data, int tiff, int end) {
+    boolean littleEndian = data[tiff] == 'I';
+    long ifd = tiff + readInt(data, tiff + 4, littleEndian);
+    if (ifd + 2 > end) {
+      return 1;
+    }
+    int entries = readShort(data, (int) ifd, littleEndian);
+    for (int i = 0; i < entries; i++) {
+      int entry = (int) ifd + 2 + 12 * i;
+      if (entry + 12 > end) {
+        break;
+      }
+      if (readShort(data, entry, littleEndian) == 0x0112) {
+        int orientation = readShort(data, entry + 8, littleEndian);
+        return orientation >= 1 && orientation <= 8 ? orientation : 1;
+      }
+    }
+    return 1;
+  }
+
+  private static int readShort(byte[] data, int offset, boolean littleEndian) {
+    int b0 = data[offset] & 0xFF;
+    int b1 = data[offset + 1] & 0xFF;
+    return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+  }
+
+  private static long readInt(byte[] data, int offset, boolean littleEndian) {
+    long value = 0;
+    for (int i = 0; i < 4; i++) {
+      int b = data[offset + (littleEndian ? 3 - i : i)] & 0xFF;
+      value = (value << 8) | b;
+    }
+    return value;
+  }
+
+  private void count(String result) {
+    Counter.builder("resource.ingest.images")
+        .description("Images processed by the image optimisation")
+        .tag("result", result)
+        .register(meterRegistry)
+        .increment();
+  }
+}
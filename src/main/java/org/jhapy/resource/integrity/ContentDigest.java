@@ -0,0 +1,140 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.integrity;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32C;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.exception.ContentIntegrityException;
+
+/**
+ * Checksums of a content computed incrementally, as the bytes stream in or out.
+ * <p>
+ * CRC32C is always computed, it is hardware accelerated and cheap enough to run on every
+ * transfer. SHA-256 is optional.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+public class ContentDigest {
+
+  private final CRC32C crc32c = new CRC32C();
+  private final MessageDigest sha256;
+  private long length;
+
+  public ContentDigest(boolean withSha256) {
+    if (withSha256) {
+      try {
+        sha256 = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    } else {
+      sha256 = null;
+    }
+  }
+
+  /**
+   * Digest of a whole content
+   */
+  public static ContentDigest of(byte[] content, boolean withSha256) {
+    ContentDigest contentDigest = new ContentDigest(withSha256);
+    contentDigest.update(content, 0, content.length);
+    return contentDigest;
+  }
+
+  public void update(byte[] bytes, int offset, int length) {
+    crc32c.update(bytes, offset, length);
+    if (sha256 != null) {
+      sha256.update(bytes, offset, length);
+    }
+    this.length += length;
+  }
+
+  /**
+   * Digest the remaining bytes of a buffer, without changing its position
+   */
+  public void update(ByteBuffer buffer) {
+    int remaining = buffer.remaining();
+    crc32c.update(buffer.duplicate());
+    if (sha256 != null) {
+      sha256.update(buffer.duplicate());
+    }
+    this.length += remaining;
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * @return the hex encoded CRC32C
+   */
+  public String getCrc32c() {
+    return String.format("%08x", crc32c.getValue());
+  }
+
+  /**
+   * @return the hex encoded SHA-256, or <code>null</code> if not computed. Can only be called
+   * once.
+   */
+  public String getSha256() {
+    if (sha256 == null) {
+      return null;
+    }
+    byte[] digest = sha256.digest();
+    StringBuilder hex = new StringBuilder(digest.length * 2);
+    for (byte b : digest) {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * Set the checksums of the content of a stored file
+   */
+  public void applyTo(StoredFile storedFile) {
+    storedFile.setCrc32c(getCrc32c());
+    storedFile.setSha256(getSha256());
+  }
+
+  /**
+   * Check the digest against the checksums recorded for a stored file
+   *
+   * @throws ContentIntegrityException if a recorded checksum does not match
+   */
+  public void verify(StoredFile storedFile) {
+    if (storedFile.getCrc32c() != null && !storedFile.getCrc32c().equals(getCrc32c())) {
+      throw new ContentIntegrityException(
+          "CRC32C mismatch for stored file '" + storedFile.getId() + "' : expected " + storedFile
+              .getCrc32c() + ", got " + getCrc32c() + " over " + length + " bytes");
+    }
+    if (sha256 != null && storedFile.getSha256() != null) {
+      String actual = getSha256();
+      if (!storedFile.getSha256().equalsIgnoreCase(actual)) {
+        throw new ContentIntegrityException(
+            "SHA-256 mismatch for stored file '" + storedFile.getId() + "' : expected "
+                + storedFile.getSha256() + ", got " + actual);
+      }
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.integrity;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Channel digesting the bytes written through it, so a content is verified while it is
+ * transferred instead of with a second read.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+public class DigestingChannel implements WritableByteChannel {
+
+  private final WritableByteChannel target;
+  private final ContentDigest contentDigest;
+
+  /**
+   * @param target the channel to write to, or <code>null</code> to only digest the bytes
+   */
+  public DigestingChannel(WritableByteChannel target, ContentDigest contentDigest) {
+    this.target = target;
+    this.contentDigest = contentDigest;
+  }
+
+  @Override
+  public int write(ByteBuffer src) throws IOException {
+    ByteBuffer written = src.duplicate();
+    int count;
+    if (target == null) {
+      count = src.remaining();
+      src.position(src.limit());
+    } else {
+      count = target.write(src);
+    }
+    if (count > 0) {
+      written.limit(written.position() + count);
+      contentDigest.update(written);
+    }
+    return count;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return target == null || target.isOpen();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (target != null) {
+      target.close();
+    }
+  }
+
+  public ContentDigest getContentDigest() {
+    return contentDigest;
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.integrity;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.jhapy.commons.utils.HasLogger;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.exception.ContentIntegrityException;
+import org.jhapy.resource.metric.ResourceMetrics;
+import org.jhapy.resource.repository.StoredFileRepository;
+import org.jhapy.resource.store.ContentStores;
+import org.jhapy.resource.transfer.ContentTransfer;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Background job verifying the stored content against its checksums, a batch at a time and at a
+ * throttled read rate, so corruption of rarely read files is found before a client reads them.
+ * <p>
+ * Contents stored before checksums were introduced get their checksums recorded on the first
+ * pass. File backed contents are read directly, bypassing the memory mapped files cache of the
+ * store. Archived files are skipped.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Component
+@ConditionalOnProperty(prefix = "jhapy.resource.integrity.scrub", name = "enabled",
+    havingValue = "true")
+public class IntegrityScrubber implements HasLogger {
+
+  private final StoredFileRepository storedFileRepository;
+  private final ContentStores contentStores;
+  private final ContentTransfer contentTransfer;
+  private final ResourceMetrics resourceMetrics;
+  private final ResourceServerProperties.Scrub scrub;
+  private final boolean sha256;
+
+  private final Counter verifiedCounter;
+  private final Counter backfilledCounter;
+  private final Counter corruptedCounter;
+  private final Counter bytesCounter;
+  private final Counter passesCounter;
+
+  /**
+   * Id of the last file verified, the next batch starts after it
+   */
+  private volatile String lastId;
+
+  public IntegrityScrubber(StoredFileRepository storedFileRepository,
+      ContentStores contentStores, ContentTransfer contentTransfer,
+      ResourceMetrics resourceMetrics, ResourceServerProperties resourceServerProperties,
+      MeterRegistry meterRegistry) {
+    this.storedFileRepository = storedFileRepository;
+    this.contentStores = contentStores;
+    this.contentTransfer = contentTransfer;
+    this.resourceMetrics = resourceMetrics;
+    this.scrub = resourceServerProperties.getIntegrity().getScrub();
+    this.sha256 = resourceServerProperties.getIntegrity().isSha256();
+    this.verifiedCounter = filesCounter("verified", meterRegistry);
+    this.backfilledCounter = filesCounter("backfilled", meterRegistry);
+    this.corruptedCounter = filesCounter("corrupted", meterRegistry);
+    this.bytesCounter = Counter.builder("resource.scrub.bytes")
+        .description("Bytes read by the integrity scrubber")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+    this.passesCounter = Counter.builder("resource.scrub.passes")
+        .description("Complete passes of the integrity scrubber over the stored files")
+        .register(meterRegistry);
+  }
+
+  @Scheduled(initialDelayString = "${jhapy.resource.integrity.scrub.initial-delay:PT10M}",
+      fixedDelayString = "${jhapy.resource.integrity.scrub.interval:PT1M}")
+  public void scrubBatch() {
+    List<StoredFile> storedFiles = storedFileRepository
+        .findScrubBatch(lastId, scrub.getBatchSize());
+    if (storedFiles.isEmpty()) {
+      if (lastId != null) {
+        passesCounter.increment();
+        lastId = null;
+      }
+      return;
+    }
+    long maxBytesPerSecond = Math.max(1, scrub.getMaxBytesPerSecond().toBytes());
+    long start = System.nanoTime();
+    long bytes = 0;
+    for (StoredFile storedFile : storedFiles) {
+      bytes += scrub(storedFile);
+      lastId = storedFile.getId();
+      long aheadNanos = bytes * 1_000_000_000L / maxBytesPerSecond - (System.nanoTime() - start);
+      if (aheadNanos > 0) {
+        try {
+          TimeUnit.NANOSECONDS.sleep(aheadNanos);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the number of bytes read
+   */
+  private long scrub(StoredFile metadata) {
+    String loggerPrefix = getLoggerPrefix("scrub");
+    ContentDigest contentDigest = new ContentDigest(
+        sha256 && (metadata.getSha256() != null || metadata.getCrc32c() == null));
+    StoredFile storedFile;
+    try {
+      storedFile = digest(metadata, contentDigest);
+      if (storedFile == null) {
+        return 0;
+      }
+    } catch (IOException | RuntimeException e) {
+      logger().warn(loggerPrefix + "Cannot read content of stored file '" + metadata.getId()
+          + "' : " + e.getMessage());
+      return 0;
+    }
+    bytesCounter.increment(contentDigest.getLength());
+
+    if (storedFile.getCrc32c() == null) {
+      if (storedFileRepository.setChecksums(storedFile.getId(), storedFile.getVersion(),
+          contentDigest.getCrc32c(), contentDigest.getSha256())) {
+        backfilledCounter.increment();
+      }
+      return contentDigest.getLength();
+    }
+    try {
+      contentDigest.verify(storedFile);
+      verifiedCounter.increment();
+    } catch (ContentIntegrityException e) {
+      corruptedCounter.increment();
+      resourceMetrics.recordIntegrityFailure(ResourceMetrics.SOURCE_SCRUB);
+      logger().error(loggerPrefix + e.getMessage());
+    }
+    return contentDigest.getLength();
+  }
+
+  /**
+   * Digest the content of a stored file
+   *
+   * @return the stored file the content belongs to, the whole document for an inline content as
+   * it may have changed since its metadata was read, or <code>null</code> if there is no content
+   */
+  private StoredFile digest(StoredFile metadata, ContentDigest contentDigest)
+      throws IOException {
+    Path contentFile = contentStores.forRead(metadata).getContentFile(metadata);
+    if (contentFile != null) {
+      // Content files are immutable, the metadata is enough
+      try (FileChannel fileChannel = FileChannel.open(contentFile, StandardOpenOption.READ)) {
+        contentTransfer.copy(fileChannel, new DigestingChannel(null, contentDigest));
+      }
+      return metadata;
+    }
+    StoredFile storedFile = storedFileRepository.findById(metadata.getId()).orElse(null);
+    if (storedFile == null || storedFile.getContent() == null
+        || storedFile.getContentPath() != null) {
+      return null;
+    }
+    contentDigest.update(storedFile.getContent(), 0, storedFile.getContent().length);
+    return storedFile;
+  }
+
+  private static Counter filesCounter(String result, MeterRegistry meterRegistry) {
+    return Counter.builder("resource.scrub.files")
+        .description("Stored files processed by the integrity scrubber")
+        .tag("result", result)
+        .register(meterRegistry);
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.metric;
+
+import java.io.IOException;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Time the first request served by the instance. The management endpoints, polled by the health
+ * and readiness probes as soon as the instance is up, are not counted
+ */
+public class FirstRequestFilter extends OncePerRequestFilter {
+
+  private static final PathMatcher PATH_MATCHER = new AntPathMatcher();
+
+  private static final String[] MANAGEMENT_PATHS = {"/management/**", "/actuator/**"};
+
+  private final StartupMetrics startupMetrics;
+
+  public FirstRequestFilter(StartupMetrics startupMetrics) {
+    this.startupMetrics = startupMetrics;
+  }
+
+  @Override
+  protected boolean shouldNotFilter(HttpServletRequest request) {
+    if (startupMetrics.isFirstRequestServed()) {
+      return true;
+    }
+    String path = request.getRequestURI().substring(request.getContextPath().length());
+    for (String managementPath : MANAGEMENT_PATHS) {
+      if (PATH_MATCHER.match(managementPath, path)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+      FilterChain filterChain) throws ServletException, IOException {
+    try {
+      filterChain.doFilter(request, response);
+    } finally {
+      startupMetrics.requestServed();
+    }
+  }
+}
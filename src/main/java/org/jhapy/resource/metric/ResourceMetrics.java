@@ -0,0 +1,223 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.metric;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.apache.commons.lang3.StringUtils;
+import org.jhapy.resource.domain.StoredFile;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+/**
+ * Per-operation latency and payload size instrumentation for the resource service.
+ * <p>
+ * Timers are split into stages (store fetch, mapping, serialization and write-out) and payload
+ * sizes are recorded as distribution summaries tagged by mime type family, so slow calls can be
+ * attributed either to the store or to the size of the files.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Component
+public class ResourceMetrics {
+
+  public static final String OPERATION_TIMER = "resource.operation";
+  public static final String PAYLOAD_SUMMARY = "resource.payload";
+  public static final String RESPONSE_SUMMARY = "resource.response";
+  public static final String INTEGRITY_FAILURE_COUNTER = "resource.integrity.failures";
+
+  public static final String TAG_OPERATION = "operation";
+  public static final String TAG_STAGE = "stage";
+  public static final String TAG_DIRECTION = "direction";
+  public static final String TAG_MIME_TYPE = "mimeType";
+  public static final String TAG_SOURCE = "source";
+
+  public static final String STAGE_FETCH = "fetch";
+  public static final String STAGE_FETCH_CONTENT = "fetchContent";
+  public static final String STAGE_PERSIST = "persist";
+  public static final String STAGE_RECEIVE = "receive";
+  public static final String STAGE_REHYDRATE = "rehydrate";
+  public static final String STAGE_MAPPING = "mapping";
+  public static final String STAGE_OPTIMIZE = "optimize";
+  public static final String STAGE_SERIALIZATION = "serialization";
+  public static final String STAGE_WRITE = "write";
+
+  public static final String DIRECTION_READ = "read";
+  public static final String DIRECTION_WRITTEN = "written";
+
+  public static final String SOURCE_READ = "read";
+  public static final String SOURCE_SCRUB = "scrub";
+
+  public static final String UNKNOWN_MIME_TYPE = "unknown";
+
+  private static final String OPERATION_ATTRIBUTE = ResourceMetrics.class.getName() + ".operation";
+  private static final String MIME_TYPE_ATTRIBUTE = ResourceMetrics.class.getName() + ".mimeType";
+
+  private final MeterRegistry meterRegistry;
+
+  public ResourceMetrics(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * Run the given supplier and record its duration for the operation and stage
+   */
+  public <T> T record(String operation, String stage, Supplier<T> supplier) {
+    return timer(operation, stage).record(supplier);
+  }
+
+  public void record(String operation, String stage, Runnable runnable) {
+    timer(operation, stage).record(runnable);
+  }
+
+  public void recordStage(String operation, String stage, long durationNanos) {
+    timer(operation, stage).record(durationNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Record the binary payload of a stored file read from or written to the store
+   */
+  public void recordPayload(String operation, String direction, StoredFile storedFile) {
+    if (storedFile == null) {
+      return;
+    }
+    recordPayload(operation, direction, storedFile.getMimeType(), payloadSize(storedFile));
+  }
+
+  public void recordPayload(String operation, String direction, String mimeType, long bytes) {
+    DistributionSummary.builder(PAYLOAD_SUMMARY)
+        .description("Binary payload read from or written to the store")
+        .baseUnit("bytes")
+        .tag(TAG_OPERATION, operation)
+        .tag(TAG_DIRECTION, direction)
+        .tag(TAG_MIME_TYPE, mimeTypeFamily(mimeType))
+        .publishPercentiles(0.5, 0.95, 0.99)
+        .publishPercentileHistogram()
+        .register(meterRegistry)
+        .record(bytes);
+  }
+
+  public void recordResponse(String operation, String mimeType, long bytes) {
+    DistributionSummary.builder(RESPONSE_SUMMARY)
+        .description("Serialized response written to the client")
+        .baseUnit("bytes")
+        .tag(TAG_OPERATION, operation)
+        .tag(TAG_MIME_TYPE, mimeTypeFamily(mimeType))
+        .publishPercentiles(0.5, 0.95, 0.99)
+        .publishPercentileHistogram()
+        .register(meterRegistry)
+        .record(bytes);
+  }
+
+  /**
+   * Count a content not matching its checksums, found by a client read or by the scrubber
+   */
+  public void recordIntegrityFailure(String source) {
+    Counter.builder(INTEGRITY_FAILURE_COUNTER)
+        .description("Contents not matching their recorded checksums")
+        .tag(TAG_SOURCE, source)
+        .register(meterRegistry)
+        .increment();
+  }
+
+  /**
+   * Bind the operation (and the mime type of the payload, if known) to the current request so the
+   * serialization stage, which runs after the endpoint has returned, can be attributed to it
+   */
+  public static void bindOperation(String operation, String mimeType) {
+    RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+    if (requestAttributes != null) {
+      requestAttributes
+          .setAttribute(OPERATION_ATTRIBUTE, operation, RequestAttributes.SCOPE_REQUEST);
+      if (mimeType != null) {
+        requestAttributes
+            .setAttribute(MIME_TYPE_ATTRIBUTE, mimeType, RequestAttributes.SCOPE_REQUEST);
+      }
+    }
+  }
+
+  public static String currentOperation() {
+    return currentAttribute(OPERATION_ATTRIBUTE);
+  }
+
+  public static String currentMimeType() {
+    return currentAttribute(MIME_TYPE_ATTRIBUTE);
+  }
+
+  private static String currentAttribute(String name) {
+    RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+    if (requestAttributes == null) {
+      return null;
+    }
+    return (String) requestAttributes.getAttribute(name, RequestAttributes.SCOPE_REQUEST);
+  }
+
+  /**
+   * Reduce a mime type to its family (<code>image/png</code> gives <code>image</code>) to keep
+   * the tag cardinality bounded
+   */
+  public static String mimeTypeFamily(String mimeType) {
+    if (StringUtils.isBlank(mimeType)) {
+      return UNKNOWN_MIME_TYPE;
+    }
+    int index = mimeType.indexOf('/');
+    String family = (index > 0 ? mimeType.substring(0, index) : mimeType).trim().toLowerCase();
+    switch (family) {
+      case "application":
+      case "audio":
+      case "font":
+      case "image":
+      case "model":
+      case "multipart":
+      case "text":
+      case "video":
+        return family;
+      default:
+        return UNKNOWN_MIME_TYPE;
+    }
+  }
+
+  public static long payloadSize(StoredFile storedFile) {
+    long size = 0;
+    if (storedFile.getContent() != null) {
+      size += storedFile.getContent().length;
+    }
+    if (storedFile.getOrginalContent() != null) {
+      size += storedFile.getOrginalContent().length;
+    }
+    return size;
+  }
+
+  private Timer timer(String operation, String stage) {
+    return Timer.builder(OPERATION_TIMER)
+        .description("Resource service operation latency per stage")
+        .tag(TAG_OPERATION, operation)
+        .tag(TAG_STAGE, stage)
+        .publishPercentiles(0.5, 0.95, 0.99)
+        .publishPercentileHistogram()
+        .register(meterRegistry);
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.metric;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.jhapy.commons.utils.HasLogger;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Startup time of the instance, from the JVM start so class loading and class data sharing are
+ * accounted: until it is ready, and until it has served its first request.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Component
+public class StartupMetrics implements HasLogger {
+
+  public static final String STARTUP_GAUGE = "resource.startup.time";
+
+  private final MeterRegistry meterRegistry;
+  private final AtomicBoolean firstRequestServed = new AtomicBoolean();
+
+  public StartupMetrics(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void ready() {
+    record("ready");
+  }
+
+  public boolean isFirstRequestServed() {
+    return firstRequestServed.get();
+  }
+
+  /**
+   * Record the end of a request, only the first one is timed
+   */
+  public void requestServed() {
+    if (firstRequestServed.compareAndSet(false, true)) {
+      record("firstRequest");
+    }
+  }
+
+  private void record(String phase) {
+    long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+    TimeGauge.builder(STARTUP_GAUGE, this, TimeUnit.MILLISECONDS, startupMetrics -> uptime)
+        .description("Time from the JVM start")
+        .tag("phase", phase)
+        .register(meterRegistry);
+    logger().info(getLoggerPrefix("record") + "Startup " + phase + " after " + uptime + " ms");
+  }
+}
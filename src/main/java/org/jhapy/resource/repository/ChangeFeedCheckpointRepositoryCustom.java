@@ -0,0 +1,54 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.repository;
+
+import java.time.Instant;
+import org.jhapy.resource.domain.ChangeFeedCheckpoint;
+
+/**
+ * Lease and resume token updates of the change feed checkpoints.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+public interface ChangeFeedCheckpointRepositoryCustom {
+
+  /**
+   * Take or renew the lease of a feed, if it is free, expired or already owned by this owner
+   *
+   * @return the checkpoint with its resume token, or <code>null</code> if another owner holds the
+   * lease
+   */
+  ChangeFeedCheckpoint acquireLease(String id, String owner, Instant leaseUntil);
+
+  /**
+   * Record the resume token of the last published change and renew the lease
+   *
+   * @param resumeToken the resume token, <code>null</code> to restart from the current changes
+   * @return <code>false</code> if the lease has been taken by another owner
+   */
+  boolean checkpoint(String id, String owner, String resumeToken, Instant leaseUntil);
+
+  /**
+   * Give the lease up so another instance can take over at once
+   */
+  void releaseLease(String id, String owner);
+}
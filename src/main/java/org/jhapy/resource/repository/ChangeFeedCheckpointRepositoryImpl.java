@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.repository;
+
+import java.time.Instant;
+import org.jhapy.resource.domain.ChangeFeedCheckpoint;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+/**
+ * Implementation of {@link ChangeFeedCheckpointRepositoryCustom}, the lease being taken with a
+ * conditional upsert so only one instance can own it.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+public class ChangeFeedCheckpointRepositoryImpl implements ChangeFeedCheckpointRepositoryCustom {
+
+  private final MongoTemplate mongoTemplate;
+
+  public ChangeFeedCheckpointRepositoryImpl(MongoTemplate mongoTemplate) {
+    this.mongoTemplate = mongoTemplate;
+  }
+
+  @Override
+  public ChangeFeedCheckpoint acquireLease(String id, String owner, Instant leaseUntil) {
+    Instant now = Instant.now();
+    Query query = Query.query(Criteria.where("_id").is(id).orOperator(
+        Criteria.where("owner").is(owner),
+        Criteria.where("leaseUntil").lt(now),
+        Criteria.where("leaseUntil").exists(false)));
+    Update update = new Update()
+        .set("owner", owner)
+        .set("leaseUntil", leaseUntil)
+        .set("updated", now);
+    try {
+      return mongoTemplate.findAndModify(query, update,
+          FindAndModifyOptions.options().upsert(true).returnNew(true), ChangeFeedCheckpoint.class);
+    } catch (DuplicateKeyException e) {
+      // The checkpoint exists and its lease is held by another owner
+      return null;
+    }
+  }
+
+  @Override
+  public boolean checkpoint(String id, String owner, String resumeToken, Instant leaseUntil) {
+    Update update = new Update()
+        .set("leaseUntil", leaseUntil)
+        .set("updated", Instant.now());
+    if (resumeToken == null) {
+      update.unset("resumeToken");
+    } else {
+      update.set("resumeToken", resumeToken);
+    }
+    return mongoTemplate.updateFirst(
+        Query.query(Criteria.where("_id").is(id).and("owner").is(owner)), update,
+        ChangeFeedCheckpoint.class).getMatchedCount() == 1;
+  }
+
+  @Override
+  public void releaseLease(String id, String owner) {
+    mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(id).and("owner").is(owner)),
+        new Update().unset("owner").unset("leaseUntil"), ChangeFeedCheckpoint.class);
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.repository;
+
+import java.time.Instant;
+import java.util.Map;
+import org.jhapy.resource.domain.StorageUsage;
+import org.jhapy.resource.domain.StorageUsage.Dimension;
+
+/**
+ * Incremental updates and reconciliation of the storage usages.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+public interface StorageUsageRepositoryCustom {
+
+  /**
+   * Add bytes and files to storage usages in one bulk write, creating the missing ones
+   *
+   * @param deltas the bytes and files to add by storage usage id
+   */
+  void add(Map<String, StorageUsage> deltas);
+
+  /**
+   * Recompute the storage usages of a dimension from the active stored files.
+   * <p>
+   * Usages updated since <code>startedAt</code> are left to the next run, the increments they
+   * received may not be part of the aggregation.
+   *
+   * @return the number of usages corrected, created or removed
+   */
+  long reconcile(Dimension dimension, Instant startedAt);
+}
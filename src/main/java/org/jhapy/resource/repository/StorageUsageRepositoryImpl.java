@@ -0,0 +1,154 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.repository;
+
+import java.time.Instant;
+import java.util.Map;
+import org.bson.Document;
+import org.jhapy.resource.domain.StorageUsage;
+import org.jhapy.resource.domain.StorageUsage.Dimension;
+import org.jhapy.resource.domain.StoredFile;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+
+/**
+ * Implementation of {@link StorageUsageRepositoryCustom}, using <code>$inc</code> upserts so
+ * concurrent instances never overwrite each other's increments.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+public class StorageUsageRepositoryImpl implements StorageUsageRepositoryCustom {
+
+  private static final int RECONCILE_BATCH_SIZE = 500;
+
+  private final MongoTemplate mongoTemplate;
+
+  public StorageUsageRepositoryImpl(MongoTemplate mongoTemplate) {
+    this.mongoTemplate = mongoTemplate;
+  }
+
+  @Override
+  public void add(Map<String, StorageUsage> deltas) {
+    if (deltas.isEmpty()) {
+      return;
+    }
+    Instant now = Instant.now();
+    BulkOperations bulkOperations = mongoTemplate
+        .bulkOps(BulkMode.UNORDERED, StorageUsage.class);
+    deltas.forEach((id, delta) -> bulkOperations
+        .upsert(Query.query(Criteria.where("_id").is(id)), new Update()
+            .inc("bytes", delta.getBytes())
+            .inc("files", delta.getFiles())
+            .set("updated", now)
+            .setOnInsert("dimension", delta.getDimension())
+            .setOnInsert("owner", delta.getOwner())));
+    bulkOperations.execute();
+  }
+
+  @Override
+  public long reconcile(Dimension dimension, Instant startedAt) {
+    Criteria match = Criteria.where("isActive").ne(Boolean.FALSE);
+    Aggregation aggregation;
+    switch (dimension) {
+      case RELATED_OBJECT_CLASS:
+        match.and("relatedObjectClass").ne(null);
+        aggregation = Aggregation.newAggregation(Aggregation.match(match),
+            Aggregation.group("relatedObjectClass").sum("filesize").as("bytes").count()
+                .as("files"));
+        break;
+      case RELATED_OBJECT:
+        match.and("relatedObjectClass").ne(null).and("relatedObjectId").ne(null);
+        aggregation = Aggregation.newAggregation(Aggregation.match(match),
+            Aggregation.group("relatedObjectClass", "relatedObjectId").sum("filesize").as("bytes")
+                .count().as("files"));
+        break;
+      case CREATED_BY:
+        match.and("createdBy").ne(null);
+        aggregation = Aggregation.newAggregation(Aggregation.match(match),
+            Aggregation.group("createdBy").sum("filesize").as("bytes").count().as("files"));
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown dimension : " + dimension);
+    }
+    aggregation = aggregation
+        .withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+
+    long corrected = 0;
+    Instant now = Instant.now();
+    try (CloseableIterator<Document> results = mongoTemplate
+        .aggregateStream(aggregation, mongoTemplate.getCollectionName(StoredFile.class),
+            Document.class)) {
+      BulkOperations corrections = null;
+      BulkOperations reconciliations = null;
+      int batchSize = 0;
+      while (results.hasNext()) {
+        Document result = results.next();
+        String owner = dimension == Dimension.RELATED_OBJECT ? StorageUsage
+            .relatedObject(((Document) result.get("_id")).getString("relatedObjectClass"),
+                ((Document) result.get("_id")).get("relatedObjectId", Number.class).longValue())
+            : result.get("_id").toString();
+        String id = StorageUsage.id(dimension, owner);
+        long bytes = result.get("bytes", Number.class).longValue();
+        long files = result.get("files", Number.class).longValue();
+
+        if (corrections == null) {
+          corrections = mongoTemplate.bulkOps(BulkMode.UNORDERED, StorageUsage.class);
+          reconciliations = mongoTemplate.bulkOps(BulkMode.UNORDERED, StorageUsage.class);
+        }
+        // Corrected only if it did not change since the aggregation started
+        corrections.updateOne(Query.query(Criteria.where("_id").is(id).and("updated")
+            .lt(startedAt).orOperator(Criteria.where("bytes").ne(bytes),
+                Criteria.where("files").ne(files))), new Update()
+            .set("bytes", bytes)
+            .set("files", files));
+        reconciliations.upsert(Query.query(Criteria.where("_id").is(id)), new Update()
+            .set("reconciled", now)
+            .setOnInsert("dimension", dimension)
+            .setOnInsert("owner", owner)
+            .setOnInsert("bytes", bytes)
+            .setOnInsert("files", files)
+            .setOnInsert("updated", now));
+        if (++batchSize == RECONCILE_BATCH_SIZE || !results.hasNext()) {
+          corrected += corrections.execute().getModifiedCount();
+          corrected += reconciliations.execute().getUpserts().size();
+          corrections = null;
+          reconciliations = null;
+          batchSize = 0;
+        }
+      }
+    }
+
+    // Owners left without any active stored file
+    Criteria stale = Criteria.where("dimension").is(dimension).and("updated").lt(startedAt)
+        .orOperator(Criteria.where("reconciled").exists(false),
+            Criteria.where("reconciled").lt(startedAt));
+    corrected += mongoTemplate.remove(Query.query(stale), StorageUsage.class).getDeletedCount();
+    return corrected;
+  }
+}
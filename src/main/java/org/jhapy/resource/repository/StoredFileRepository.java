@@ -18,14 +18,47 @@
 
 package org.jhapy.resource.repository;
 
+import java.util.List;
+import java.util.Optional;
 import org.jhapy.resource.domain.StoredFile;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 
 /**
  * @author jHapy Lead Dev.
  * @version 1.0
  * @since 2019-05-15
  */
-public interface StoredFileRepository extends MongoRepository<StoredFile, String> {
+public interface StoredFileRepository extends MongoRepository<StoredFile, String>,
+    StoredFileRepositoryCustom {
 
+  /**
+   * Load a stored file without its binary content
+   */
+  @Query(value = "{ '_id' : ?0 }", fields = "{ 'content' : 0, 'orginalContent' : 0 }")
+  Optional<StoredFile> findMetadataById(String id);
+
+  /**
+   * Load a stored file, unless it has been deleted
+   */
+  @Query(value = "{ '_id' : ?0, 'isActive' : { $ne : false } }")
+  Optional<StoredFile> findActiveById(String id);
+
+  /**
+   * Load a stored file without its binary content, unless it has been deleted
+   */
+  @Query(value = "{ '_id' : ?0, 'isActive' : { $ne : false } }",
+      fields = "{ 'content' : 0, 'orginalContent' : 0 }")
+  Optional<StoredFile> findActiveMetadataById(String id);
+
+  /**
+   * Load the stored files of a related object without their binary content, unless they have been
+   * deleted, at most a page of them
+   */
+  @Query(value = "{ 'relatedObjectClass' : ?0, 'relatedObjectId' : ?1, "
+      + "'isActive' : { $ne : false } }",
+      fields = "{ 'content' : 0, 'orginalContent' : 0 }", sort = "{ 'created' : 1 }")
+  List<StoredFile> findActiveMetadataByRelatedObject(String relatedObjectClass,
+      Long relatedObjectId, Pageable pageable);
 }
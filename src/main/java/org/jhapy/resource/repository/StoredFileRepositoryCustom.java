@@ -0,0 +1,116 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.repository;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.jhapy.resource.access.AccessAggregate;
+import org.jhapy.resource.domain.StoredFile;
+
+/**
+ * Targeted updates of stored files, which do not rewrite the whole document.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+public interface StoredFileRepositoryCustom {
+
+  /**
+   * Flush access aggregates in one bulk write: the last access time is set and the access count
+   * incremented
+   */
+  void recordAccesses(Map<String, AccessAggregate> aggregates);
+
+  /**
+   * Ids of the stored files eligible for archiving
+   *
+   * @param createdBefore only files created before this instant
+   * @param accessedBefore only files never accessed or accessed before this instant
+   */
+  List<String> findArchivableIds(Instant createdBefore, Instant accessedBefore, int limit);
+
+  /**
+   * Drop the content of a stored file moved to the archive store
+   *
+   * @return <code>false</code> if the stored file has been modified since it was read
+   */
+  boolean markArchived(String id, Long version, String archiveKey);
+
+  /**
+   * Move the content of an archived stored file back to the document
+   *
+   * @return <code>false</code> if the stored file has been modified since it was read
+   */
+  boolean restoreArchived(String id, Long version, byte[] content, byte[] originalContent);
+
+  /**
+   * Next stored files to verify, without their binary content, in id order
+   *
+   * @param afterId only files with a greater id, <code>null</code> to start from the first one
+   */
+  List<StoredFile> findScrubBatch(String afterId, int limit);
+
+  /**
+   * Record the checksums of a stored file content which had none
+   *
+   * @return <code>false</code> if the stored file has been modified since it was read
+   */
+  boolean setChecksums(String id, Long version, String crc32c, String sha256);
+
+  /**
+   * Set metadata fields of an active stored file and increment its version, if it has not been
+   * modified since the given version
+   *
+   * @param values the new values by field name
+   * @return the updated stored file without its binary content, or <code>null</code> if it does
+   * not exist, is deleted or its version does not match
+   */
+  StoredFile patchMetadata(String id, Long version, Map<String, Object> values,
+      String modifiedBy);
+
+  /**
+   * Flag a stored file as deleted, its content is reclaimed later by the purger
+   *
+   * @return the stored file as it was before its deletion, without its binary content, or
+   * <code>null</code> if it does not exist or is already deleted
+   */
+  StoredFile softDelete(String id);
+
+  /**
+   * Deleted stored files to purge, without their binary content, oldest deletions first
+   */
+  List<StoredFile> findPurgeable(Instant deletedBefore, int limit);
+
+  /**
+   * Delete the document of a deleted stored file with a single <code>deleteOne</code>
+   *
+   * @return <code>false</code> if it does not exist anymore or is not deleted
+   */
+  boolean purge(String id);
+
+  /**
+   * Load a stored file without its binary content, unless it has been deleted, with the metadata
+   * reads preference: the answer may be stale. A stored file not found is looked up again on the
+   * primary, so a file just created is found.
+   */
+  Optional<StoredFile> findRecentActiveMetadataById(String id);
+}
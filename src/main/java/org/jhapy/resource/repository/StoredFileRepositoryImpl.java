@@ -0,0 +1,215 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.repository;
+
+import com.mongodb.ReadPreference;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import org.jhapy.resource.access.AccessAggregate;
+import org.jhapy.resource.config.DatabaseConfiguration;
+import org.jhapy.resource.domain.StoredFile;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+/**
+ * Implementation of {@link StoredFileRepositoryCustom}, using <code>$set</code> / <code>$unset</code>
+ * updates so the binary content is never transferred when only metadata changes.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+public class StoredFileRepositoryImpl implements StoredFileRepositoryCustom {
+
+  private final MongoTemplate mongoTemplate;
+  private final MongoTemplate metadataMongoTemplate;
+
+  public StoredFileRepositoryImpl(MongoTemplate mongoTemplate,
+      @Qualifier(DatabaseConfiguration.METADATA_MONGO_TEMPLATE)
+          MongoTemplate metadataMongoTemplate) {
+    this.mongoTemplate = mongoTemplate;
+    this.metadataMongoTemplate = metadataMongoTemplate;
+  }
+
+  @Override
+  public void recordAccesses(Map<String, AccessAggregate> aggregates) {
+    if (aggregates.isEmpty()) {
+      return;
+    }
+    BulkOperations bulkOperations = mongoTemplate
+        .bulkOps(BulkMode.UNORDERED, StoredFile.class);
+    aggregates.forEach((id, aggregate) -> bulkOperations
+        .updateOne(Query.query(Criteria.where("_id").is(id)), new Update()
+            .max("lastAccessed", aggregate.getLastAccessed())
+            .inc("accessCount", aggregate.getCount())));
+    bulkOperations.execute();
+  }
+
+  @Override
+  public List<String> findArchivableIds(Instant createdBefore, Instant accessedBefore,
+      int limit) {
+    Query query = Query.query(new Criteria().andOperator(
+        Criteria.where("isActive").ne(Boolean.FALSE),
+        Criteria.where("archived").ne(Boolean.TRUE),
+        Criteria.where("contentPath").exists(false),
+        Criteria.where("created").lt(createdBefore),
+        new Criteria().orOperator(
+            Criteria.where("lastAccessed").exists(false),
+            Criteria.where("lastAccessed").lt(accessedBefore))))
+        .with(Sort.by("created"))
+        .limit(limit);
+    query.fields().include("_id");
+    return mongoTemplate.find(query, StoredFile.class).stream().map(StoredFile::getId)
+        .collect(Collectors.toList());
+  }
+
+  @Override
+  public boolean markArchived(String id, Long version, String archiveKey) {
+    Update update = new Update()
+        .set("archived", Boolean.TRUE)
+        .set("archiveKey", archiveKey)
+        .unset("content")
+        .unset("orginalContent")
+        .inc("version", 1);
+    return mongoTemplate.updateFirst(byIdAndVersion(id, version), update, StoredFile.class)
+        .getModifiedCount() == 1;
+  }
+
+  @Override
+  public boolean restoreArchived(String id, Long version, byte[] content,
+      byte[] originalContent) {
+    Update update = new Update()
+        .set("archived", Boolean.FALSE)
+        .unset("archiveKey")
+        .set("lastAccessed", Instant.now())
+        .inc("version", 1);
+    if (content != null) {
+      update.set("content", content);
+    }
+    if (originalContent != null) {
+      update.set("orginalContent", originalContent);
+    }
+    return mongoTemplate.updateFirst(byIdAndVersion(id, version), update, StoredFile.class)
+        .getModifiedCount() == 1;
+  }
+
+  @Override
+  public List<StoredFile> findScrubBatch(String afterId, int limit) {
+    Criteria criteria = Criteria.where("archived").ne(Boolean.TRUE)
+        .and("isActive").ne(Boolean.FALSE);
+    if (afterId != null) {
+      criteria.and("_id").gt(afterId);
+    }
+    Query query = Query.query(criteria)
+        .with(Sort.by("_id"))
+        .limit(limit);
+    query.fields().exclude("content").exclude("orginalContent");
+    return mongoTemplate.find(query, StoredFile.class);
+  }
+
+  @Override
+  public boolean setChecksums(String id, Long version, String crc32c, String sha256) {
+    Update update = new Update().set("crc32c", crc32c);
+    if (sha256 != null) {
+      update.set("sha256", sha256);
+    }
+    Query query = byIdAndVersion(id, version);
+    query.addCriteria(Criteria.where("crc32c").exists(false));
+    return mongoTemplate.updateFirst(query, update, StoredFile.class).getModifiedCount() == 1;
+  }
+
+  @Override
+  public StoredFile patchMetadata(String id, Long version, Map<String, Object> values,
+      String modifiedBy) {
+    Update update = new Update()
+        .set("modified", Instant.now())
+        .inc("version", 1);
+    if (modifiedBy != null) {
+      update.set("modifiedBy", modifiedBy);
+    }
+    values.forEach(update::set);
+    Query query = byIdAndVersion(id, version);
+    query.addCriteria(Criteria.where("isActive").ne(Boolean.FALSE));
+    query.fields().exclude("content").exclude("orginalContent");
+    return mongoTemplate.findAndModify(query, update,
+        FindAndModifyOptions.options().returnNew(true), StoredFile.class);
+  }
+
+  @Override
+  public StoredFile softDelete(String id) {
+    Query query = Query
+        .query(Criteria.where("_id").is(id).and("isActive").ne(Boolean.FALSE));
+    query.fields().exclude("content").exclude("orginalContent");
+    Update update = new Update()
+        .set("isActive", Boolean.FALSE)
+        .set("deleted", Instant.now())
+        .inc("version", 1);
+    return mongoTemplate.findAndModify(query, update, StoredFile.class);
+  }
+
+  @Override
+  public List<StoredFile> findPurgeable(Instant deletedBefore, int limit) {
+    Query query = Query.query(Criteria.where("isActive").is(Boolean.FALSE)
+        .and("deleted").lt(deletedBefore))
+        .with(Sort.by("deleted"))
+        .limit(limit);
+    query.fields().exclude("content").exclude("orginalContent");
+    return mongoTemplate.find(query, StoredFile.class);
+  }
+
+  @Override
+  public boolean purge(String id) {
+    Query query = Query.query(Criteria.where("_id").is(id).and("isActive").is(Boolean.FALSE));
+    return mongoTemplate.remove(query, StoredFile.class).getDeletedCount() == 1;
+  }
+
+  @Override
+  public Optional<StoredFile> findRecentActiveMetadataById(String id) {
+    Query query = Query
+        .query(Criteria.where("_id").is(id).and("isActive").ne(Boolean.FALSE));
+    query.fields().exclude("content").exclude("orginalContent");
+    StoredFile storedFile = metadataMongoTemplate.findOne(query, StoredFile.class);
+    if (storedFile == null && metadataMongoTemplate.getReadPreference() != null
+        && !metadataMongoTemplate.getReadPreference().equals(ReadPreference.primary())) {
+      // Not replicated yet when just created, read it from the primary
+      storedFile = mongoTemplate.findOne(query, StoredFile.class);
+    }
+    return Optional.ofNullable(storedFile);
+  }
+
+  private Query byIdAndVersion(String id, Long version) {
+    Criteria criteria = Criteria.where("_id").is(id);
+    if (version == null) {
+      criteria.and("version").exists(false);
+    } else {
+      criteria.and("version").is(version);
+    }
+    return Query.query(criteria);
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.repository;
+
+import java.time.Instant;
+
+/**
+ * Targeted updates of upload sessions, so chunks received in parallel do not overwrite each other.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+public interface UploadSessionRepositoryCustom {
+
+  /**
+   * Add a chunk to the received ones and push back the expiry of the session
+   *
+   * @return <code>false</code> if the session does not exist anymore
+   */
+  boolean addReceivedChunk(String id, int index, Instant expiresAt);
+
+  /**
+   * Reserve the id of the stored file created by the commit of a session, so a session is
+   * committed once even when the commit is retried concurrently
+   *
+   * @return <code>false</code> if the session is already committed or being committed
+   */
+  boolean claimCommit(String id, String storedFileId);
+
+  /**
+   * Release a commit claim after a failed commit, so it can be retried
+   */
+  void releaseCommit(String id, String storedFileId);
+}
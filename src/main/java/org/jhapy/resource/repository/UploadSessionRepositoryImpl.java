@@ -0,0 +1,65 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.repository;
+
+import java.time.Instant;
+import org.jhapy.resource.domain.UploadSession;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+/**
+ * Implementation of {@link UploadSessionRepositoryCustom}, with atomic <code>$addToSet</code> /
+ * <code>$set</code> updates.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+public class UploadSessionRepositoryImpl implements UploadSessionRepositoryCustom {
+
+  private final MongoTemplate mongoTemplate;
+
+  public UploadSessionRepositoryImpl(MongoTemplate mongoTemplate) {
+    this.mongoTemplate = mongoTemplate;
+  }
+
+  @Override
+  public boolean addReceivedChunk(String id, int index, Instant expiresAt) {
+    Update update = new Update()
+        .addToSet("receivedChunks", index)
+        .set("expiresAt", expiresAt);
+    return mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(id)), update,
+        UploadSession.class).getMatchedCount() == 1;
+  }
+
+  @Override
+  public boolean claimCommit(String id, String storedFileId) {
+    Query query = Query.query(Criteria.where("_id").is(id).and("storedFileId").exists(false));
+    return mongoTemplate.updateFirst(query, Update.update("storedFileId", storedFileId),
+        UploadSession.class).getModifiedCount() == 1;
+  }
+
+  @Override
+  public void releaseCommit(String id, String storedFileId) {
+    Query query = Query.query(Criteria.where("_id").is(id).and("storedFileId").is(storedFileId));
+    mongoTemplate.updateFirst(query, new Update().unset("storedFileId"), UploadSession.class);
+  }
+}
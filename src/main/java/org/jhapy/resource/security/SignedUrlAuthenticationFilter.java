@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.security;
+
+import java.io.IOException;
+import java.util.Collections;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Authenticate the requests of a valid, unexpired, signed URL issued by {@link SignedUrlSigner},
+ * with the {@link #SIGNED_URL_AUTHORITY} only. Requests without a valid signature are left
+ * unauthenticated.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+public class SignedUrlAuthenticationFilter extends OncePerRequestFilter {
+
+  public static final String SIGNED_URL_AUTHORITY = "ROLE_SIGNED_URL";
+
+  private final SignedUrlSigner signedUrlSigner;
+
+  public SignedUrlAuthenticationFilter(SignedUrlSigner signedUrlSigner) {
+    this.signedUrlSigner = signedUrlSigner;
+  }
+
+  @Override
+  protected boolean shouldNotFilter(HttpServletRequest request) {
+    return !request.getRequestURI().startsWith(
+        request.getContextPath() + SignedUrlSigner.PATH_PREFIX);
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+      FilterChain filterChain) throws ServletException, IOException {
+    String[] path = request.getRequestURI()
+        .substring(request.getContextPath().length() + SignedUrlSigner.PATH_PREFIX.length())
+        .split("/");
+    long expires = NumberUtils
+        .toLong(request.getParameter(SignedUrlSigner.EXPIRES_PARAMETER), -1);
+    if (path.length == 2 && signedUrlSigner.verify(path[0], path[1], expires,
+        request.getParameter(SignedUrlSigner.SIGNATURE_PARAMETER))) {
+      PreAuthenticatedAuthenticationToken authentication = new PreAuthenticatedAuthenticationToken(
+          path[0], path[1],
+          Collections.singletonList(new SimpleGrantedAuthority(SIGNED_URL_AUTHORITY)));
+      SecurityContextHolder.getContext().setAuthentication(authentication);
+    }
+    filterChain.doFilter(request, response);
+  }
+}
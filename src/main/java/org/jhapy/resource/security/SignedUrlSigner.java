@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.apache.commons.lang3.StringUtils;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.domain.StoredFile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Signed, content addressed, download URLs.
+ * <p>
+ * A signed URL names the stored file and the hash of its content, and carries an expiry and an
+ * HMAC-SHA256 signature of the three, so it is validated without any call to the identity
+ * provider. As a new content gives a new URL, the response of a signed URL never changes and can be
+ * cached as immutable by the browsers and the caches in front of the service, until the URL
+ * expires.
+ * <p>
+ * Only a SHA-256 identifies a content. A stored file hashed with its CRC32C only, which two
+ * contents can share, is cached for a short time and revalidated, never as immutable, and its
+ * entity tag includes the version of the stored file.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Component
+public class SignedUrlSigner {
+
+  public static final String PATH_PREFIX = "/resourceService/content/signed/";
+  public static final String EXPIRES_PARAMETER = "expires";
+  public static final String SIGNATURE_PARAMETER = "signature";
+
+  private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+  private final SecretKeySpec key;
+  private final Duration ttl;
+  private final Duration maxAge;
+  private final Duration checksumMaxAge;
+
+  public SignedUrlSigner(ResourceServerProperties resourceServerProperties) {
+    ResourceServerProperties.SignedUrls signedUrls = resourceServerProperties.getSignedUrls();
+    this.key = StringUtils.isBlank(signedUrls.getSecret()) ? null
+        : new SecretKeySpec(signedUrls.getSecret().getBytes(StandardCharsets.UTF_8),
+            HMAC_ALGORITHM);
+    this.ttl = signedUrls.getTtl();
+    this.maxAge = signedUrls.getMaxAge();
+    this.checksumMaxAge = signedUrls.getChecksumMaxAge();
+  }
+
+  public boolean isEnabled() {
+    return key != null;
+  }
+
+  /**
+   * @return the hash identifying the content of a stored file, <code>null</code> if it has no
+   * checksum yet
+   */
+  public static String contentHash(StoredFile storedFile) {
+    return storedFile.getSha256() != null ? storedFile.getSha256() : storedFile.getCrc32c();
+  }
+
+  /**
+   * A signed URL of the content of a stored file, relative to the service root
+   */
+  public String sign(StoredFile storedFile) {
+    if (!isEnabled()) {
+      throw new IllegalStateException("Signed URLs are not configured");
+    }
+    String hash = contentHash(storedFile);
+    if (hash == null) {
+      throw new IllegalStateException(
+          "Stored file '" + storedFile.getId() + "' has no content hash");
+    }
+    long expires = Instant.now().plus(ttl).getEpochSecond();
+    return PATH_PREFIX + storedFile.getId() + "/" + hash + "?" + EXPIRES_PARAMETER + "="
+        + expires + "&" + SIGNATURE_PARAMETER + "=" + signature(storedFile.getId(), hash,
+        expires);
+  }
+
+  /**
+   * @return <code>true</code> if the signature is valid and the URL has not expired
+   */
+  public boolean verify(String id, String hash, long expires, String signature) {
+    if (!isEnabled() || signature == null || Instant.now().getEpochSecond() > expires) {
+      return false;
+    }
+    return MessageDigest.isEqual(signature(id, hash, expires).getBytes(StandardCharsets.US_ASCII),
+        signature.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  /**
+   * <code>ETag</code> of a signed URL response
+   */
+  public static String etag(StoredFile storedFile) {
+    return storedFile.getSha256() != null ? "\"" + storedFile.getSha256() + "\""
+        : "\"" + storedFile.getCrc32c() + "-" + storedFile.getVersion() + "\"";
+  }
+
+  /**
+   * <code>Cache-Control</code> of a signed URL response: immutable when the content is identified
+   * by its SHA-256, briefly cached otherwise, and never cached past the URL expiry
+   */
+  public String cacheControl(StoredFile storedFile, long expires) {
+    long remaining = Math.max(0, expires - Instant.now().getEpochSecond());
+    if (storedFile.getSha256() == null) {
+      return "public, max-age=" + Math.min(checksumMaxAge.getSeconds(), remaining)
+          + ", must-revalidate";
+    }
+    return "public, max-age=" + Math.min(maxAge.getSeconds(), remaining) + ", immutable";
+  }
+
+  private String signature(String id, String hash, long expires) {
+    try {
+      Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+      mac.init(key);
+      byte[] signature = mac
+          .doFinal((id + "/" + hash + "/" + expires).getBytes(StandardCharsets.UTF_8));
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+    } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+      throw new IllegalStateException("Cannot sign URL : " + e.getMessage(), e);
+    }
+  }
+}
@@ -47,9 +47,15 @@ public interface CrudService<T extends BaseEntity> {
     getRepository().delete(entity);
   }
 
+  /**
+   * Delete by id without loading the entity, binary content included
+   */
   @Transactional
   default void delete(long id) {
-    delete(load(id));
+    if (!getRepository().existsById(id)) {
+      throw new EntityNotFoundException();
+    }
+    getRepository().deleteById(id);
   }
 
   default long count() {
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.bson.types.ObjectId;
+import org.jhapy.commons.utils.HasLogger;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.repository.StoredFileRepository;
+import org.springframework.data.domain.AuditorAware;
+import org.springframework.stereotype.Component;
+
+/**
+ * Group commit of the small new stored files.
+ * <p>
+ * Inserts submitted by concurrent callers are accumulated by a single committer thread, for at
+ * most the configured window or batch size, and written with one <code>insertMany</code>. Each
+ * caller waits for the batch holding its stored file and gets its own result or failure: when a
+ * batch fails, its stored files which were not written are inserted one by one so the failure is
+ * reported to its caller only. Ids are assigned on submission, so a stored file written before the
+ * failure is recognised.
+ * <p>
+ * Batches are written outside of the callers transactions, and outside of their security context:
+ * the auditor is resolved on submission.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Component
+public class GroupCommitter implements HasLogger {
+
+  private final StoredFileRepository storedFileRepository;
+  private final AuditorAware<String> auditorAware;
+  private final ResourceServerProperties.GroupCommit groupCommit;
+  private final BlockingQueue<PendingInsert> queue;
+
+  private final DistributionSummary batchSizeSummary;
+
+  private volatile boolean running;
+  private Thread committer;
+
+  public GroupCommitter(StoredFileRepository storedFileRepository,
+      AuditorAware<String> auditorAware, ResourceServerProperties resourceServerProperties,
+      MeterRegistry meterRegistry) {
+    this.storedFileRepository = storedFileRepository;
+    this.auditorAware = auditorAware;
+    this.groupCommit = resourceServerProperties.getGroupCommit();
+    this.queue = new ArrayBlockingQueue<>(Math.max(1, groupCommit.getQueueCapacity()));
+    this.batchSizeSummary = DistributionSummary.builder("resource.groupcommit.batch")
+        .description("Stored files written per group commit")
+        .register(meterRegistry);
+  }
+
+  @PostConstruct
+  public void start() {
+    if (!groupCommit.isEnabled()) {
+      return;
+    }
+    running = true;
+    committer = new Thread(this::run, "resource-group-commit");
+    committer.setDaemon(true);
+    committer.start();
+  }
+
+  @PreDestroy
+  public void stop() throws InterruptedException {
+    running = false;
+    if (committer != null) {
+      committer.interrupt();
+      committer.join(TimeUnit.SECONDS.toMillis(10));
+    }
+    // Stored files submitted while stopping
+    List<PendingInsert> leftovers = new ArrayList<>();
+    queue.drainTo(leftovers);
+    if (!leftovers.isEmpty()) {
+      commit(leftovers);
+    }
+  }
+
+  /**
+   * @return <code>true</code> if a new stored file of this payload size can be group committed
+   */
+  public boolean accepts(StoredFile storedFile, long payloadSize) {
+    return running && storedFile.getId() == null
+        && payloadSize <= groupCommit.getMaxSize().toBytes();
+  }
+
+  /**
+   * Insert a new stored file with the next batch
+   *
+   * @return the inserted stored file, or <code>null</code> if the queue is full and the caller
+   * has to write it itself
+   */
+  public StoredFile insert(StoredFile storedFile) {
+    storedFile.setId(new ObjectId().toHexString());
+    // The committer thread has no security context, the auditing would leave them unset
+    auditorAware.getCurrentAuditor().ifPresent(auditor -> {
+      storedFile.setCreatedBy(auditor);
+      storedFile.setModifiedBy(auditor);
+    });
+    PendingInsert pendingInsert = new PendingInsert(storedFile);
+    if (!queue.offer(pendingInsert)) {
+      storedFile.setId(null);
+      return null;
+    }
+    try {
+      return pendingInsert.result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the group commit", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException("Cannot insert stored file : " + e.getCause().getMessage(),
+          e.getCause());
+    }
+  }
+
+  private void run() {
+    List<PendingInsert> batch = new ArrayList<>(groupCommit.getMaxBatch());
+    while (running || !queue.isEmpty()) {
+      try {
+        PendingInsert first = queue.poll(1, TimeUnit.SECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + groupCommit.getWindow().toNanos();
+        while (batch.size() < groupCommit.getMaxBatch()) {
+          long remaining = deadline - System.nanoTime();
+          PendingInsert next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS)
+              : queue.poll();
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+        }
+      } catch (InterruptedException e) {
+        // Stopping, the pending inserts are still written
+        queue.drainTo(batch);
+      }
+      if (!batch.isEmpty()) {
+        commit(batch);
+        batch.clear();
+      }
+    }
+  }
+
+  private void commit(List<PendingInsert> batch) {
+    List<StoredFile> storedFiles = new ArrayList<>(batch.size());
+    batch.forEach(pendingInsert -> storedFiles.add(pendingInsert.storedFile));
+    batchSizeSummary.record(batch.size());
+    try {
+      List<StoredFile> inserted = storedFileRepository.insert(storedFiles);
+      for (int i = 0; i < batch.size(); i++) {
+        batch.get(i).result.complete(inserted.get(i));
+      }
+    } catch (RuntimeException e) {
+      logger().warn(getLoggerPrefix("commit") + "Group commit of " + batch.size()
+          + " stored files failed, inserting them one by one : " + e.getMessage());
+      batch.forEach(this::commitOne);
+    }
+  }
+
+  private void commitOne(PendingInsert pendingInsert) {
+    try {
+      StoredFile storedFile = pendingInsert.storedFile;
+      pendingInsert.result.complete(storedFileRepository.existsById(storedFile.getId())
+          ? storedFile : storedFileRepository.insert(storedFile));
+    } catch (RuntimeException e) {
+      pendingInsert.result.completeExceptionally(e);
+    }
+  }
+
+  private static class PendingInsert {
+
+    private final StoredFile storedFile;
+    private final CompletableFuture<StoredFile> result = new CompletableFuture<>();
+
+    PendingInsert(StoredFile storedFile) {
+      this.storedFile = storedFile;
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.domain.StoredFile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Single flight coalescing of the concurrent reads of a stored file.
+ * <p>
+ * The first caller reading a stored file loads it, the callers asking for the same id while it is
+ * loading wait for that load and share its result, or its failure, instead of fetching and
+ * materialising their own copy. Nothing is kept once the load completes: this is not a cache.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Component
+public class ReadCoalescer {
+
+  private final boolean enabled;
+  private final ConcurrentHashMap<String, CompletableFuture<StoredFile>> inFlight =
+      new ConcurrentHashMap<>();
+
+  private final Counter loadedCounter;
+  private final Counter coalescedCounter;
+
+  public ReadCoalescer(ResourceServerProperties resourceServerProperties,
+      MeterRegistry meterRegistry) {
+    this.enabled = resourceServerProperties.getCoalescing().isEnabled();
+
+    Gauge.builder("resource.coalescing.inflight", inFlight, Map::size)
+        .description("Stored files being loaded")
+        .register(meterRegistry);
+    loadedCounter = Counter.builder("resource.coalescing.reads")
+        .description("Reads of a stored file, by whether they loaded it or waited for a load")
+        .tag("result", "loaded")
+        .register(meterRegistry);
+    coalescedCounter = Counter.builder("resource.coalescing.reads")
+        .description("Reads of a stored file, by whether they loaded it or waited for a load")
+        .tag("result", "coalesced")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Load a stored file, or wait for the load already in flight for this id
+   *
+   * @param loader loads the stored file, called by the first caller only
+   * @return the loaded stored file, shared by the coalesced callers
+   */
+  public StoredFile load(String id, Function<String, StoredFile> loader) {
+    if (!enabled || id == null) {
+      return loader.apply(id);
+    }
+    CompletableFuture<StoredFile> flight = new CompletableFuture<>();
+    CompletableFuture<StoredFile> existing = inFlight.putIfAbsent(id, flight);
+    if (existing != null) {
+      coalescedCounter.increment();
+      return await(existing);
+    }
+
+    loadedCounter.increment();
+    try {
+      StoredFile storedFile = loader.apply(id);
+      inFlight.remove(id, flight);
+      flight.complete(storedFile);
+      return storedFile;
+    } catch (RuntimeException | Error e) {
+      inFlight.remove(id, flight);
+      flight.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  private StoredFile await(CompletableFuture<StoredFile> flight) {
+    try {
+      return flight.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for a stored file load", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+}
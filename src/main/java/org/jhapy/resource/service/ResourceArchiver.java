@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Instant;
+import java.util.List;
+import org.jhapy.commons.utils.HasLogger;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.repository.StoredFileRepository;
+import org.jhapy.resource.store.ArchiveStore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Background job moving the content of cold stored files to the {@link ArchiveStore}.
+ * <p>
+ * A stored file is cold when it was created more than {@link ResourceServerProperties.Archive#getMinAge()}
+ * ago and has not been accessed for {@link ResourceServerProperties.Archive#getIdleTime()}. Its
+ * document is kept as a metadata stub, the content being rehydrated by {@link ResourceService#getById(String)}.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Component
+@ConditionalOnProperty(prefix = "jhapy.resource.archive", name = "enabled", havingValue = "true")
+public class ResourceArchiver implements HasLogger {
+
+  private final StoredFileRepository storedFileRepository;
+  private final ArchiveStore archiveStore;
+  private final ResourceServerProperties.Archive archive;
+
+  private final Counter archivedCounter;
+  private final Counter archivedBytesCounter;
+
+  public ResourceArchiver(StoredFileRepository storedFileRepository, ArchiveStore archiveStore,
+      ResourceServerProperties resourceServerProperties, MeterRegistry meterRegistry) {
+    this.storedFileRepository = storedFileRepository;
+    this.archiveStore = archiveStore;
+    this.archive = resourceServerProperties.getArchive();
+    this.archivedCounter = Counter.builder("resource.archive.files")
+        .description("Stored files moved to the archive store")
+        .register(meterRegistry);
+    this.archivedBytesCounter = Counter.builder("resource.archive.bytes")
+        .description("Bytes moved to the archive store")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+  }
+
+  @Scheduled(initialDelayString = "${jhapy.resource.archive.initial-delay:PT5M}",
+      fixedDelayString = "${jhapy.resource.archive.interval:PT1H}")
+  public void archiveColdFiles() {
+    String loggerPrefix = getLoggerPrefix("archiveColdFiles");
+    Instant now = Instant.now();
+    List<String> ids = storedFileRepository
+        .findArchivableIds(now.minus(archive.getMinAge()), now.minus(archive.getIdleTime()),
+            archive.getBatchSize());
+    int nbArchived = 0;
+    for (String id : ids) {
+      try {
+        if (archive(id)) {
+          nbArchived++;
+        }
+      } catch (Exception e) {
+        logger().error(loggerPrefix + "Cannot archive stored file '" + id + "' : " + e
+            .getMessage(), e);
+      }
+    }
+    if (!ids.isEmpty()) {
+      logger().info(loggerPrefix + nbArchived + " stored files archived out of " + ids.size());
+    }
+  }
+
+  private boolean archive(String id) throws Exception {
+    StoredFile storedFile = storedFileRepository.findById(id).orElse(null);
+    if (storedFile == null || Boolean.TRUE.equals(storedFile.getArchived())) {
+      return false;
+    }
+    archiveStore.write(id, storedFile.getContent(), storedFile.getOrginalContent());
+    if (!storedFileRepository.markArchived(id, storedFile.getVersion(), id)) {
+      // Modified in the meantime, it will be reconsidered on the next run
+      archiveStore.delete(id);
+      return false;
+    }
+    archivedCounter.increment();
+    archivedBytesCounter.increment(
+        (storedFile.getContent() == null ? 0 : storedFile.getContent().length)
+            + (storedFile.getOrginalContent() == null ? 0
+            : storedFile.getOrginalContent().length));
+    return true;
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.jhapy.commons.utils.HasLogger;
+import org.jhapy.resource.access.AccessTracker;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.transfer.ContentTransfer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Export of several stored files as a ZIP archive streamed to the client.
+ * <p>
+ * Entries are written one after the other, each content being copied from its store straight
+ * into the archive, so the memory used does not depend on the archive size. Contents already
+ * compressed are written as <code>STORED</code> entries: their CRC-32 is computed by a first read
+ * of the content, which saves deflating them for nothing.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Component
+public class ResourceExporter implements HasLogger {
+
+  private final ResourceService resourceService;
+  private final ContentTransfer contentTransfer;
+  private final AccessTracker accessTracker;
+
+  public ResourceExporter(ResourceService resourceService, ContentTransfer contentTransfer,
+      AccessTracker accessTracker) {
+    this.resourceService = resourceService;
+    this.contentTransfer = contentTransfer;
+    this.accessTracker = accessTracker;
+  }
+
+  /**
+   * Write a ZIP archive of stored files, loaded by {@link ResourceService#getMetadataById(String)},
+   * the output stream is not closed
+   *
+   * @return the number of content bytes written
+   */
+  public long export(List<StoredFile> storedFiles, OutputStream outputStream)
+      throws IOException {
+    String loggerPrefix = getLoggerPrefix("export");
+    ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+    WritableByteChannel zipChannel = Channels.newChannel(zipOutputStream);
+    Set<String> names = new HashSet<>();
+    long total = 0;
+    for (StoredFile storedFile : storedFiles) {
+      Path contentFile = resourceService.getContentFile(storedFile);
+      byte[] content = null;
+      if (contentFile == null) {
+        StoredFile loaded = resourceService.getById(storedFile.getId());
+        content = loaded == null ? null : loaded.getContent();
+        if (content == null) {
+          logger().warn(loggerPrefix + "No content for stored file '" + storedFile.getId()
+              + "', skipped");
+          continue;
+        }
+      }
+
+      ZipEntry entry = new ZipEntry(entryName(storedFile, names));
+      if (Boolean.TRUE.equals(storedFile.getCompressed())) {
+        CrcChannel crcChannel = new CrcChannel();
+        if (content != null) {
+          crcChannel.write(ByteBuffer.wrap(content));
+        } else {
+          resourceService.transferContent(storedFile, crcChannel);
+        }
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(crcChannel.bytes);
+        entry.setCompressedSize(crcChannel.bytes);
+        entry.setCrc(crcChannel.crc.getValue());
+      } else {
+        entry.setMethod(ZipEntry.DEFLATED);
+      }
+      if (storedFile.getModified() != null) {
+        entry.setLastModifiedTime(FileTime.from(storedFile.getModified()));
+      }
+
+      zipOutputStream.putNextEntry(entry);
+      long bytes;
+      if (content != null) {
+        bytes = contentTransfer.write(content, zipOutputStream);
+      } else {
+        bytes = resourceService.transferContent(storedFile, zipChannel);
+        accessTracker.recordAccess(storedFile.getId(), bytes);
+      }
+      zipOutputStream.closeEntry();
+      total += bytes;
+    }
+    zipOutputStream.finish();
+    zipOutputStream.flush();
+    return total;
+  }
+
+  /**
+   * A unique entry name, from the file name without its directories
+   */
+  private String entryName(StoredFile storedFile, Set<String> names) {
+    String name = storedFile.getFilename() == null ? null
+        : StringUtils.substringAfterLast("/" + storedFile.getFilename().replace('\\', '/'), "/");
+    if (StringUtils.isBlank(name) || name.equals(".") || name.equals("..")) {
+      name = storedFile.getId();
+    }
+    String unique = name;
+    String extension = name.lastIndexOf('.') > 0 ? name.substring(name.lastIndexOf('.')) : "";
+    String base = name.substring(0, name.length() - extension.length());
+    for (int i = 2; !names.add(unique); i++) {
+      unique = base + " (" + i + ")" + extension;
+    }
+    return unique;
+  }
+
+  /**
+   * Compute the CRC-32 and size of a content, without keeping it
+   */
+  private static class CrcChannel implements WritableByteChannel {
+
+    private final CRC32 crc = new CRC32();
+    private long bytes;
+
+    @Override
+    public int write(ByteBuffer src) {
+      int length = src.remaining();
+      crc.update(src);
+      bytes += length;
+      return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+      // Nothing to release
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.jhapy.commons.utils.HasLogger;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.repository.StoredFileRepository;
+import org.jhapy.resource.store.ArchiveStore;
+import org.jhapy.resource.store.ContentStores;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Background job reclaiming the deleted stored files.
+ * <p>
+ * {@link ResourceService#delete(String)} only flags a stored file as inactive. Once the retention
+ * is over, this job deletes its content files, its archived content and finally its document, in
+ * batches, off-peak and at a throttled rate. Content files go first so a failure leaves the
+ * document to be retried on the next run rather than orphan files.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Component
+@ConditionalOnProperty(prefix = "jhapy.resource.purge", name = "enabled", havingValue = "true",
+    matchIfMissing = true)
+public class ResourcePurger implements HasLogger {
+
+  private final StoredFileRepository storedFileRepository;
+  private final ContentStores contentStores;
+  private final ArchiveStore archiveStore;
+  private final ResourceServerProperties.Purge purge;
+
+  private final Counter purgedCounter;
+  private final Counter purgedBytesCounter;
+
+  public ResourcePurger(StoredFileRepository storedFileRepository, ContentStores contentStores,
+      ArchiveStore archiveStore, ResourceServerProperties resourceServerProperties,
+      MeterRegistry meterRegistry) {
+    this.storedFileRepository = storedFileRepository;
+    this.contentStores = contentStores;
+    this.archiveStore = archiveStore;
+    this.purge = resourceServerProperties.getPurge();
+    this.purgedCounter = Counter.builder("resource.purge.files")
+        .description("Deleted stored files purged")
+        .register(meterRegistry);
+    this.purgedBytesCounter = Counter.builder("resource.purge.bytes")
+        .description("Content bytes reclaimed by the purge")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+  }
+
+  @Scheduled(cron = "${jhapy.resource.purge.cron:0 */10 1-5 * * *}")
+  public void purgeDeletedFiles() {
+    String loggerPrefix = getLoggerPrefix("purgeDeletedFiles");
+    List<StoredFile> storedFiles = storedFileRepository
+        .findPurgeable(Instant.now().minus(purge.getRetention()), purge.getBatchSize());
+    long pauseNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, purge.getMaxFilesPerSecond());
+    int nbPurged = 0;
+    for (StoredFile storedFile : storedFiles) {
+      long start = System.nanoTime();
+      try {
+        if (purge(storedFile)) {
+          nbPurged++;
+        }
+      } catch (Exception e) {
+        logger().error(loggerPrefix + "Cannot purge stored file '" + storedFile.getId() + "' : "
+            + e.getMessage(), e);
+      }
+      long remainingNanos = pauseNanos - (System.nanoTime() - start);
+      if (remainingNanos > 0) {
+        try {
+          TimeUnit.NANOSECONDS.sleep(remainingNanos);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+    }
+    if (!storedFiles.isEmpty()) {
+      logger().info(loggerPrefix + nbPurged + " deleted stored files purged out of " + storedFiles
+          .size());
+    }
+  }
+
+  private boolean purge(StoredFile storedFile) throws Exception {
+    contentStores.forRead(storedFile).delete(storedFile);
+    if (storedFile.getArchiveKey() != null) {
+      archiveStore.delete(storedFile.getArchiveKey());
+    }
+    if (!storedFileRepository.purge(storedFile.getId())) {
+      // Already purged by another instance
+      return false;
+    }
+    purgedCounter.increment();
+    purgedBytesCounter.increment(Math.max(0, storedFile.getFilesize()));
+    return true;
+  }
+}
@@ -18,7 +18,12 @@
 
 package org.jhapy.resource.service;
 
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.List;
 import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.domain.StoredFilePatch;
 
 /**
  * @author jHapy Lead Dev.
@@ -29,7 +34,57 @@ public interface ResourceService {
 
   StoredFile save(StoredFile storedFile);
 
+  /**
+   * @return the stored file with its content, possibly shared with concurrent callers: it must not
+   * be modified
+   */
   StoredFile getById(String id);
 
+  /**
+   * Update the metadata of a stored file in place, without reading nor rewriting its content
+   *
+   * @return the updated stored file, without its binary content
+   * @throws org.springframework.dao.OptimisticLockingFailureException if the stored file has been
+   * modified since the version of the patch
+   */
+  StoredFile patch(StoredFilePatch patch);
+
+  /**
+   * Load a stored file without its binary content, possibly from a secondary: it may be slightly
+   * stale
+   */
+  StoredFile getMetadataById(String id);
+
+  /**
+   * Load the current version of a stored file without its binary content, from the primary
+   */
+  StoredFile getCurrentMetadataById(String id);
+
+  /**
+   * Load the stored files of a related object without their binary content, oldest first
+   *
+   * @param limit the maximum number of stored files loaded
+   */
+  List<StoredFile> getMetadataByRelatedObject(String relatedObjectClass, Long relatedObjectId,
+      int limit);
+
+  /**
+   * @return the file holding the content of the stored file, or <code>null</code> if its content
+   * is not file backed or the file does not exist anymore
+   */
+  Path getContentFile(StoredFile storedFile);
+
+  /**
+   * Copy the content of a stored file, loaded by {@link #getMetadataById(String)}, to a channel
+   */
+  long transferContent(StoredFile storedFile, WritableByteChannel target) throws IOException;
+
+  /**
+   * Copy a range of the content of a stored file, loaded by {@link #getMetadataById(String)}, to
+   * a channel
+   */
+  long transferContent(StoredFile storedFile, WritableByteChannel target, long position,
+      long count) throws IOException;
+
   void delete(String id);
 }
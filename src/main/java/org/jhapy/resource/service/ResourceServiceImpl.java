@@ -18,12 +18,43 @@
 
 package org.jhapy.resource.service;
 
+import com.netflix.hystrix.contrib.javanica.annotation.HystrixCommand;
+import com.netflix.hystrix.contrib.javanica.annotation.HystrixProperty;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.jhapy.commons.utils.HasLogger;
+import org.jhapy.resource.access.AccessTracker;
+import org.jhapy.resource.config.ResourceServerProperties;
 import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.domain.StoredFilePatch;
+import org.jhapy.resource.exception.ContentIntegrityException;
 import org.jhapy.resource.exception.EntityNotFoundException;
+import org.jhapy.resource.ingest.ContentInspector;
+import org.jhapy.resource.ingest.ImageOptimizer;
+import org.jhapy.resource.integrity.ContentDigest;
+import org.jhapy.resource.integrity.DigestingChannel;
+import org.jhapy.resource.metric.ResourceMetrics;
 import org.jhapy.resource.repository.StoredFileRepository;
+import org.jhapy.resource.store.ArchiveStore;
+import org.jhapy.resource.store.ContentStore;
+import org.jhapy.resource.store.ContentStores;
+import org.jhapy.resource.usage.StorageUsageTracker;
+import org.springframework.beans.BeanUtils;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.AuditorAware;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * @author jHapy Lead Dev.
@@ -35,28 +66,350 @@ import org.springframework.transaction.annotation.Transactional;
 public class ResourceServiceImpl implements ResourceService, HasLogger {
 
   private final StoredFileRepository storedFileRepository;
+  private final ResourceMetrics resourceMetrics;
+  private final ArchiveStore archiveStore;
+  private final ContentStores contentStores;
+  private final AccessTracker accessTracker;
+  private final AuditorAware<String> auditorAware;
+  private final ContentInspector contentInspector;
+  private final ImageOptimizer imageOptimizer;
+  private final ReadCoalescer readCoalescer;
+  private final GroupCommitter groupCommitter;
+  private final StaleReadCache staleReadCache;
+  private final StorageUsageTracker storageUsageTracker;
+  private final ResourceServerProperties.Archive archive;
+  private final ResourceServerProperties.Integrity integrity;
 
   public ResourceServiceImpl(
-      StoredFileRepository storedFileRepository) {
+      StoredFileRepository storedFileRepository,
+      ResourceMetrics resourceMetrics,
+      ArchiveStore archiveStore,
+      ContentStores contentStores,
+      AccessTracker accessTracker,
+      AuditorAware<String> auditorAware,
+      ContentInspector contentInspector,
+      ImageOptimizer imageOptimizer,
+      ReadCoalescer readCoalescer,
+      GroupCommitter groupCommitter,
+      StaleReadCache staleReadCache,
+      StorageUsageTracker storageUsageTracker,
+      ResourceServerProperties resourceServerProperties) {
     this.storedFileRepository = storedFileRepository;
+    this.resourceMetrics = resourceMetrics;
+    this.archiveStore = archiveStore;
+    this.contentStores = contentStores;
+    this.accessTracker = accessTracker;
+    this.auditorAware = auditorAware;
+    this.contentInspector = contentInspector;
+    this.imageOptimizer = imageOptimizer;
+    this.readCoalescer = readCoalescer;
+    this.groupCommitter = groupCommitter;
+    this.staleReadCache = staleReadCache;
+    this.storageUsageTracker = storageUsageTracker;
+    this.archive = resourceServerProperties.getArchive();
+    this.integrity = resourceServerProperties.getIntegrity();
   }
 
+  /**
+   * Soft delete: the stored file is only flagged, its content is reclaimed in the background by
+   * the {@link ResourcePurger}
+   */
   @Override
   @Transactional
   public void delete(String id) {
     if (id == null) {
       throw new EntityNotFoundException();
     }
-    StoredFile entity = storedFileRepository.findById(id).orElse(null);
-    if (entity == null) {
+    StoredFile deleted = resourceMetrics.record("delete", ResourceMetrics.STAGE_PERSIST,
+        () -> storedFileRepository.softDelete(id));
+    if (deleted == null) {
       throw new EntityNotFoundException();
     }
-    storedFileRepository.delete(entity);
+    staleReadCache.evict(id);
+    afterCommit(() -> storageUsageTracker.record(deleted, null));
   }
 
+  /**
+   * Concurrent reads of the same stored file are coalesced into a single load, whose result is
+   * shared by all the callers.
+   * <p>
+   * Loads run in their own bounded thread pool with a timeout, behind a circuit breaker: when the
+   * database is slow or down, the last served version of the stored file is served stale. The
+   * callers are coalesced before entering the pool, so the callers waiting for a load in flight
+   * hold neither a thread nor a queue slot of the pool.
+   */
   @Override
   public StoredFile getById(String id) {
-    return storedFileRepository.findById(id).orElse(null);
+    StoredFile storedFile = readCoalescer.load(id,
+        storedFileId -> StoredFileReadCommand.load(storedFileId, this::load,
+            (staleId, t) -> stale("getById", staleId, t)));
+    if (storedFile == null) {
+      return null;
+    }
+    staleReadCache.put(storedFile);
+    resourceMetrics.recordPayload("getById", ResourceMetrics.DIRECTION_READ, storedFile);
+    accessTracker.recordAccess(storedFile.getId(), ResourceMetrics.payloadSize(storedFile));
+    return storedFile;
+  }
+
+  private StoredFile load(String id) {
+    StoredFile storedFile = resourceMetrics.record("getById", ResourceMetrics.STAGE_FETCH,
+        () -> storedFileRepository.findActiveById(id).orElse(null));
+    if (storedFile == null) {
+      return null;
+    }
+    if (Boolean.TRUE.equals(storedFile.getArchived())) {
+      resourceMetrics.record("getById", ResourceMetrics.STAGE_REHYDRATE,
+          () -> rehydrate(storedFile));
+    } else {
+      readContent(storedFile);
+    }
+    verifyContent(storedFile);
+    return storedFile;
+  }
+
+  @Override
+  @Transactional
+  public StoredFile patch(StoredFilePatch patch) {
+    if (patch == null || patch.getId() == null) {
+      throw new EntityNotFoundException();
+    }
+    // The declared type is checked against the recorded detected type, the usage moves to the
+    // new related object
+    boolean relatedObjectPatched =
+        patch.getRelatedObjectId() != null || patch.getRelatedObjectClass() != null;
+    StoredFile previous = patch.getMimeType() != null || (storageUsageTracker.isEnabled()
+        && relatedObjectPatched) ? storedFileRepository.findActiveMetadataById(patch.getId())
+        .orElseThrow(EntityNotFoundException::new) : null;
+
+    Map<String, Object> values = new HashMap<>();
+    if (patch.getFilename() != null) {
+      values.put("filename", patch.getFilename());
+    }
+    if (patch.getMimeType() != null) {
+      values.put("mimeType", contentInspector.checkDeclaredType(previous, patch.getMimeType()));
+    }
+    if (patch.getZoom() != null) {
+      values.put("zoom", patch.getZoom());
+    }
+    if (patch.getRelatedObjectId() != null) {
+      values.put("relatedObjectId", patch.getRelatedObjectId());
+    }
+    if (patch.getRelatedObjectClass() != null) {
+      values.put("relatedObjectClass", patch.getRelatedObjectClass());
+    }
+    StoredFile storedFile = resourceMetrics.record("patch", ResourceMetrics.STAGE_PERSIST,
+        () -> storedFileRepository.patchMetadata(patch.getId(), patch.getVersion(), values,
+            auditorAware.getCurrentAuditor().orElse(null)));
+    if (storedFile == null) {
+      if (storedFileRepository.findActiveMetadataById(patch.getId()).isEmpty()) {
+        throw new EntityNotFoundException();
+      }
+      throw new OptimisticLockingFailureException(
+          "Stored file '" + patch.getId() + "' has been modified since version " + patch
+              .getVersion());
+    }
+    staleReadCache.evict(storedFile.getId());
+    if (storageUsageTracker.isEnabled() && relatedObjectPatched) {
+      afterCommit(() -> storageUsageTracker.record(previous, storedFile));
+    }
+    return storedFile;
+  }
+
+  @Override
+  @HystrixCommand(commandKey = "getMetadataById", groupKey = "resourceRead",
+      threadPoolKey = "resourceRead", fallbackMethod = "getStaleMetadataById",
+      commandProperties = @HystrixProperty(
+          name = "execution.isolation.thread.timeoutInMilliseconds", value = "1000"),
+      threadPoolProperties = {@HystrixProperty(name = "coreSize", value = "40"),
+          @HystrixProperty(name = "maxQueueSize", value = "100"),
+          @HystrixProperty(name = "queueSizeRejectionThreshold", value = "100")})
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public StoredFile getMetadataById(String id) {
+    if (id == null) {
+      return null;
+    }
+    return resourceMetrics.record("getMetadataById", ResourceMetrics.STAGE_FETCH,
+        () -> storedFileRepository.findRecentActiveMetadataById(id).orElse(null));
+  }
+
+  @Override
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public StoredFile getCurrentMetadataById(String id) {
+    if (id == null) {
+      return null;
+    }
+    return resourceMetrics.record("getCurrentMetadataById", ResourceMetrics.STAGE_FETCH,
+        () -> storedFileRepository.findActiveMetadataById(id).orElse(null));
+  }
+
+  @Override
+  @Transactional(propagation = Propagation.SUPPORTS)
+  public List<StoredFile> getMetadataByRelatedObject(String relatedObjectClass,
+      Long relatedObjectId, int limit) {
+    return resourceMetrics.record("getMetadataByRelatedObject", ResourceMetrics.STAGE_FETCH,
+        () -> storedFileRepository
+            .findActiveMetadataByRelatedObject(relatedObjectClass, relatedObjectId,
+                PageRequest.of(0, limit)));
+  }
+
+  /**
+   * The metadata of the last served version of a stored file, without its content
+   */
+  private StoredFile getStaleMetadataById(String id, Throwable t) {
+    StoredFile metadata = new StoredFile();
+    // The cached stored file is shared with the other readers: copied, never stripped in place
+    BeanUtils.copyProperties(stale("getMetadataById", id, t), metadata, "content",
+        "orginalContent");
+    return metadata;
+  }
+
+  /**
+   * The last served version of a stored file, when it cannot be read from the database
+   */
+  private StoredFile stale(String operation, String id, Throwable t) {
+    StoredFile storedFile = staleReadCache.getStale(operation, id);
+    if (storedFile != null) {
+      logger().warn(getLoggerPrefix(operation) + "Serving stale stored file '" + id + "' : " + t
+          .getMessage());
+      return storedFile;
+    }
+    if (t instanceof RuntimeException) {
+      throw (RuntimeException) t;
+    }
+    throw new IllegalStateException("Cannot read stored file '" + id + "'", t);
+  }
+
+  @Override
+  public Path getContentFile(StoredFile storedFile) {
+    Path contentFile = contentStores.forRead(storedFile).getContentFile(storedFile);
+    // Stale metadata may still point to a content file replaced since
+    return contentFile == null || Files.isReadable(contentFile) ? contentFile : null;
+  }
+
+  @Override
+  public long transferContent(StoredFile storedFile, WritableByteChannel target)
+      throws IOException {
+    if (!integrity.isVerifyOnRead() || storedFile.getCrc32c() == null) {
+      return contentStores.forRead(storedFile).transferTo(storedFile, target);
+    }
+    // Verified while streaming, a corrupted content ends with an aborted transfer
+    ContentDigest contentDigest = new ContentDigest(
+        integrity.isSha256() && storedFile.getSha256() != null);
+    long bytes = contentStores.forRead(storedFile)
+        .transferTo(storedFile, new DigestingChannel(target, contentDigest));
+    verify(storedFile, contentDigest);
+    return bytes;
+  }
+
+  @Override
+  public long transferContent(StoredFile storedFile, WritableByteChannel target, long position,
+      long count) throws IOException {
+    return contentStores.forRead(storedFile).transferTo(storedFile, target, position, count);
+  }
+
+  private void readContent(StoredFile storedFile) {
+    ContentStore contentStore = contentStores.forRead(storedFile);
+    resourceMetrics.record("getById", ResourceMetrics.STAGE_FETCH_CONTENT, () -> {
+      try {
+        contentStore.read(storedFile);
+      } catch (IOException e) {
+        throw new IllegalStateException(
+            "Cannot read content of stored file '" + storedFile.getId() + "'", e);
+      }
+    });
+  }
+
+  /**
+   * Verify a content loaded in memory against its recorded checksums
+   */
+  private void verifyContent(StoredFile storedFile) {
+    if (!integrity.isVerifyOnRead() || storedFile.getCrc32c() == null
+        || storedFile.getContent() == null) {
+      return;
+    }
+    verify(storedFile, ContentDigest.of(storedFile.getContent(),
+        integrity.isSha256() && storedFile.getSha256() != null));
+  }
+
+  private void verify(StoredFile storedFile, ContentDigest contentDigest) {
+    try {
+      contentDigest.verify(storedFile);
+    } catch (ContentIntegrityException e) {
+      resourceMetrics.recordIntegrityFailure(ResourceMetrics.SOURCE_READ);
+      logger().error(getLoggerPrefix("verify") + e.getMessage());
+      throw e;
+    }
+  }
+
+  private void deleteContent(StoredFile storedFile) {
+    try {
+      contentStores.forRead(storedFile).delete(storedFile);
+    } catch (IOException e) {
+      logger().warn(getLoggerPrefix("deleteContent") + "Cannot delete content of stored file '"
+          + storedFile.getId() + "' : " + e.getMessage());
+    }
+  }
+
+  /**
+   * Load the content of an archived stored file, and move it back to the hot collection if
+   * configured so
+   */
+  private void rehydrate(StoredFile storedFile) {
+    String archiveKey = storedFile.getArchiveKey();
+    try {
+      storedFile.setContent(archiveStore.readContent(archiveKey));
+      storedFile.setOrginalContent(archiveStore.readOriginalContent(archiveKey));
+    } catch (IOException e) {
+      throw new IllegalStateException(
+          "Cannot read archived content of stored file '" + storedFile.getId() + "'", e);
+    }
+    if (archive.isRestoreOnRead() && storedFileRepository
+        .restoreArchived(storedFile.getId(), storedFile.getVersion(), storedFile.getContent(),
+            storedFile.getOrginalContent())) {
+      storedFile.setArchived(Boolean.FALSE);
+      storedFile.setArchiveKey(null);
+      storedFile.setVersion(storedFile.getVersion() == null ? 1 : storedFile.getVersion() + 1);
+      afterCommit(() -> deleteArchive(archiveKey));
+    }
+  }
+
+  private void deleteArchive(String archiveKey) {
+    try {
+      archiveStore.delete(archiveKey);
+    } catch (IOException e) {
+      logger().warn(getLoggerPrefix("deleteArchive") + "Cannot delete archived content '"
+          + archiveKey + "' : " + e.getMessage());
+    }
+  }
+
+  /**
+   * Run once the current transaction, if any, has been rolled back
+   */
+  private void afterRollback(Runnable runnable) {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+        @Override
+        public void afterCompletion(int status) {
+          if (status == STATUS_ROLLED_BACK) {
+            runnable.run();
+          }
+        }
+      });
+    }
+  }
+
+  private void afterCommit(Runnable runnable) {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+        @Override
+        public void afterCommit() {
+          runnable.run();
+        }
+      });
+    } else {
+      runnable.run();
+    }
   }
 
   @Override
@@ -65,6 +418,115 @@ public class ResourceServiceImpl implements ResourceService, HasLogger {
     if (entity == null) {
       throw new EntityNotFoundException();
     }
-    return storedFileRepository.save(entity);
+    resourceMetrics.recordPayload("save", ResourceMetrics.DIRECTION_WRITTEN, entity);
+
+    StoredFile previous = entity.getId() == null ? null
+        : storedFileRepository.findMetadataById(entity.getId()).orElse(null);
+    if (previous != null) {
+      // The document is replaced as a whole, the fields managed by the server are kept
+      entity.setCreatedBy(previous.getCreatedBy());
+      entity.setCreated(previous.getCreated());
+      entity.setIsActive(previous.getIsActive());
+      entity.setDeleted(previous.getDeleted());
+      entity.setLastAccessed(previous.getLastAccessed());
+      entity.setAccessCount(previous.getAccessCount());
+    }
+    if (previous != null && entity.getContent() == null && entity.getContentPath() == null) {
+      // Metadata only update, keep the file backed or archived content
+      entity.setContentPath(previous.getContentPath());
+      entity.setOrginalContentPath(previous.getOrginalContentPath());
+      entity.setCrc32c(previous.getCrc32c());
+      entity.setSha256(previous.getSha256());
+      entity.setDetectedMimeType(previous.getDetectedMimeType());
+      entity.setCompressed(previous.getCompressed());
+      entity.setArchived(previous.getArchived());
+      entity.setArchiveKey(previous.getArchiveKey());
+    } else {
+      entity.setArchived(null);
+      entity.setArchiveKey(null);
+      if (previous != null && previous.getArchiveKey() != null) {
+        // Replaced by the new content
+        afterCommit(() -> deleteArchive(previous.getArchiveKey()));
+      }
+    }
+    // The upload endpoints check the quotas before receiving the content, saves of whole stored
+    // files here, a replaced stored file releasing its usage
+    storageUsageTracker.checkQuota(entity.getRelatedObjectClass(), entity.getRelatedObjectId(),
+        Math.max(0, entity.getFilesize()), previous);
+    if (entity.getContent() != null && entity.getCrc32c() == null) {
+      // Streamed uploads are digested as they are received, other contents here
+      ContentDigest.of(entity.getContent(), integrity.isSha256()).applyTo(entity);
+    }
+    boolean newContent = entity.getContent() != null;
+    if (newContent && previous != null && previous.getCrc32c() != null && previous.getCrc32c()
+        .equals(entity.getCrc32c())) {
+      // Same content saved again with the whole entity, it has already been inspected and
+      // optimised
+      newContent = false;
+      entity.setDetectedMimeType(previous.getDetectedMimeType());
+      entity.setCompressed(previous.getCompressed());
+    }
+    if (newContent && entity.getDetectedMimeType() == null) {
+      // Streamed uploads are inspected before being received, other contents here
+      contentInspector.inspect(entity, entity.getContent());
+    }
+    if (newContent && resourceMetrics.record("save", ResourceMetrics.STAGE_OPTIMIZE,
+        () -> imageOptimizer.optimize(entity))) {
+      ContentDigest.of(entity.getContent(), integrity.isSha256()).applyTo(entity);
+    }
+
+    byte[] content = entity.getContent();
+    byte[] orginalContent = entity.getOrginalContent();
+    boolean groupCommit = groupCommitter
+        .accepts(entity, ResourceMetrics.payloadSize(entity));
+    try {
+      contentStores.forWrite().write(entity);
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot write content of stored file : " + e.getMessage(),
+          e);
+    }
+    // The content files just written are orphans if the stored file is not persisted
+    StoredFile written = new StoredFile();
+    written.setId(entity.getId());
+    written.setContentPath(previous != null && Objects
+        .equals(previous.getContentPath(), entity.getContentPath()) ? null
+        : entity.getContentPath());
+    written.setOrginalContentPath(previous != null && Objects
+        .equals(previous.getOrginalContentPath(), entity.getOrginalContentPath()) ? null
+        : entity.getOrginalContentPath());
+    AtomicBoolean groupCommitted = new AtomicBoolean();
+    StoredFile result;
+    try {
+      result = resourceMetrics.record("save", ResourceMetrics.STAGE_PERSIST, () -> {
+        StoredFile inserted = groupCommit ? groupCommitter.insert(entity) : null;
+        groupCommitted.set(inserted != null);
+        return inserted != null ? inserted : storedFileRepository.save(entity);
+      });
+    } catch (RuntimeException e) {
+      deleteContent(written);
+      throw e;
+    }
+    if (!groupCommitted.get()) {
+      // Group commits are not part of the transaction, they outlive its rollback
+      afterRollback(() -> deleteContent(written));
+    }
+
+    if (previous != null && (!Objects.equals(previous.getContentPath(), result.getContentPath())
+        || !Objects.equals(previous.getOrginalContentPath(), result.getOrginalContentPath()))) {
+      StoredFile replaced = new StoredFile();
+      replaced.setId(previous.getId());
+      replaced.setContentPath(Objects.equals(previous.getContentPath(), result.getContentPath())
+          ? null : previous.getContentPath());
+      replaced.setOrginalContentPath(
+          Objects.equals(previous.getOrginalContentPath(), result.getOrginalContentPath())
+              ? null : previous.getOrginalContentPath());
+      afterCommit(() -> deleteContent(replaced));
+    }
+
+    staleReadCache.evict(result.getId());
+    afterCommit(() -> storageUsageTracker.record(previous, result));
+    result.setContent(content);
+    result.setOrginalContent(orginalContent);
+    return result;
   }
 }
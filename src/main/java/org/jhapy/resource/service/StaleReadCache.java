@@ -0,0 +1,136 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.metric.ResourceMetrics;
+import org.springframework.stereotype.Component;
+
+/**
+ * Byte bounded cache of the recently served stored files, only read when the database cannot
+ * answer.
+ * <p>
+ * Every stored file served by {@link ResourceService#getById(String)} is kept, least recently
+ * served first evicted, so the fallbacks of the protected reads can still serve it, possibly
+ * stale, while the database is slow or down. Stored files larger than the maximum entry size are
+ * not kept.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Component
+public class StaleReadCache {
+
+  private final boolean enabled;
+  private final long maxBytes;
+  private final long maxEntryBytes;
+
+  /**
+   * Stored files by id, in access order
+   */
+  private final LinkedHashMap<String, StoredFile> entries = new LinkedHashMap<>(64, 0.75f, true);
+  private long bytes;
+
+  private final MeterRegistry meterRegistry;
+
+  public StaleReadCache(ResourceServerProperties resourceServerProperties,
+      MeterRegistry meterRegistry) {
+    ResourceServerProperties.StaleCache staleCache = resourceServerProperties.getStaleCache();
+    this.enabled = staleCache.isEnabled();
+    this.maxBytes = staleCache.getMaxSize().toBytes();
+    this.maxEntryBytes = staleCache.getMaxEntrySize().toBytes();
+    this.meterRegistry = meterRegistry;
+
+    Gauge.builder("resource.stale.cache.bytes", this, c -> c.bytes)
+        .description("Size of the stored files kept to be served stale")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Keep a stored file just served, it must not be modified afterwards
+   */
+  public void put(StoredFile storedFile) {
+    if (!enabled || storedFile == null || storedFile.getId() == null) {
+      return;
+    }
+    long size = ResourceMetrics.payloadSize(storedFile);
+    synchronized (entries) {
+      StoredFile previous = entries.remove(storedFile.getId());
+      if (previous != null) {
+        bytes -= ResourceMetrics.payloadSize(previous);
+      }
+      if (size > maxEntryBytes) {
+        return;
+      }
+      entries.put(storedFile.getId(), storedFile);
+      bytes += size;
+      Iterator<Map.Entry<String, StoredFile>> iterator = entries.entrySet().iterator();
+      while (bytes > maxBytes && iterator.hasNext()) {
+        bytes -= ResourceMetrics.payloadSize(iterator.next().getValue());
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Forget a stored file which has been modified or deleted
+   */
+  public void evict(String id) {
+    if (!enabled || id == null) {
+      return;
+    }
+    synchronized (entries) {
+      StoredFile previous = entries.remove(id);
+      if (previous != null) {
+        bytes -= ResourceMetrics.payloadSize(previous);
+      }
+    }
+  }
+
+  /**
+   * A stored file to serve stale, counted as served or missed for this operation
+   *
+   * @return the last served version of the stored file, or <code>null</code> if it is not kept
+   */
+  public StoredFile getStale(String operation, String id) {
+    StoredFile storedFile = null;
+    if (enabled && id != null) {
+      synchronized (entries) {
+        storedFile = entries.get(id);
+      }
+    }
+    Counter.builder("resource.stale.reads")
+        .description("Reads answered by a fallback, by whether a stale stored file was served")
+        .tag(ResourceMetrics.TAG_OPERATION, operation)
+        .tag("result", storedFile == null ? "missed" : "served")
+        .register(meterRegistry)
+        .increment();
+    return storedFile;
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.service;
+
+import com.netflix.hystrix.HystrixCommand;
+import com.netflix.hystrix.HystrixCommandGroupKey;
+import com.netflix.hystrix.HystrixCommandKey;
+import com.netflix.hystrix.HystrixCommandProperties;
+import com.netflix.hystrix.HystrixThreadPoolKey;
+import com.netflix.hystrix.HystrixThreadPoolProperties;
+import com.netflix.hystrix.exception.HystrixBadRequestException;
+import com.netflix.hystrix.exception.HystrixRuntimeException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.exception.ContentIntegrityException;
+import org.jhapy.resource.exception.EntityNotFoundException;
+
+/**
+ * Load of a stored file in the bounded resourceRead thread pool, with a timeout, behind a circuit
+ * breaker.
+ * <p>
+ * Run once per coalesced load rather than once per caller, so a herd of readers of the same stored
+ * file holds a single thread of the pool. Not found and integrity failures are not failures of the
+ * database: they neither open the circuit nor fall back, and are thrown as is.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class StoredFileReadCommand extends HystrixCommand<StoredFile> {
+
+  private static final Setter SETTER = Setter
+      .withGroupKey(HystrixCommandGroupKey.Factory.asKey("resourceRead"))
+      .andCommandKey(HystrixCommandKey.Factory.asKey("getById"))
+      .andThreadPoolKey(HystrixThreadPoolKey.Factory.asKey("resourceRead"))
+      .andCommandPropertiesDefaults(HystrixCommandProperties.Setter()
+          .withExecutionTimeoutInMilliseconds(3000))
+      .andThreadPoolPropertiesDefaults(HystrixThreadPoolProperties.Setter()
+          .withCoreSize(40)
+          .withMaxQueueSize(100)
+          .withQueueSizeRejectionThreshold(100));
+
+  private final String id;
+  private final Function<String, StoredFile> loader;
+  private final BiFunction<String, Throwable, StoredFile> fallback;
+
+  private StoredFileReadCommand(String id, Function<String, StoredFile> loader,
+      BiFunction<String, Throwable, StoredFile> fallback) {
+    super(SETTER);
+    this.id = id;
+    this.loader = loader;
+    this.fallback = fallback;
+  }
+
+  /**
+   * @param loader loads the stored file, in the pool
+   * @param fallback serves the stored file when the load fails, times out or is rejected
+   */
+  static StoredFile load(String id, Function<String, StoredFile> loader,
+      BiFunction<String, Throwable, StoredFile> fallback) {
+    try {
+      return new StoredFileReadCommand(id, loader, fallback).execute();
+    } catch (HystrixBadRequestException | HystrixRuntimeException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  protected StoredFile run() {
+    try {
+      return loader.apply(id);
+    } catch (EntityNotFoundException | ContentIntegrityException e) {
+      throw new HystrixBadRequestException(e.getMessage(), e);
+    }
+  }
+
+  @Override
+  protected StoredFile getFallback() {
+    return fallback.apply(id, getExecutionException());
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.service;
+
+import java.io.InputStream;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.domain.UploadSession;
+
+/**
+ * Resumable chunked uploads: a session is opened for a file, its chunks are sent in any order,
+ * possibly in parallel and several times, then the session is committed to a {@link StoredFile}.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+public interface UploadSessionService {
+
+  /**
+   * Open an upload session
+   *
+   * @param uploadSession the file metadata, total size, chunk size and optional expected
+   * checksum
+   * @throws org.jhapy.resource.exception.QuotaExceededException if the file would exceed a
+   * storage quota
+   */
+  UploadSession open(UploadSession uploadSession);
+
+  /**
+   * @return the session with its received chunks, or <code>null</code> if it does not exist or
+   * has expired
+   */
+  UploadSession getById(String id);
+
+  /**
+   * Store a chunk of a session, replacing it if it was already received
+   *
+   * @param contentLength the declared length of the chunk, <code>-1</code> if unknown
+   */
+  UploadSession writeChunk(String id, int index, InputStream inputStream, long contentLength);
+
+  /**
+   * Assemble the chunks of a complete session, verify the checksum and save the stored file.
+   * Committing an already committed session returns the same stored file.
+   */
+  StoredFile commit(String id);
+
+  void abort(String id);
+}
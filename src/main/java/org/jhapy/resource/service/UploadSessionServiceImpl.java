@@ -0,0 +1,353 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import org.apache.commons.lang3.StringUtils;
+import org.bson.types.ObjectId;
+import org.jhapy.commons.utils.HasLogger;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.domain.UploadSession;
+import org.jhapy.resource.exception.EntityNotFoundException;
+import org.jhapy.resource.integrity.ContentDigest;
+import org.jhapy.resource.metric.ResourceMetrics;
+import org.jhapy.resource.repository.UploadSessionRepository;
+import org.jhapy.resource.transfer.ContentTransfer;
+import org.jhapy.resource.usage.StorageUsageTracker;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Chunks are staged as one file per chunk under a directory per session, so they can be received
+ * in parallel and re-sent without coordination. The session document only records which chunks
+ * have been received.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Service
+public class UploadSessionServiceImpl implements UploadSessionService, HasLogger {
+
+  private static final String CHUNK_SUFFIX = ".chunk";
+
+  private final UploadSessionRepository uploadSessionRepository;
+  private final ResourceService resourceService;
+  private final ResourceMetrics resourceMetrics;
+  private final ContentTransfer contentTransfer;
+  private final StorageUsageTracker storageUsageTracker;
+  private final ResourceServerProperties.Upload upload;
+  private final long maxUploadSize;
+  private final boolean sha256;
+  private final Path rootDirectory;
+
+  public UploadSessionServiceImpl(
+      UploadSessionRepository uploadSessionRepository,
+      ResourceService resourceService,
+      ResourceMetrics resourceMetrics,
+      ContentTransfer contentTransfer,
+      StorageUsageTracker storageUsageTracker,
+      ResourceServerProperties resourceServerProperties) {
+    this.uploadSessionRepository = uploadSessionRepository;
+    this.resourceService = resourceService;
+    this.resourceMetrics = resourceMetrics;
+    this.contentTransfer = contentTransfer;
+    this.storageUsageTracker = storageUsageTracker;
+    this.upload = resourceServerProperties.getUpload();
+    this.maxUploadSize = resourceServerProperties.getAdmission().getMaxUploadSize().toBytes();
+    this.sha256 = resourceServerProperties.getIntegrity().isSha256();
+    this.rootDirectory = Paths.get(upload.getDirectory()).toAbsolutePath().normalize();
+  }
+
+  @Override
+  public UploadSession open(UploadSession uploadSession) {
+    if (StringUtils.isBlank(uploadSession.getFilename())) {
+      throw new IllegalArgumentException("Filename is required");
+    }
+    long totalSize = uploadSession.getTotalSize();
+    if (totalSize <= 0 || totalSize > Math.min(maxUploadSize, Integer.MAX_VALUE - 8)) {
+      throw new IllegalArgumentException("Invalid total size : " + totalSize + " bytes");
+    }
+    long chunkSize = uploadSession.getChunkSize();
+    if (chunkSize < upload.getMinChunkSize().toBytes()
+        || chunkSize > upload.getMaxChunkSize().toBytes()) {
+      throw new IllegalArgumentException(
+          "Chunk size must be between " + upload.getMinChunkSize() + " and " + upload
+              .getMaxChunkSize());
+    }
+    if (uploadSession.getChecksum() != null && !uploadSession.getChecksum()
+        .matches("[0-9a-fA-F]{64}")) {
+      throw new IllegalArgumentException("Checksum must be an hex encoded SHA-256");
+    }
+    storageUsageTracker.checkQuota(uploadSession.getRelatedObjectClass(),
+        uploadSession.getRelatedObjectId(), totalSize);
+    uploadSession.setId(null);
+    uploadSession.setVersion(null);
+    uploadSession.setStoredFileId(null);
+    uploadSession.getReceivedChunks().clear();
+    uploadSession.setChunkCount((int) ((totalSize + chunkSize - 1) / chunkSize));
+    uploadSession.setExpiresAt(Instant.now().plus(upload.getSessionTimeout()));
+    return uploadSessionRepository.save(uploadSession);
+  }
+
+  @Override
+  public UploadSession getById(String id) {
+    if (id == null) {
+      return null;
+    }
+    return uploadSessionRepository.findById(id)
+        .filter(uploadSession -> uploadSession.getExpiresAt().isAfter(Instant.now()))
+        .orElse(null);
+  }
+
+  @Override
+  public UploadSession writeChunk(String id, int index, InputStream inputStream,
+      long contentLength) {
+    UploadSession uploadSession = getActiveSession(id);
+    if (uploadSession.getStoredFileId() != null) {
+      throw new IllegalStateException("Upload session '" + id + "' is already committed");
+    }
+    if (index < 0 || index >= uploadSession.getChunkCount()) {
+      throw new IllegalArgumentException("Invalid chunk index : " + index);
+    }
+    long expectedSize = chunkLength(uploadSession, index);
+    if (contentLength >= 0 && contentLength != expectedSize) {
+      throw new IllegalArgumentException(
+          "Chunk " + index + " must be " + expectedSize + " bytes, got " + contentLength);
+    }
+
+    long received = resourceMetrics.record("uploadChunk", ResourceMetrics.STAGE_RECEIVE,
+        () -> storeChunk(uploadSession, index, inputStream, expectedSize));
+    resourceMetrics.recordPayload("uploadChunk", ResourceMetrics.DIRECTION_WRITTEN,
+        uploadSession.getMimeType(), received);
+
+    Instant expiresAt = Instant.now().plus(upload.getSessionTimeout());
+    if (!uploadSessionRepository.addReceivedChunk(id, index, expiresAt)) {
+      throw new EntityNotFoundException("Upload session '" + id + "' not found");
+    }
+    uploadSession.getReceivedChunks().add(index);
+    uploadSession.setExpiresAt(expiresAt);
+    return uploadSession;
+  }
+
+  @Override
+  public StoredFile commit(String id) {
+    UploadSession uploadSession = getActiveSession(id);
+    if (uploadSession.getStoredFileId() != null) {
+      return committedFile(uploadSession);
+    }
+    if (uploadSession.getReceivedChunks().size() != uploadSession.getChunkCount()) {
+      throw new IllegalStateException(
+          "Upload session '" + id + "' is missing " + (uploadSession.getChunkCount()
+              - uploadSession.getReceivedChunks().size()) + " chunks");
+    }
+
+    String storedFileId = new ObjectId().toHexString();
+    if (!uploadSessionRepository.claimCommit(id, storedFileId)) {
+      return committedFile(getActiveSession(id));
+    }
+    try {
+      StoredFile storedFile = new StoredFile();
+      storedFile.setId(storedFileId);
+      storedFile.setFilename(uploadSession.getFilename());
+      storedFile.setMimeType(uploadSession.getMimeType());
+      storedFile.setRelatedObjectClass(uploadSession.getRelatedObjectClass());
+      storedFile.setRelatedObjectId(uploadSession.getRelatedObjectId());
+      ContentDigest contentDigest = new ContentDigest(
+          sha256 || uploadSession.getChecksum() != null);
+      storedFile.setContent(resourceMetrics.record("commitUpload", ResourceMetrics.STAGE_RECEIVE,
+          () -> assemble(uploadSession, contentDigest)));
+      storedFile.setFilesize(storedFile.getContent().length);
+      storedFile.setCrc32c(contentDigest.getCrc32c());
+      storedFile.setSha256(verifyChecksum(uploadSession, contentDigest));
+
+      StoredFile savedFile = resourceService.save(storedFile);
+      deleteChunks(id);
+      return savedFile;
+    } catch (RuntimeException e) {
+      uploadSessionRepository.releaseCommit(id, storedFileId);
+      throw e;
+    }
+  }
+
+  @Override
+  public void abort(String id) {
+    UploadSession uploadSession = uploadSessionRepository.findById(id)
+        .orElseThrow(() -> new EntityNotFoundException("Upload session '" + id + "' not found"));
+    uploadSessionRepository.delete(uploadSession);
+    deleteChunks(id);
+  }
+
+  @Scheduled(initialDelayString = "${jhapy.resource.upload.cleanup-interval:PT1H}",
+      fixedDelayString = "${jhapy.resource.upload.cleanup-interval:PT1H}")
+  public void deleteExpiredSessions() {
+    List<UploadSession> expiredSessions = uploadSessionRepository
+        .findByExpiresAtBefore(Instant.now());
+    for (UploadSession uploadSession : expiredSessions) {
+      uploadSessionRepository.delete(uploadSession);
+      deleteChunks(uploadSession.getId());
+    }
+    if (!expiredSessions.isEmpty()) {
+      logger().info(getLoggerPrefix("deleteExpiredSessions") + expiredSessions.size()
+          + " expired upload sessions deleted");
+    }
+  }
+
+  private UploadSession getActiveSession(String id) {
+    UploadSession uploadSession = getById(id);
+    if (uploadSession == null) {
+      throw new EntityNotFoundException("Upload session '" + id + "' not found");
+    }
+    return uploadSession;
+  }
+
+  private StoredFile committedFile(UploadSession uploadSession) {
+    StoredFile storedFile = resourceService
+        .getCurrentMetadataById(uploadSession.getStoredFileId());
+    if (storedFile == null) {
+      throw new IllegalStateException(
+          "Upload session '" + uploadSession.getId() + "' is being committed");
+    }
+    return storedFile;
+  }
+
+  private long chunkLength(UploadSession uploadSession, int index) {
+    return Math.min(uploadSession.getChunkSize(),
+        uploadSession.getTotalSize() - index * uploadSession.getChunkSize());
+  }
+
+  /**
+   * Write a chunk to a temporary file then move it in place, so a chunk file is always complete
+   */
+  private long storeChunk(UploadSession uploadSession, int index, InputStream inputStream,
+      long expectedSize) {
+    try {
+      Path chunkFile = chunkFile(uploadSession.getId(), index);
+      Files.createDirectories(chunkFile.getParent());
+      Path temporaryFile = Files.createTempFile(chunkFile.getParent(),
+          chunkFile.getFileName().toString(), ".tmp");
+      try {
+        long received;
+        try (FileChannel fileChannel = FileChannel
+            .open(temporaryFile, StandardOpenOption.WRITE)) {
+          received = contentTransfer
+              .copy(Channels.newChannel(inputStream), fileChannel, expectedSize);
+        }
+        if (received != expectedSize) {
+          throw new IllegalArgumentException(
+              "Chunk " + index + " must be " + expectedSize + " bytes, got " + received);
+        }
+        Files.move(temporaryFile, chunkFile, StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+        return received;
+      } finally {
+        Files.deleteIfExists(temporaryFile);
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e.getMessage(), e);
+    }
+  }
+
+  private byte[] assemble(UploadSession uploadSession, ContentDigest contentDigest) {
+    byte[] content = new byte[(int) uploadSession.getTotalSize()];
+    int offset = 0;
+    try {
+      for (int index = 0; index < uploadSession.getChunkCount(); index++) {
+        int length = (int) chunkLength(uploadSession, index);
+        try (FileChannel fileChannel = FileChannel
+            .open(chunkFile(uploadSession.getId(), index), StandardOpenOption.READ)) {
+          ByteBuffer buffer = ByteBuffer.wrap(content, offset, length);
+          while (buffer.hasRemaining()) {
+            if (fileChannel.read(buffer) < 0) {
+              throw new IllegalStateException("Chunk " + index + " is truncated");
+            }
+          }
+        }
+        contentDigest.update(content, offset, length);
+        offset += length;
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(
+          "Cannot read chunks of upload session '" + uploadSession.getId() + "'", e);
+    }
+    return content;
+  }
+
+  /**
+   * Check the SHA-256 of the assembled content against the one given when the session was opened
+   *
+   * @return the SHA-256 of the content, <code>null</code> if not computed
+   */
+  private String verifyChecksum(UploadSession uploadSession, ContentDigest contentDigest) {
+    String checksum = contentDigest.getSha256();
+    if (uploadSession.getChecksum() != null && !uploadSession.getChecksum()
+        .equalsIgnoreCase(checksum)) {
+      throw new IllegalArgumentException(
+          "Checksum mismatch for upload session '" + uploadSession.getId() + "' : expected "
+              + uploadSession.getChecksum() + ", got " + checksum);
+    }
+    return checksum;
+  }
+
+  private void deleteChunks(String id) {
+    Path sessionDirectory = sessionDirectory(id);
+    if (!Files.exists(sessionDirectory)) {
+      return;
+    }
+    try (Stream<Path> paths = Files.walk(sessionDirectory)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+        try {
+          Files.deleteIfExists(path);
+        } catch (IOException e) {
+          logger().warn(getLoggerPrefix("deleteChunks") + "Cannot delete '" + path + "' : " + e
+              .getMessage());
+        }
+      });
+    } catch (IOException e) {
+      logger().warn(getLoggerPrefix("deleteChunks") + "Cannot delete chunks of upload session '"
+          + id + "' : " + e.getMessage());
+    }
+  }
+
+  private Path chunkFile(String id, int index) {
+    return sessionDirectory(id).resolve(index + CHUNK_SUFFIX);
+  }
+
+  private Path sessionDirectory(String id) {
+    Path path = rootDirectory.resolve(id).normalize();
+    if (!path.getParent().equals(rootDirectory)) {
+      throw new IllegalArgumentException("Invalid upload session id : " + id);
+    }
+    return path;
+  }
+}
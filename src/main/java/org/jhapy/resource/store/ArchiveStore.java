@@ -0,0 +1,52 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.store;
+
+import java.io.IOException;
+
+/**
+ * Cold store holding the content of archived stored files.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+public interface ArchiveStore {
+
+  /**
+   * Store an archived content
+   *
+   * @param key the archive key, derived from the stored file id
+   * @param content the content, may be <code>null</code>
+   * @param originalContent the original content, may be <code>null</code>
+   */
+  void write(String key, byte[] content, byte[] originalContent) throws IOException;
+
+  /**
+   * @return the archived content, <code>null</code> if none was archived
+   */
+  byte[] readContent(String key) throws IOException;
+
+  /**
+   * @return the archived original content, <code>null</code> if none was archived
+   */
+  byte[] readOriginalContent(String key) throws IOException;
+
+  void delete(String key) throws IOException;
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.store;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import org.jhapy.resource.config.ResourceServerProperties.StoreType;
+import org.jhapy.resource.domain.StoredFile;
+
+/**
+ * Backend holding the binary content of the stored files, the metadata always being stored in
+ * the <code>storedFile</code> collection.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+public interface ContentStore {
+
+  StoreType getType();
+
+  /**
+   * @return <code>true</code> if the content of the stored file is held by this store
+   */
+  boolean holds(StoredFile storedFile);
+
+  /**
+   * Persist the content of a stored file before its document is saved. The store may move the
+   * content out of the document, replacing it by a reference.
+   */
+  void write(StoredFile storedFile) throws IOException;
+
+  /**
+   * Load the content of a stored file into its document
+   */
+  void read(StoredFile storedFile) throws IOException;
+
+  /**
+   * Copy the content of a stored file to a channel
+   *
+   * @return the number of bytes transferred
+   */
+  long transferTo(StoredFile storedFile, WritableByteChannel target) throws IOException;
+
+  /**
+   * Copy a range of the content of a stored file to a channel. Ranges are read independently, so
+   * several ranges of the same content can be transferred concurrently.
+   *
+   * @param position the offset of the first byte of the range
+   * @param count the length of the range
+   * @return the number of bytes transferred
+   */
+  long transferTo(StoredFile storedFile, WritableByteChannel target, long position, long count)
+      throws IOException;
+
+  /**
+   * @return the file holding the content of the stored file, or <code>null</code> if the content
+   * is not file backed
+   */
+  Path getContentFile(StoredFile storedFile);
+
+  /**
+   * Delete the content of a stored file, once its document has been deleted or now references
+   * another content
+   */
+  void delete(StoredFile storedFile) throws IOException;
+}
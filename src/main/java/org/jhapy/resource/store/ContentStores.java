@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.store;
+
+import java.util.List;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.domain.StoredFile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Select the {@link ContentStore} to write new content to, and the one holding the content of an
+ * existing stored file.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Component
+public class ContentStores {
+
+  private final List<ContentStore> contentStores;
+  private final ContentStore writeStore;
+
+  public ContentStores(List<ContentStore> contentStores,
+      ResourceServerProperties resourceServerProperties) {
+    this.contentStores = contentStores;
+    this.writeStore = contentStores.stream()
+        .filter(contentStore -> contentStore.getType() == resourceServerProperties.getStore()
+            .getType())
+        .findFirst()
+        .orElseThrow(() -> new IllegalStateException(
+            "No content store of type " + resourceServerProperties.getStore().getType()));
+  }
+
+  public ContentStore forWrite() {
+    return writeStore;
+  }
+
+  public ContentStore forRead(StoredFile storedFile) {
+    return contentStores.stream().filter(contentStore -> contentStore.holds(storedFile))
+        .findFirst().orElse(writeStore);
+  }
+}
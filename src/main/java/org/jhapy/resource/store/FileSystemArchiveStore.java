@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.store;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import org.jhapy.commons.utils.HasLogger;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@link ArchiveStore} writing archived content to a local (or network mounted) directory.
+ * <p>
+ * Files are spread over two levels of sub-directories taken from the end of the key, which is the
+ * most variable part of a Mongo generated id, and are written atomically through a temporary
+ * file.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Component
+public class FileSystemArchiveStore implements ArchiveStore, HasLogger {
+
+  private static final String CONTENT_SUFFIX = ".content";
+  private static final String ORIGINAL_CONTENT_SUFFIX = ".original";
+
+  private final Path rootDirectory;
+
+  public FileSystemArchiveStore(ResourceServerProperties resourceServerProperties) {
+    this.rootDirectory = Paths.get(resourceServerProperties.getArchive().getDirectory());
+  }
+
+  @Override
+  public void write(String key, byte[] content, byte[] originalContent) throws IOException {
+    Path directory = directory(key);
+    Files.createDirectories(directory);
+    if (content != null) {
+      writeAtomically(directory.resolve(key + CONTENT_SUFFIX), content);
+    }
+    if (originalContent != null) {
+      writeAtomically(directory.resolve(key + ORIGINAL_CONTENT_SUFFIX), originalContent);
+    }
+  }
+
+  @Override
+  public byte[] readContent(String key) throws IOException {
+    return read(directory(key).resolve(key + CONTENT_SUFFIX));
+  }
+
+  @Override
+  public byte[] readOriginalContent(String key) throws IOException {
+    return read(directory(key).resolve(key + ORIGINAL_CONTENT_SUFFIX));
+  }
+
+  @Override
+  public void delete(String key) throws IOException {
+    Path directory = directory(key);
+    Files.deleteIfExists(directory.resolve(key + CONTENT_SUFFIX));
+    Files.deleteIfExists(directory.resolve(key + ORIGINAL_CONTENT_SUFFIX));
+  }
+
+  private byte[] read(Path path) throws IOException {
+    if (!Files.exists(path)) {
+      return null;
+    }
+    return Files.readAllBytes(path);
+  }
+
+  private void writeAtomically(Path path, byte[] data) throws IOException {
+    Path temporaryFile = Files.createTempFile(path.getParent(), path.getFileName().toString(),
+        ".tmp");
+    try {
+      Files.write(temporaryFile, data);
+      Files.move(temporaryFile, path, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporaryFile);
+    }
+  }
+
+  private Path directory(String key) {
+    if (!key.matches("[A-Za-z0-9_-]+")) {
+      throw new IllegalArgumentException("Invalid archive key : " + key);
+    }
+    if (key.length() < 4) {
+      return rootDirectory;
+    }
+    int length = key.length();
+    return rootDirectory.resolve(key.substring(length - 2))
+        .resolve(key.substring(length - 4, length - 2));
+  }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.store;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import org.jhapy.commons.utils.HasLogger;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.config.ResourceServerProperties.StoreType;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.transfer.ContentTransfer;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@link ContentStore} writing the content to a sharded directory tree on a local or network file
+ * system, the document only keeping the relative path of the files.
+ * <p>
+ * Content files are immutable: every write creates new files, so a path can be safely cached and
+ * served while the document is updated. Small files are read through a bounded cache of memory
+ * mappings, large ones are transferred with {@link FileChannel#transferTo(long, long,
+ * WritableByteChannel)} or, when read ahead is enabled, with several block reads in flight so a
+ * high latency file system does not stall a sequential stream.
+ * <p>
+ * The bound of the mapping cache is approximate: the JDK offers no way to unmap a buffer, an
+ * evicted or deleted mapping is only released once it is garbage collected, and may still be in
+ * use by a reader meanwhile. The mapped memory can exceed <code>mmap-cache-size</code> until the
+ * next collections.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Component
+public class FileSystemContentStore implements ContentStore, HasLogger {
+
+  private static final String CONTENT_SUFFIX = ".content";
+  private static final String ORIGINAL_CONTENT_SUFFIX = ".original";
+
+  private final Path rootDirectory;
+  private final long mmapThreshold;
+  private final long mmapCacheSize;
+  private final int readAheadBlocks;
+  private final ContentTransfer contentTransfer;
+
+  /**
+   * Memory mapped small files, in access order
+   */
+  private final LinkedHashMap<Path, MappedByteBuffer> mappedFiles = new LinkedHashMap<>(64,
+      0.75f, true);
+  private volatile long mappedBytes;
+
+  public FileSystemContentStore(ResourceServerProperties resourceServerProperties,
+      ContentTransfer contentTransfer, MeterRegistry meterRegistry) {
+    ResourceServerProperties.Store store = resourceServerProperties.getStore();
+    this.rootDirectory = Paths.get(store.getDirectory()).toAbsolutePath().normalize();
+    this.mmapThreshold = store.getMmapThreshold().toBytes();
+    this.mmapCacheSize = store.getMmapCacheSize().toBytes();
+    this.readAheadBlocks = store.getReadAheadBlocks();
+    this.contentTransfer = contentTransfer;
+
+    Gauge.builder("resource.store.mapped.bytes", this, s -> s.mappedBytes)
+        .description("Size of the memory mapped content files")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+  }
+
+  @Override
+  public StoreType getType() {
+    return StoreType.FILESYSTEM;
+  }
+
+  @Override
+  public boolean holds(StoredFile storedFile) {
+    return storedFile.getContentPath() != null;
+  }
+
+  @Override
+  public void write(StoredFile storedFile) throws IOException {
+    if (storedFile.getContent() == null && storedFile.getOrginalContent() == null) {
+      return;
+    }
+    String basePath = basePath(storedFile.getId());
+    if (storedFile.getContent() != null) {
+      storedFile.setContentPath(writeFile(basePath + CONTENT_SUFFIX, storedFile.getContent()));
+      storedFile.setContent(null);
+    }
+    if (storedFile.getOrginalContent() != null) {
+      storedFile.setOrginalContentPath(
+          writeFile(basePath + ORIGINAL_CONTENT_SUFFIX, storedFile.getOrginalContent()));
+      storedFile.setOrginalContent(null);
+    }
+  }
+
+  @Override
+  public void read(StoredFile storedFile) throws IOException {
+    if (storedFile.getContentPath() != null) {
+      storedFile.setContent(readFile(resolve(storedFile.getContentPath())));
+    }
+    if (storedFile.getOrginalContentPath() != null) {
+      storedFile.setOrginalContent(readFile(resolve(storedFile.getOrginalContentPath())));
+    }
+  }
+
+  @Override
+  public long transferTo(StoredFile storedFile, WritableByteChannel target) throws IOException {
+    return transferTo(storedFile, target, 0, Long.MAX_VALUE);
+  }
+
+  @Override
+  public long transferTo(StoredFile storedFile, WritableByteChannel target, long position,
+      long count) throws IOException {
+    if (storedFile.getContentPath() == null) {
+      return 0;
+    }
+    Path path = resolve(storedFile.getContentPath());
+    MappedByteBuffer mappedFile = mappedFile(path);
+    if (mappedFile != null) {
+      if (position >= mappedFile.capacity()) {
+        return 0;
+      }
+      ByteBuffer buffer = mappedFile.duplicate();
+      buffer.position((int) position);
+      buffer.limit((int) rangeEnd(mappedFile.capacity(), position, count));
+      long total = 0;
+      while (buffer.hasRemaining()) {
+        total += target.write(buffer);
+      }
+      return total;
+    }
+    if (readAheadBlocks > 1) {
+      try (AsynchronousFileChannel fileChannel = AsynchronousFileChannel
+          .open(path, StandardOpenOption.READ)) {
+        long end = rangeEnd(fileChannel.size(), position, count);
+        return end <= position ? 0
+            : contentTransfer.copy(fileChannel, position, end - position, target, readAheadBlocks);
+      }
+    }
+    try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long end = rangeEnd(fileChannel.size(), position, count);
+      long current = position;
+      while (current < end) {
+        current += fileChannel.transferTo(current, end - current, target);
+      }
+      return Math.max(0, current - position);
+    }
+  }
+
+  @Override
+  public Path getContentFile(StoredFile storedFile) {
+    return storedFile.getContentPath() == null ? null : resolve(storedFile.getContentPath());
+  }
+
+  @Override
+  public void delete(StoredFile storedFile) throws IOException {
+    if (storedFile.getContentPath() != null) {
+      deleteFile(resolve(storedFile.getContentPath()));
+    }
+    if (storedFile.getOrginalContentPath() != null) {
+      deleteFile(resolve(storedFile.getOrginalContentPath()));
+    }
+  }
+
+  private String writeFile(String relativePath, byte[] data) throws IOException {
+    Path path = resolve(relativePath);
+    Files.createDirectories(path.getParent());
+    Path temporaryFile = Files.createTempFile(path.getParent(), path.getFileName().toString(),
+        ".tmp");
+    try {
+      try (FileChannel fileChannel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+        contentTransfer.write(data, fileChannel);
+        fileChannel.force(false);
+      }
+      Files.move(temporaryFile, path, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporaryFile);
+    }
+    return relativePath;
+  }
+
+  private byte[] readFile(Path path) throws IOException {
+    MappedByteBuffer mappedFile = mappedFile(path);
+    if (mappedFile != null) {
+      byte[] data = new byte[mappedFile.capacity()];
+      mappedFile.duplicate().get(data);
+      return data;
+    }
+    return Files.readAllBytes(path);
+  }
+
+  private void deleteFile(Path path) throws IOException {
+    synchronized (mappedFiles) {
+      MappedByteBuffer mappedFile = mappedFiles.remove(path);
+      if (mappedFile != null) {
+        mappedBytes -= mappedFile.capacity();
+      }
+    }
+    Files.deleteIfExists(path);
+  }
+
+  /**
+   * @return the cached mapping of a small file, or <code>null</code> if the file is too large to
+   * be mapped
+   */
+  private MappedByteBuffer mappedFile(Path path) throws IOException {
+    synchronized (mappedFiles) {
+      MappedByteBuffer mappedFile = mappedFiles.get(path);
+      if (mappedFile != null) {
+        return mappedFile;
+      }
+    }
+    try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = fileChannel.size();
+      if (size > mmapThreshold || size == 0) {
+        return null;
+      }
+      MappedByteBuffer mappedFile = fileChannel.map(MapMode.READ_ONLY, 0, size);
+      synchronized (mappedFiles) {
+        MappedByteBuffer existing = mappedFiles.putIfAbsent(path, mappedFile);
+        if (existing != null) {
+          return existing;
+        }
+        mappedBytes += size;
+        Iterator<Map.Entry<Path, MappedByteBuffer>> iterator = mappedFiles.entrySet().iterator();
+        // Evicted mappings stay mapped until they are garbage collected
+        while (mappedBytes > mmapCacheSize && iterator.hasNext()) {
+          Map.Entry<Path, MappedByteBuffer> eldest = iterator.next();
+          if (eldest.getValue() != mappedFile) {
+            mappedBytes -= eldest.getValue().capacity();
+            iterator.remove();
+          }
+        }
+      }
+      return mappedFile;
+    }
+  }
+
+  private static long rangeEnd(long size, long position, long count) {
+    return count >= size - position ? size : position + count;
+  }
+
+  private Path resolve(String relativePath) {
+    Path path = rootDirectory.resolve(relativePath).normalize();
+    if (!path.startsWith(rootDirectory)) {
+      throw new IllegalArgumentException("Invalid content path : " + relativePath);
+    }
+    return path;
+  }
+
+  /**
+   * A new, unique, base path for the files of a stored file, spread over two levels of
+   * directories
+   */
+  private String basePath(String id) {
+    String name = (id == null ? "" : id.replaceAll("[^A-Za-z0-9_-]", "") + "-") + UUID
+        .randomUUID().toString();
+    String hash = String.format("%08x", name.hashCode());
+    return hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + name;
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.store;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import org.jhapy.resource.config.ResourceServerProperties.StoreType;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.transfer.ContentTransfer;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@link ContentStore} keeping the content inline in the <code>storedFile</code> document.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Component
+public class MongoContentStore implements ContentStore {
+
+  private final ContentTransfer contentTransfer;
+
+  public MongoContentStore(ContentTransfer contentTransfer) {
+    this.contentTransfer = contentTransfer;
+  }
+
+  @Override
+  public StoreType getType() {
+    return StoreType.MONGO;
+  }
+
+  @Override
+  public boolean holds(StoredFile storedFile) {
+    return storedFile.getContentPath() == null;
+  }
+
+  @Override
+  public void write(StoredFile storedFile) {
+    // The content is saved with the document
+  }
+
+  @Override
+  public void read(StoredFile storedFile) {
+    // The content is loaded with the document
+  }
+
+  @Override
+  public long transferTo(StoredFile storedFile, WritableByteChannel target) throws IOException {
+    if (storedFile.getContent() == null) {
+      return 0;
+    }
+    return contentTransfer.write(storedFile.getContent(), target);
+  }
+
+  @Override
+  public long transferTo(StoredFile storedFile, WritableByteChannel target, long position,
+      long count) throws IOException {
+    byte[] content = storedFile.getContent();
+    if (content == null || position >= content.length) {
+      return 0;
+    }
+    return contentTransfer.write(content, (int) position,
+        (int) Math.min(count, content.length - position), target);
+  }
+
+  @Override
+  public Path getContentFile(StoredFile storedFile) {
+    return null;
+  }
+
+  @Override
+  public void delete(StoredFile storedFile) {
+    // The content is deleted with the document
+  }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.transfer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.jhapy.resource.integrity.ContentDigest;
+import org.jhapy.resource.transfer.DirectBufferPool.Lease;
+import org.springframework.stereotype.Component;
+
+/**
+ * Copy content between the clients and the store without intermediate heap buffers.
+ * <p>
+ * When the size is known the content is read straight into an array of the exact size. Otherwise
+ * it is accumulated in pooled direct buffers and copied once into an array of the exact size,
+ * instead of growing (and discarding) arrays like a <code>ByteArrayOutputStream</code> does.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Component
+public class ContentTransfer {
+
+  private final DirectBufferPool directBufferPool;
+
+  public ContentTransfer(DirectBufferPool directBufferPool) {
+    this.directBufferPool = directBufferPool;
+  }
+
+  /**
+   * Read the whole stream
+   *
+   * @param contentLength the expected length, or a negative value if unknown
+   * @param maxLength the maximum number of bytes accepted
+   */
+  public byte[] read(InputStream inputStream, long contentLength, long maxLength)
+      throws IOException {
+    return read(inputStream, contentLength, maxLength, null);
+  }
+
+  /**
+   * Read the whole stream, digesting the bytes as they are received
+   *
+   * @param contentDigest the digest to update, may be <code>null</code>
+   */
+  public byte[] read(InputStream inputStream, long contentLength, long maxLength,
+      ContentDigest contentDigest) throws IOException {
+    if (contentLength > maxLength || contentLength > Integer.MAX_VALUE - 8) {
+      throw new IOException("Content too large : " + contentLength + " bytes");
+    }
+    if (contentLength >= 0) {
+      return readKnownLength(inputStream, (int) contentLength, contentDigest);
+    }
+    return readUnknownLength(Channels.newChannel(inputStream),
+        Math.min(maxLength, Integer.MAX_VALUE - 8), contentDigest);
+  }
+
+  /**
+   * Write content to the client in bounded slices, without copying it
+   */
+  public long write(byte[] content, OutputStream outputStream) throws IOException {
+    return write(content, 0, content.length, outputStream);
+  }
+
+  /**
+   * Write a range of the content to the client in bounded slices, without copying it
+   */
+  public long write(byte[] content, int offset, int length, OutputStream outputStream)
+      throws IOException {
+    int sliceSize = directBufferPool.getBufferSize();
+    int end = offset + length;
+    for (int position = offset; position < end; position += sliceSize) {
+      outputStream.write(content, position, Math.min(sliceSize, end - position));
+    }
+    return length;
+  }
+
+  /**
+   * Copy a channel to another one through a pooled direct buffer
+   */
+  public long copy(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+    long total = 0;
+    try (Lease lease = directBufferPool.acquire()) {
+      ByteBuffer buffer = lease.buffer();
+      while (in.read(buffer) >= 0) {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          total += out.write(buffer);
+        }
+        buffer.clear();
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Copy a channel to another one through a pooled direct buffer, failing as soon as more than
+   * <code>maxLength</code> bytes have been read
+   */
+  public long copy(ReadableByteChannel in, WritableByteChannel out, long maxLength)
+      throws IOException {
+    long total = 0;
+    try (Lease lease = directBufferPool.acquire()) {
+      ByteBuffer buffer = lease.buffer();
+      int read;
+      while ((read = in.read(buffer)) >= 0) {
+        if (total + read > maxLength) {
+          throw new IOException("Content too large : more than " + maxLength + " bytes");
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          total += out.write(buffer);
+        }
+        buffer.clear();
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Write content to a channel through a pooled direct buffer, writing a large heap buffer
+   * directly would make the JDK allocate (and cache per thread) a temporary direct buffer of the
+   * same size
+   */
+  public long write(byte[] content, WritableByteChannel out) throws IOException {
+    return write(content, 0, content.length, out);
+  }
+
+  /**
+   * Write a range of the content to a channel through a pooled direct buffer
+   */
+  public long write(byte[] content, int offset, int length, WritableByteChannel out)
+      throws IOException {
+    try (Lease lease = directBufferPool.acquire()) {
+      ByteBuffer buffer = lease.buffer();
+      int position = offset;
+      int end = offset + length;
+      while (position < end) {
+        int sliceLength = Math.min(buffer.capacity(), end - position);
+        buffer.clear();
+        buffer.put(content, position, sliceLength);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          out.write(buffer);
+        }
+        position += sliceLength;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Copy a range of a file to a channel, keeping up to <code>readAhead</code> block reads in
+   * flight so the next blocks are fetched from the storage while the current one is written
+   *
+   * @return the number of bytes transferred, less than <code>count</code> if the file is shorter
+   */
+  public long copy(AsynchronousFileChannel in, long position, long count, WritableByteChannel out,
+      int readAhead) throws IOException {
+    Deque<BlockRead> blockReads = new ArrayDeque<>();
+    long end = position + count;
+    long nextPosition = position;
+    long total = 0;
+    try {
+      while (true) {
+        while (blockReads.size() < Math.max(1, readAhead) && nextPosition < end) {
+          BlockRead blockRead = new BlockRead(directBufferPool.acquire(), nextPosition);
+          blockRead.buffer().limit((int) Math.min(blockRead.buffer().capacity(),
+              end - nextPosition));
+          blockReads.addLast(blockRead);
+          blockRead.read(in);
+          nextPosition += blockRead.buffer().limit();
+        }
+        BlockRead blockRead = blockReads.pollFirst();
+        if (blockRead == null) {
+          return total;
+        }
+        try (Lease ignored = blockRead.lease) {
+          boolean endOfFile = !blockRead.complete(in);
+          ByteBuffer buffer = blockRead.buffer();
+          buffer.flip();
+          while (buffer.hasRemaining()) {
+            total += out.write(buffer);
+          }
+          if (endOfFile) {
+            return total;
+          }
+        }
+      }
+    } finally {
+      // Buffers can only go back to the pool once no read is writing to them anymore
+      for (BlockRead blockRead : blockReads) {
+        blockRead.await();
+        blockRead.lease.close();
+      }
+    }
+  }
+
+  private byte[] readKnownLength(InputStream inputStream, int contentLength,
+      ContentDigest contentDigest) throws IOException {
+    byte[] content = new byte[contentLength];
+    int offset = 0;
+    while (offset < contentLength) {
+      int read = inputStream.read(content, offset, contentLength - offset);
+      if (read < 0) {
+        throw new EOFException(
+            "Content truncated : " + offset + " bytes read, " + contentLength + " expected");
+      }
+      if (contentDigest != null) {
+        contentDigest.update(content, offset, read);
+      }
+      offset += read;
+    }
+    return content;
+  }
+
+  private byte[] readUnknownLength(ReadableByteChannel in, long maxLength,
+      ContentDigest contentDigest) throws IOException {
+    List<Lease> leases = new ArrayList<>();
+    try {
+      long total = 0;
+      Lease current = null;
+      while (true) {
+        if (current == null || !current.buffer().hasRemaining()) {
+          current = directBufferPool.acquire();
+          leases.add(current);
+        }
+        int position = current.buffer().position();
+        int read = in.read(current.buffer());
+        if (read < 0) {
+          break;
+        }
+        if (contentDigest != null && read > 0) {
+          ByteBuffer received = current.buffer().duplicate();
+          received.position(position).limit(position + read);
+          contentDigest.update(received);
+        }
+        total += read;
+        if (total > maxLength) {
+          throw new IOException("Content too large : more than " + maxLength + " bytes");
+        }
+      }
+      byte[] content = new byte[(int) total];
+      int offset = 0;
+      for (Lease lease : leases) {
+        ByteBuffer buffer = lease.buffer();
+        buffer.flip();
+        int length = buffer.remaining();
+        buffer.get(content, offset, length);
+        offset += length;
+      }
+      return content;
+    } finally {
+      leases.forEach(Lease::close);
+    }
+  }
+
+  /**
+   * A block of a file being read into a pooled buffer
+   */
+  private static class BlockRead {
+
+    private final Lease lease;
+    private final long position;
+    private Future<Integer> pending;
+
+    BlockRead(Lease lease, long position) {
+      this.lease = lease;
+      this.position = position;
+    }
+
+    ByteBuffer buffer() {
+      return lease.buffer();
+    }
+
+    void read(AsynchronousFileChannel in) {
+      pending = in.read(buffer(), position + buffer().position());
+    }
+
+    /**
+     * Wait for the block to be fully read, reading the rest after a short read
+     *
+     * @return <code>false</code> if the end of the file has been reached
+     */
+    boolean complete(AsynchronousFileChannel in) throws IOException {
+      while (true) {
+        int read;
+        try {
+          read = pending.get();
+        } catch (InterruptedException e) {
+          await();
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while reading at " + position);
+        } catch (ExecutionException e) {
+          throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+              : new IOException(e.getCause());
+        }
+        if (read < 0) {
+          return false;
+        }
+        if (!buffer().hasRemaining()) {
+          return true;
+        }
+        read(in);
+      }
+    }
+
+    /**
+     * Wait for the pending read without being interrupted, so the buffer can be released
+     */
+    void await() {
+      if (pending == null) {
+        return;
+      }
+      boolean interrupted = false;
+      while (true) {
+        try {
+          pending.get();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          // Failed reads are not written anyway
+          break;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.transfer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.lang.ref.Cleaner;
+import java.lang.ref.Cleaner.Cleanable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jhapy.commons.utils.HasLogger;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Pool of reusable direct {@link ByteBuffer}s of a fixed size used on the transfer path.
+ * <p>
+ * Buffers are leased with {@link #acquire()} and must be released by closing the lease. When
+ * leak detection is enabled, a lease garbage collected without having been closed is reported and
+ * its buffer is dropped rather than recycled, as it may still be referenced.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Component
+public class DirectBufferPool implements HasLogger {
+
+  private static final Cleaner CLEANER = Cleaner.create();
+
+  private final int bufferSize;
+  private final int maxPooledBuffers;
+  private final boolean leakDetection;
+
+  private final ConcurrentLinkedDeque<ByteBuffer> pool = new ConcurrentLinkedDeque<>();
+  private final AtomicInteger pooled = new AtomicInteger();
+  private final AtomicInteger leased = new AtomicInteger();
+  private final AtomicLong allocations = new AtomicLong();
+
+  private final Counter leakCounter;
+
+  public DirectBufferPool(ResourceServerProperties resourceServerProperties,
+      MeterRegistry meterRegistry) {
+    ResourceServerProperties.BufferPool bufferPool = resourceServerProperties.getBufferPool();
+    this.bufferSize = (int) bufferPool.getBufferSize().toBytes();
+    this.maxPooledBuffers = bufferPool.getMaxPooledBuffers();
+    this.leakDetection = bufferPool.isLeakDetection();
+
+    Gauge.builder("resource.buffer.pool.buffers", pooled, AtomicInteger::get)
+        .description("Direct buffers in the pool")
+        .tag("state", "idle")
+        .register(meterRegistry);
+    Gauge.builder("resource.buffer.pool.buffers", leased, AtomicInteger::get)
+        .description("Direct buffers in the pool")
+        .tag("state", "leased")
+        .register(meterRegistry);
+    Gauge.builder("resource.buffer.pool.memory", this,
+        p -> (double) (p.pooled.get() + p.leased.get()) * p.bufferSize)
+        .description("Direct memory held by the pool")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+    FunctionCounter.builder("resource.buffer.pool.allocations", allocations, AtomicLong::get)
+        .description("Direct buffers allocated because the pool was empty")
+        .register(meterRegistry);
+    leakCounter = Counter.builder("resource.buffer.pool.leaks")
+        .description("Leased buffers garbage collected without having been released")
+        .register(meterRegistry);
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  /**
+   * Lease a cleared buffer, allocating a new one if the pool is empty
+   */
+  public Lease acquire() {
+    ByteBuffer buffer = pool.pollFirst();
+    if (buffer == null) {
+      buffer = ByteBuffer.allocateDirect(bufferSize);
+      allocations.incrementAndGet();
+    } else {
+      pooled.decrementAndGet();
+      buffer.clear();
+    }
+    leased.incrementAndGet();
+    return new Lease(this, buffer);
+  }
+
+  private void release(ByteBuffer buffer) {
+    leased.decrementAndGet();
+    if (pooled.incrementAndGet() <= maxPooledBuffers) {
+      pool.offerFirst(buffer);
+    } else {
+      pooled.decrementAndGet();
+    }
+  }
+
+  private void leaked() {
+    leased.decrementAndGet();
+    leakCounter.increment();
+    logger().warn(getLoggerPrefix("leaked") + "Direct buffer garbage collected without having "
+        + "been released, check that every lease is closed");
+  }
+
+  /**
+   * A leased buffer, to be used in a try-with-resources block
+   */
+  public static class Lease implements AutoCloseable {
+
+    private final ByteBuffer buffer;
+    private final LeaseState state;
+    private final Cleanable cleanable;
+
+    private Lease(DirectBufferPool bufferPool, ByteBuffer buffer) {
+      this.buffer = buffer;
+      this.state = new LeaseState(bufferPool);
+      this.cleanable = bufferPool.leakDetection ? CLEANER.register(this, state) : null;
+    }
+
+    public ByteBuffer buffer() {
+      return buffer;
+    }
+
+    @Override
+    public void close() {
+      if (state.released) {
+        return;
+      }
+      state.released = true;
+      if (cleanable != null) {
+        cleanable.clean();
+      }
+      state.bufferPool.release(buffer);
+    }
+  }
+
+  /**
+   * Cleaning action of a lease, it must not reference the lease itself nor its buffer
+   */
+  private static class LeaseState implements Runnable {
+
+    private final DirectBufferPool bufferPool;
+    private volatile boolean released;
+
+    private LeaseState(DirectBufferPool bufferPool) {
+      this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public void run() {
+      if (!released) {
+        released = true;
+        bufferPool.leaked();
+      }
+    }
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.transfer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.jhapy.commons.utils.HasLogger;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.config.ResourceServerProperties.Admission;
+import org.jhapy.resource.exception.TransferRejectedException;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+/**
+ * Bounded-concurrency admission control for uploads and downloads.
+ * <p>
+ * Transfers up to {@link Admission#getLargeTransferThreshold()} go through the small lane, only
+ * bounded by a number of concurrent transfers and never queued behind large ones. Larger transfers
+ * go through the large lane, bounded both by the number of concurrent transfers and by the total
+ * number of payload bytes in flight. A large transfer waits in a bounded queue for at most {@link
+ * Admission#getQueueTimeout()} and is then rejected with a {@link TransferRejectedException}.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Component
+public class TransferAdmissionController implements HasLogger {
+
+  private static final String PERMITS_ATTRIBUTE =
+      TransferAdmissionController.class.getName() + ".permits";
+
+  private final Admission admission;
+
+  private final Semaphore smallLane;
+
+  private final ReentrantLock largeLaneLock = new ReentrantLock(true);
+  private final Condition largeLaneReleased = largeLaneLock.newCondition();
+
+  private volatile long largeInFlightBytes;
+  private volatile int largeInFlightTransfers;
+  private volatile int largeQueuedTransfers;
+
+  private final Counter rejectedSmallCounter;
+  private final Counter rejectedLargeCounter;
+
+  public TransferAdmissionController(ResourceServerProperties resourceServerProperties,
+      MeterRegistry meterRegistry) {
+    this.admission = resourceServerProperties.getAdmission();
+    this.smallLane = new Semaphore(admission.getMaxConcurrentSmallTransfers());
+
+    Gauge.builder("resource.admission.inflight.bytes", this, c -> c.largeInFlightBytes)
+        .description("Payload bytes in flight in the large transfer lane")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+    Gauge.builder("resource.admission.inflight.transfers", this, c -> c.largeInFlightTransfers)
+        .description("Transfers in flight per lane")
+        .tag("lane", "large")
+        .register(meterRegistry);
+    Gauge.builder("resource.admission.inflight.transfers", smallLane,
+        s -> admission.getMaxConcurrentSmallTransfers() - s.availablePermits())
+        .description("Transfers in flight per lane")
+        .tag("lane", "small")
+        .register(meterRegistry);
+    Gauge.builder("resource.admission.queue.size", this, c -> c.largeQueuedTransfers)
+        .description("Large transfers waiting for admission")
+        .register(meterRegistry);
+    rejectedSmallCounter = Counter.builder("resource.admission.rejected")
+        .tag("lane", "small")
+        .register(meterRegistry);
+    rejectedLargeCounter = Counter.builder("resource.admission.rejected")
+        .tag("lane", "large")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Admit a transfer of the given size, waiting if needed
+   *
+   * @param bytes the expected payload size, if unknown (negative) the transfer is considered
+   * large
+   * @return a permit to close once the transfer is completed
+   * @throws TransferRejectedException if the transfer cannot be admitted in time
+   */
+  public Permit admit(long bytes) {
+    if (!admission.isEnabled()) {
+      return Permit.NONE;
+    }
+    if (bytes >= 0 && bytes <= admission.getLargeTransferThreshold().toBytes()) {
+      return admitSmall();
+    }
+    return admitLarge(
+        bytes < 0 ? admission.getLargeTransferThreshold().toBytes() : bytes);
+  }
+
+  /**
+   * Admit a transfer and bind the permit to the current request, it is released by the {@link
+   * TransferAdmissionFilter} once the response has been written
+   */
+  public void admitForCurrentRequest(long bytes) {
+    Permit permit = admit(bytes);
+    if (permit == Permit.NONE) {
+      return;
+    }
+    RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+    if (requestAttributes == null) {
+      permit.close();
+      return;
+    }
+    Permit previous = (Permit) requestAttributes
+        .getAttribute(PERMITS_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+    requestAttributes.setAttribute(PERMITS_ATTRIBUTE, permit.chain(previous),
+        RequestAttributes.SCOPE_REQUEST);
+  }
+
+  static String permitsAttribute() {
+    return PERMITS_ATTRIBUTE;
+  }
+
+  public Admission getAdmission() {
+    return admission;
+  }
+
+  private Permit admitSmall() {
+    if (!smallLane.tryAcquire()) {
+      rejectedSmallCounter.increment();
+      throw new TransferRejectedException("Too many concurrent transfers",
+          admission.getRetryAfter());
+    }
+    return new Permit(smallLane::release);
+  }
+
+  private Permit admitLarge(long bytes) {
+    long maxInFlightBytes = admission.getMaxInFlightBytes().toBytes();
+    largeLaneLock.lock();
+    try {
+      if (largeQueuedTransfers >= admission.getMaxQueuedLargeTransfers()
+          && !canAdmitLarge(bytes, maxInFlightBytes)) {
+        rejectedLargeCounter.increment();
+        throw new TransferRejectedException("Too many large transfers waiting",
+            admission.getRetryAfter());
+      }
+      long remainingNanos = admission.getQueueTimeout().toNanos();
+      largeQueuedTransfers++;
+      try {
+        while (!canAdmitLarge(bytes, maxInFlightBytes)) {
+          if (remainingNanos <= 0L) {
+            rejectedLargeCounter.increment();
+            throw new TransferRejectedException("Large transfer not admitted in time",
+                admission.getRetryAfter());
+          }
+          remainingNanos = largeLaneReleased.awaitNanos(remainingNanos);
+        }
+      } finally {
+        largeQueuedTransfers--;
+      }
+      largeInFlightTransfers++;
+      largeInFlightBytes += bytes;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TransferRejectedException("Interrupted while waiting for admission",
+          admission.getRetryAfter());
+    } finally {
+      largeLaneLock.unlock();
+    }
+    return new Permit(() -> releaseLarge(bytes));
+  }
+
+  /**
+   * A transfer larger than the whole budget is still admitted when nothing else is in flight,
+   * otherwise it would never be served
+   */
+  private boolean canAdmitLarge(long bytes, long maxInFlightBytes) {
+    if (largeInFlightTransfers >= admission.getMaxConcurrentLargeTransfers()) {
+      return false;
+    }
+    return largeInFlightTransfers == 0 || largeInFlightBytes + bytes <= maxInFlightBytes;
+  }
+
+  private void releaseLarge(long bytes) {
+    largeLaneLock.lock();
+    try {
+      largeInFlightTransfers--;
+      largeInFlightBytes -= bytes;
+      largeLaneReleased.signalAll();
+    } finally {
+      largeLaneLock.unlock();
+    }
+  }
+
+  /**
+   * An admitted transfer, closing it more than once has no effect
+   */
+  public static class Permit implements AutoCloseable {
+
+    static final Permit NONE = new Permit(() -> {
+    });
+
+    private final Runnable release;
+    private Permit next;
+    private boolean closed;
+
+    Permit(Runnable release) {
+      this.release = release;
+    }
+
+    Permit chain(Permit next) {
+      this.next = next;
+      return this;
+    }
+
+    @Override
+    public synchronized void close() {
+      if (!closed) {
+        closed = true;
+        release.run();
+      }
+      if (next != null) {
+        next.close();
+      }
+    }
+  }
+}
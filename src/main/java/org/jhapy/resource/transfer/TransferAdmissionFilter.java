@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jhapy.resource.transfer;
+
+import java.io.IOException;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.jhapy.commons.utils.HasLogger;
+import org.jhapy.resource.exception.TransferRejectedException;
+import org.jhapy.resource.transfer.TransferAdmissionController.Permit;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Admit uploads (and upload chunks) on their declared <code>Content-Length</code> before the body is read, and release
+ * every permit bound to the request (uploads and downloads) once the response has been written.
+ * <p>
+ * Uploads without a <code>Content-Length</code> (chunked) are admitted in the large lane, charged
+ * at the maximum upload size.
+ * <p>
+ * Only the upload endpoints are admitted here: the other requests have small bodies, and the
+ * downloads are admitted by the endpoints on their payload size, a permit taken on the request
+ * body would hold a small lane slot for the whole download.
+ */
+public class TransferAdmissionFilter extends OncePerRequestFilter implements HasLogger {
+
+  private static final PathMatcher PATH_MATCHER = new AntPathMatcher();
+
+  private static final String[] UPLOAD_PATHS = {"/resourceService/save",
+      "/resourceService/content", "/resourceService/uploads/*/chunks/*"};
+
+  private final TransferAdmissionController transferAdmissionController;
+
+  public TransferAdmissionFilter(TransferAdmissionController transferAdmissionController) {
+    this.transferAdmissionController = transferAdmissionController;
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+      FilterChain filterChain) throws ServletException, IOException {
+    Permit uploadPermit = null;
+    try {
+      long contentLength = request.getContentLengthLong();
+      if (isUpload(request) && contentLength != 0) {
+        // A body of unknown length is charged as the largest upload accepted
+        uploadPermit = transferAdmissionController.admit(contentLength < 0
+            ? transferAdmissionController.getAdmission().getMaxUploadSize().toBytes()
+            : contentLength);
+      }
+    } catch (TransferRejectedException e) {
+      reject(request, response, e);
+      return;
+    }
+
+    try {
+      filterChain.doFilter(request, response);
+    } finally {
+      if (uploadPermit != null) {
+        uploadPermit.close();
+      }
+      Permit permits = (Permit) request
+          .getAttribute(TransferAdmissionController.permitsAttribute());
+      if (permits != null) {
+        permits.close();
+      }
+    }
+  }
+
+  private boolean isUpload(HttpServletRequest request) {
+    if (!HttpMethod.POST.matches(request.getMethod()) && !HttpMethod.PUT
+        .matches(request.getMethod())) {
+      return false;
+    }
+    String path = request.getRequestURI().substring(request.getContextPath().length());
+    for (String uploadPath : UPLOAD_PATHS) {
+      if (PATH_MATCHER.match(uploadPath, path)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public static void reject(HttpServletRequest request, HttpServletResponse response,
+      TransferRejectedException e) throws IOException {
+    response.setHeader(HttpHeaders.RETRY_AFTER,
+        String.valueOf(Math.max(1, e.getRetryAfter().getSeconds())));
+    response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), e.getMessage());
+  }
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.usage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.MultiGauge.Row;
+import io.micrometer.core.instrument.Tags;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
+import org.jhapy.commons.utils.HasLogger;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.config.ResourceServerProperties.Quota;
+import org.jhapy.resource.domain.StorageUsage;
+import org.jhapy.resource.domain.StorageUsage.Dimension;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.exception.QuotaExceededException;
+import org.jhapy.resource.repository.StorageUsageRepository;
+import org.springframework.data.domain.AuditorAware;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Storage used per related object class, related object and creator, kept up to date without a
+ * collection scan.
+ * <p>
+ * Every committed save or delete of a stored file is recorded as a change of the usages of its
+ * owners, aggregated in memory and flushed to the <code>storageUsage</code> collection in bulk
+ * <code>$inc</code> upserts at a short interval, so concurrent uploads to the same owner do not
+ * contend on the same document. Increments lost in a crash or a failed flush are corrected by the
+ * periodic reconciliation with the stored files. Quotas are checked before an upload is received,
+ * against the flushed usages plus the changes of this instance not flushed yet.
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@Component
+public class StorageUsageTracker implements HasLogger {
+
+  private static final int METRICS_MAX_CLASSES = 100;
+
+  private final StorageUsageRepository storageUsageRepository;
+  private final AuditorAware<String> auditorAware;
+  private final ResourceServerProperties.Usage usage;
+  private final MeterRegistry meterRegistry;
+
+  private final ConcurrentHashMap<String, PendingUsage> pendingUsages = new ConcurrentHashMap<>();
+
+  private final MultiGauge bytesGauge;
+  private final MultiGauge filesGauge;
+  private final Counter flushFailedCounter;
+
+  public StorageUsageTracker(StorageUsageRepository storageUsageRepository,
+      AuditorAware<String> auditorAware, ResourceServerProperties resourceServerProperties,
+      MeterRegistry meterRegistry) {
+    this.storageUsageRepository = storageUsageRepository;
+    this.auditorAware = auditorAware;
+    this.usage = resourceServerProperties.getUsage();
+    this.meterRegistry = meterRegistry;
+
+    Gauge.builder("resource.storage.pending", pendingUsages, Map::size)
+        .description("Storage usages with changes waiting to be flushed")
+        .register(meterRegistry);
+    bytesGauge = MultiGauge.builder("resource.storage.bytes")
+        .description("Content bytes of the active stored files, per related object class")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+    filesGauge = MultiGauge.builder("resource.storage.files")
+        .description("Active stored files, per related object class")
+        .register(meterRegistry);
+    flushFailedCounter = Counter.builder("resource.storage.flush.failed")
+        .description("Storage usage changes not flushed, left to the reconciliation")
+        .register(meterRegistry);
+  }
+
+  public boolean isEnabled() {
+    return usage.isEnabled();
+  }
+
+  /**
+   * Record a committed change of a stored file
+   *
+   * @param removed the stored file as it was before the change, <code>null</code> if it was
+   * created
+   * @param added the stored file after the change, <code>null</code> if it was deleted
+   */
+  public void record(StoredFile removed, StoredFile added) {
+    if (!usage.isEnabled()) {
+      return;
+    }
+    if (removed != null && !Boolean.FALSE.equals(removed.getIsActive())) {
+      add(removed.getRelatedObjectClass(), removed.getRelatedObjectId(), removed.getCreatedBy(),
+          -Math.max(0, removed.getFilesize()), -1);
+    }
+    if (added != null && !Boolean.FALSE.equals(added.getIsActive())) {
+      add(added.getRelatedObjectClass(), added.getRelatedObjectId(), added.getCreatedBy(),
+          Math.max(0, added.getFilesize()), 1);
+    }
+  }
+
+  /**
+   * Check that a new content of the current user for a related object fits in the quotas
+   *
+   * @param bytes the size of the content, 0 if not known yet
+   * @throws QuotaExceededException if a quota would be exceeded
+   */
+  public void checkQuota(String relatedObjectClass, Long relatedObjectId, long bytes) {
+    checkQuota(relatedObjectClass, relatedObjectId, bytes, null);
+  }
+
+  /**
+   * Check that a new content for a related object fits in the quotas, the usage of the stored file
+   * it replaces being released
+   *
+   * @param bytes the size of the content, 0 if not known yet
+   * @param replaced the stored file replaced, which keeps its creator, or <code>null</code> for a
+   * new stored file
+   * @throws QuotaExceededException if a quota would be exceeded
+   */
+  public void checkQuota(String relatedObjectClass, Long relatedObjectId, long bytes,
+      StoredFile replaced) {
+    if (!usage.isEnabled()) {
+      return;
+    }
+    Map<String, Long> released = new HashMap<>();
+    if (replaced != null && !Boolean.FALSE.equals(replaced.getIsActive())) {
+      owners(replaced.getRelatedObjectClass(), replaced.getRelatedObjectId(),
+          replaced.getCreatedBy())
+          .forEach(id -> released.put(id, Math.max(0, replaced.getFilesize())));
+    }
+
+    Map<String, Quota> quotas = new LinkedHashMap<>();
+    if (relatedObjectClass != null) {
+      putQuota(quotas, usage.getQuotas().getRelatedObjectClass().get(relatedObjectClass),
+          Dimension.RELATED_OBJECT_CLASS, relatedObjectClass);
+      if (relatedObjectId != null) {
+        putQuota(quotas, usage.getQuotas().getRelatedObject().get(relatedObjectClass),
+            Dimension.RELATED_OBJECT,
+            StorageUsage.relatedObject(relatedObjectClass, relatedObjectId));
+      }
+    }
+    String createdBy = replaced != null ? replaced.getCreatedBy()
+        : auditorAware.getCurrentAuditor().orElse(null);
+    if (createdBy != null) {
+      putQuota(quotas, usage.getQuotas().getCreatedBy(), Dimension.CREATED_BY, createdBy);
+    }
+    if (quotas.isEmpty()) {
+      return;
+    }
+
+    Map<String, StorageUsage> usages = getUsages(quotas.keySet());
+    quotas.forEach((id, quota) -> {
+      StorageUsage storageUsage = usages.get(id);
+      // Only a growing usage is rejected, an owner over its quota can still replace its files
+      long addedBytes = bytes - released.getOrDefault(id, 0L);
+      long addedFiles = released.containsKey(id) ? 0 : 1;
+      if (quota.getMaxBytes() != null && addedBytes > 0
+          && storageUsage.getBytes() + addedBytes > quota.getMaxBytes().toBytes()
+          || quota.getMaxFiles() != null && addedFiles > 0
+          && storageUsage.getFiles() + addedFiles > quota.getMaxFiles()) {
+        Counter.builder("resource.storage.quota.rejected")
+            .description("Uploads rejected because they would exceed a storage quota")
+            .tag("dimension", storageUsage.getDimension().name())
+            .register(meterRegistry)
+            .increment();
+        throw new QuotaExceededException(
+            "Storage quota of '" + storageUsage.getOwner() + "' exceeded : " + storageUsage
+                .getBytes() + " bytes in " + storageUsage.getFiles() + " files");
+      }
+    });
+  }
+
+  /**
+   * @return the usages of the given owners, including the changes not flushed yet, in the order
+   * of the ids. Unknown owners have an empty usage
+   */
+  public List<StorageUsage> getUsages(Dimension dimension, List<String> owners) {
+    Map<String, StorageUsage> usages = getUsages(owners.stream()
+        .map(owner -> StorageUsage.id(dimension, owner)).collect(Collectors.toList()));
+    return new ArrayList<>(usages.values());
+  }
+
+  /**
+   * @return the largest usages of a dimension, as flushed
+   */
+  public List<StorageUsage> getLargest(Dimension dimension, int limit) {
+    return storageUsageRepository
+        .findByDimensionOrderByBytesDesc(dimension, PageRequest.of(0, limit));
+  }
+
+  @Scheduled(initialDelayString = "${jhapy.resource.usage.flush-interval:PT5S}",
+      fixedDelayString = "${jhapy.resource.usage.flush-interval:PT5S}")
+  @PreDestroy
+  public void flush() {
+    if (pendingUsages.isEmpty()) {
+      return;
+    }
+    Map<String, StorageUsage> deltas = new HashMap<>();
+    for (String id : new ArrayList<>(pendingUsages.keySet())) {
+      PendingUsage pendingUsage = pendingUsages.remove(id);
+      if (pendingUsage != null) {
+        StorageUsage delta = pendingUsage.toStorageUsage(id);
+        if (delta.getBytes() != 0 || delta.getFiles() != 0) {
+          deltas.put(id, delta);
+        }
+      }
+    }
+    try {
+      storageUsageRepository.add(deltas);
+    } catch (Exception e) {
+      flushFailedCounter.increment(deltas.size());
+      logger().warn(getLoggerPrefix("flush") + "Cannot flush " + deltas.size()
+          + " storage usage changes : " + e.getMessage());
+    }
+  }
+
+  /**
+   * Recompute the usages from the stored files, correcting the drift of lost increments
+   */
+  @Scheduled(cron = "${jhapy.resource.usage.reconcile-cron:0 30 4 * * *}")
+  public void reconcile() {
+    if (!usage.isEnabled()) {
+      return;
+    }
+    String loggerPrefix = getLoggerPrefix("reconcile");
+    flush();
+    Instant startedAt = Instant.now();
+    for (Dimension dimension : Dimension.values()) {
+      try {
+        long corrected = storageUsageRepository.reconcile(dimension, startedAt);
+        Counter.builder("resource.storage.reconciled")
+            .description("Storage usages corrected by the reconciliation")
+            .tag("dimension", dimension.name())
+            .register(meterRegistry)
+            .increment(corrected);
+        logger().info(loggerPrefix + corrected + " " + dimension + " storage usages corrected");
+      } catch (Exception e) {
+        logger().error(loggerPrefix + "Cannot reconcile " + dimension + " storage usages : " + e
+            .getMessage(), e);
+      }
+    }
+  }
+
+  /**
+   * Refresh the usage metrics of the largest related object classes
+   */
+  @Scheduled(initialDelayString = "${jhapy.resource.usage.metrics-interval:PT1M}",
+      fixedDelayString = "${jhapy.resource.usage.metrics-interval:PT1M}")
+  public void refreshMetrics() {
+    if (!usage.isEnabled()) {
+      return;
+    }
+    try {
+      List<StorageUsage> usages = getLargest(Dimension.RELATED_OBJECT_CLASS,
+          METRICS_MAX_CLASSES);
+      bytesGauge.register(usages.stream()
+          .map(u -> Row.of(Tags.of("relatedObjectClass", u.getOwner()), u.getBytes()))
+          .collect(Collectors.toList()), true);
+      filesGauge.register(usages.stream()
+          .map(u -> Row.of(Tags.of("relatedObjectClass", u.getOwner()), u.getFiles()))
+          .collect(Collectors.toList()), true);
+    } catch (Exception e) {
+      logger().warn(getLoggerPrefix("refreshMetrics") + "Cannot refresh storage usage metrics : "
+          + e.getMessage());
+    }
+  }
+
+  private void add(String relatedObjectClass, Long relatedObjectId, String createdBy,
+      long bytes, long files) {
+    if (relatedObjectClass != null) {
+      pending(Dimension.RELATED_OBJECT_CLASS, relatedObjectClass).add(bytes, files);
+      if (relatedObjectId != null) {
+        pending(Dimension.RELATED_OBJECT,
+            StorageUsage.relatedObject(relatedObjectClass, relatedObjectId)).add(bytes, files);
+      }
+    }
+    if (createdBy != null) {
+      pending(Dimension.CREATED_BY, createdBy).add(bytes, files);
+    }
+  }
+
+  /**
+   * @return the ids of the usages a stored file is counted in
+   */
+  private static List<String> owners(String relatedObjectClass, Long relatedObjectId,
+      String createdBy) {
+    List<String> owners = new ArrayList<>();
+    if (relatedObjectClass != null) {
+      owners.add(StorageUsage.id(Dimension.RELATED_OBJECT_CLASS, relatedObjectClass));
+      if (relatedObjectId != null) {
+        owners.add(StorageUsage.id(Dimension.RELATED_OBJECT,
+            StorageUsage.relatedObject(relatedObjectClass, relatedObjectId)));
+      }
+    }
+    if (createdBy != null) {
+      owners.add(StorageUsage.id(Dimension.CREATED_BY, createdBy));
+    }
+    return owners;
+  }
+
+  private PendingUsage pending(Dimension dimension, String owner) {
+    return pendingUsages.computeIfAbsent(StorageUsage.id(dimension, owner),
+        id -> new PendingUsage(dimension, owner));
+  }
+
+  private void putQuota(Map<String, Quota> quotas, Quota quota, Dimension dimension,
+      String owner) {
+    if (quota != null && (quota.getMaxBytes() != null || quota.getMaxFiles() != null)) {
+      quotas.put(StorageUsage.id(dimension, owner), quota);
+    }
+  }
+
+  private Map<String, StorageUsage> getUsages(Iterable<String> ids) {
+    Map<String, StorageUsage> usages = new LinkedHashMap<>();
+    ids.forEach(id -> usages.put(id, null));
+    storageUsageRepository.findAllById(ids)
+        .forEach(storageUsage -> usages.put(storageUsage.getId(), storageUsage));
+    usages.replaceAll((id, storageUsage) -> {
+      if (storageUsage == null) {
+        int separator = id.indexOf(':');
+        storageUsage = new StorageUsage();
+        storageUsage.setId(id);
+        storageUsage.setDimension(Dimension.valueOf(id.substring(0, separator)));
+        storageUsage.setOwner(id.substring(separator + 1));
+      }
+      PendingUsage pendingUsage = pendingUsages.get(id);
+      if (pendingUsage != null) {
+        storageUsage.setBytes(storageUsage.getBytes() + pendingUsage.bytes.sum());
+        storageUsage.setFiles(storageUsage.getFiles() + pendingUsage.files.sum());
+      }
+      return storageUsage;
+    });
+    return usages;
+  }
+
+  private static class PendingUsage {
+
+    private final Dimension dimension;
+    private final String owner;
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder files = new LongAdder();
+
+    PendingUsage(Dimension dimension, String owner) {
+      this.dimension = dimension;
+      this.owner = owner;
+    }
+
+    void add(long bytes, long files) {
+      this.bytes.add(bytes);
+      this.files.add(files);
+    }
+
+    StorageUsage toStorageUsage(String id) {
+      StorageUsage storageUsage = new StorageUsage();
+      storageUsage.setId(id);
+      storageUsage.setDimension(dimension);
+      storageUsage.setOwner(owner);
+      storageUsage.setBytes(bytes.sum());
+      storageUsage.setFiles(files.sum());
+      return storageUsage;
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.access;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Map;
+import org.jhapy.resource.access.AccessTracker.HotResource;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.repository.StoredFileRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class AccessTrackerTest {
+
+  private StoredFileRepository storedFileRepository;
+  private AccessTracker accessTracker;
+
+  @BeforeEach
+  void setUp() {
+    ResourceServerProperties resourceServerProperties = new ResourceServerProperties();
+    resourceServerProperties.getAccess().setTopSize(2);
+    storedFileRepository = mock(StoredFileRepository.class);
+    accessTracker = new AccessTracker(storedFileRepository, resourceServerProperties,
+        new SimpleMeterRegistry());
+  }
+
+  @Test
+  void topListKeepsTheHottestFilesHottestFirst() {
+    access("warm", 3);
+    access("cold", 1);
+    access("hot", 5);
+
+    assertThat(accessTracker.getHottest()).extracting(HotResource::getId)
+        .containsExactly("hot", "warm");
+    assertThat(accessTracker.getHottest().get(0).getAccesses()).isEqualTo(5);
+    // Counted from its entry in the top list, once hotter than the coldest file
+    assertThat(accessTracker.getHottest().get(0).getBytes()).isEqualTo(40);
+    assertThat(accessTracker.getHottest().get(1).getBytes()).isEqualTo(30);
+  }
+
+  @Test
+  void decayAgesTheTopListAndDropsTheColdFiles() {
+    access("hot", 4);
+    access("once", 1);
+
+    accessTracker.decay();
+
+    assertThat(accessTracker.getHottest()).extracting(HotResource::getId)
+        .containsExactly("hot");
+    assertThat(accessTracker.getHottest().get(0).getAccesses()).isEqualTo(2);
+    assertThat(accessTracker.estimate("hot")).isEqualTo(2);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void flushWritesOneAggregatePerFile() {
+    access("a", 3);
+    access("b", 1);
+
+    accessTracker.flush();
+
+    ArgumentCaptor<Map<String, AccessAggregate>> aggregates = ArgumentCaptor.forClass(Map.class);
+    verify(storedFileRepository).recordAccesses(aggregates.capture());
+    assertThat(aggregates.getValue()).containsOnlyKeys("a", "b");
+    assertThat(aggregates.getValue().get("a").getCount()).isEqualTo(3);
+  }
+
+  @Test
+  void nothingIsFlushedWithoutAccesses() {
+    accessTracker.flush();
+
+    verify(storedFileRepository, never()).recordAccesses(anyMap());
+  }
+
+  private void access(String id, int times) {
+    for (int i = 0; i < times; i++) {
+      accessTracker.recordAccess(id, 10);
+    }
+  }
+}
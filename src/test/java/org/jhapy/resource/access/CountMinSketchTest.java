@@ -0,0 +1,93 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.access;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class CountMinSketchTest {
+
+  @Test
+  void countsAKeyExactlyWithoutCollisions() {
+    CountMinSketch sketch = new CountMinSketch(1024, 4);
+
+    sketch.add("a", 3);
+    assertThat(sketch.add("a", 2)).isEqualTo(5);
+    assertThat(sketch.estimate("a")).isEqualTo(5);
+    assertThat(sketch.estimate("unknown")).isZero();
+  }
+
+  @Test
+  void neverUnderCounts() {
+    CountMinSketch sketch = new CountMinSketch(16, 2);
+    for (int i = 0; i < 1000; i++) {
+      sketch.add("key-" + i, i % 7 + 1);
+    }
+
+    for (int i = 0; i < 1000; i++) {
+      assertThat(sketch.estimate("key-" + i)).isGreaterThanOrEqualTo(i % 7 + 1);
+    }
+  }
+
+  @Test
+  void overCountsWithinTheBoundOnAWideSketch() {
+    CountMinSketch sketch = new CountMinSketch(4096, 4);
+    long total = 0;
+    for (int i = 0; i < 1000; i++) {
+      sketch.add("key-" + i, 10);
+      total += 10;
+    }
+    sketch.add("hot", 500);
+
+    // e / width of the total, with a large margin for the hashing of a small sample
+    assertThat(sketch.estimate("hot")).isBetween(500L, 500L + 4 * total * 3 / 4096);
+  }
+
+  @Test
+  void decayHalvesTheCounts() {
+    CountMinSketch sketch = new CountMinSketch(1024, 4);
+    sketch.add("a", 9);
+    sketch.add("b", 1);
+
+    sketch.decay();
+
+    assertThat(sketch.estimate("a")).isEqualTo(4);
+    assertThat(sketch.estimate("b")).isZero();
+  }
+
+  @Test
+  void widthIsRoundedToAPowerOfTwoAndDepthIsBounded() {
+    CountMinSketch sketch = new CountMinSketch(1000, 1);
+    sketch.add("a", 1);
+    assertThat(sketch.estimate("a")).isEqualTo(1);
+
+    assertThatThrownBy(() -> new CountMinSketch(1024, 0))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> new CountMinSketch(1024, 9))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.TaggableReadPreference;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class DatabaseConfigurationTest {
+
+  private final DatabaseConfiguration databaseConfiguration = new DatabaseConfiguration();
+  private final MongoDatabaseFactory dbFactory = mock(MongoDatabaseFactory.class);
+  private final MongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE,
+      new MongoMappingContext());
+
+  private ResourceServerProperties resourceServerProperties;
+
+  @BeforeEach
+  void setUp() {
+    resourceServerProperties = new ResourceServerProperties();
+  }
+
+  @Test
+  void metadataReadsAreBoundedInStaleness() {
+    resourceServerProperties.getMetadataReads().setMaxStaleness(Duration.ofMinutes(2));
+
+    ReadPreference readPreference = databaseConfiguration
+        .metadataMongoTemplate(dbFactory, converter, resourceServerProperties)
+        .getReadPreference();
+
+    assertThat(readPreference.getName()).isEqualTo("secondaryPreferred");
+    assertThat(((TaggableReadPreference) readPreference).getMaxStaleness(TimeUnit.SECONDS))
+        .isEqualTo(120L);
+  }
+
+  @Test
+  void metadataReadsCanStayOnThePrimary() {
+    resourceServerProperties.getMetadataReads().setReadPreference("primary");
+    resourceServerProperties.getMetadataReads().setMaxStaleness(Duration.ZERO);
+
+    assertThat(databaseConfiguration
+        .metadataMongoTemplate(dbFactory, converter, resourceServerProperties)
+        .getReadPreference()).isEqualTo(ReadPreference.primary());
+  }
+
+  @Test
+  void maxStalenessUnderTheServerMinimumIsRejected() {
+    resourceServerProperties.getMetadataReads().setMaxStaleness(Duration.ofSeconds(30));
+
+    assertThatThrownBy(() -> databaseConfiguration
+        .metadataMongoTemplate(dbFactory, converter, resourceServerProperties))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.config.changelogs;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import com.github.cloudyrock.mongock.driver.mongodb.springdata.v3.decorator.impl.MongockTemplate;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class InitialValuesChangeLogTest {
+
+  private static final Document IS_MASTER = new Document("isMaster", 1);
+
+  private final InitialValuesChangeLog changeLog = new InitialValuesChangeLog();
+
+  private MongockTemplate mongoTemplate;
+  private MongoClient mongoClient;
+  private MongoDatabase admin;
+  private MongoDatabase database;
+  private MockEnvironment environment;
+
+  @BeforeEach
+  void setUp() {
+    mongoTemplate = mock(MongockTemplate.class);
+    mongoClient = mock(MongoClient.class);
+    admin = mock(MongoDatabase.class);
+    database = mock(MongoDatabase.class);
+    environment = new MockEnvironment();
+
+    when(mongoClient.getDatabase("admin")).thenReturn(admin);
+    when(mongoTemplate.getDb()).thenReturn(database);
+    when(database.getName()).thenReturn("resource");
+  }
+
+  @Test
+  void doesNotShardWhenShardingIsDisabled() {
+    changeLog.shardStoredFile(mongoTemplate, mongoClient, environment);
+
+    verifyNoInteractions(mongoClient);
+  }
+
+  @Test
+  void doesNotShardWithoutMongos() {
+    environment.setProperty("jhapy.resource.sharding.enabled", "true");
+    when(admin.runCommand(IS_MASTER)).thenReturn(new Document("ismaster", true));
+
+    changeLog.shardStoredFile(mongoTemplate, mongoClient, environment);
+
+    verify(admin).runCommand(IS_MASTER);
+    verify(admin, never()).runCommand(new Document("enableSharding", "resource"));
+    verify(database, never()).runCommand(any(Bson.class));
+  }
+
+  @Test
+  void shardsOnTheHashedIdThroughMongos() {
+    environment.setProperty("jhapy.resource.sharding.enabled", "true");
+    when(admin.runCommand(IS_MASTER)).thenReturn(new Document("msg", "isdbgrid"));
+    when(database.runCommand(new Document("collStats", "storedFile")))
+        .thenReturn(new Document("sharded", false));
+
+    changeLog.shardStoredFile(mongoTemplate, mongoClient, environment);
+
+    verify(admin).runCommand(new Document("enableSharding", "resource"));
+    verify(admin).runCommand(new Document("shardCollection", "resource.storedFile")
+        .append("key", new Document("_id", "hashed")));
+  }
+
+  @Test
+  void doesNotShardAgainAnAlreadyShardedCollection() {
+    environment.setProperty("jhapy.resource.sharding.enabled", "true");
+    when(admin.runCommand(IS_MASTER)).thenReturn(new Document("msg", "isdbgrid"));
+    when(database.runCommand(new Document("collStats", "storedFile")))
+        .thenReturn(new Document("sharded", true));
+
+    changeLog.shardStoredFile(mongoTemplate, mongoClient, environment);
+
+    verify(admin, never()).runCommand(new Document("enableSharding", "resource"));
+  }
+}
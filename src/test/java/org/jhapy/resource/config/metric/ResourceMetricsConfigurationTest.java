@@ -0,0 +1,158 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.config.metric;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.util.Random;
+import lombok.Data;
+import org.jhapy.resource.metric.ResourceMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractJackson2HttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.http.MockHttpInputMessage;
+import org.springframework.mock.http.MockHttpOutputMessage;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class ResourceMetricsConfigurationTest {
+
+  private static final MediaType SMILE = MediaType.valueOf("application/x-jackson-smile");
+  private static final MediaType CBOR = MediaType.valueOf("application/cbor");
+
+  private final ResourceMetricsConfiguration configuration = new ResourceMetricsConfiguration();
+
+  private MeterRegistry meterRegistry;
+  private ResourceMetrics resourceMetrics;
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    resourceMetrics = new ResourceMetrics(meterRegistry);
+  }
+
+  @AfterEach
+  void tearDown() {
+    RequestContextHolder.resetRequestAttributes();
+  }
+
+  @Test
+  void binaryEncodingsCarryTheContentRaw() throws IOException {
+    Payload payload = payload(3000);
+
+    byte[] json = write(configuration.mappingJackson2HttpMessageConverter(
+        Jackson2ObjectMapperBuilder.json().build(), resourceMetrics), payload,
+        MediaType.APPLICATION_JSON);
+    byte[] smile = write(smileConverter(), payload, SMILE);
+    byte[] cbor = write(cborConverter(), payload, CBOR);
+
+    // Base64 takes 4 bytes for every 3 content bytes
+    assertThat(json.length).isGreaterThan(4000);
+    assertThat(smile.length).isLessThan(3100);
+    assertThat(cbor.length).isLessThan(3100);
+  }
+
+  @Test
+  void binaryEncodingsRoundTrip() throws IOException {
+    Payload payload = payload(100);
+
+    assertThat(read(smileConverter(), write(smileConverter(), payload, SMILE), SMILE))
+        .isEqualTo(payload);
+    assertThat(read(cborConverter(), write(cborConverter(), payload, CBOR), CBOR))
+        .isEqualTo(payload);
+  }
+
+  @Test
+  void boundResponsesAreMeasured() throws IOException {
+    RequestContextHolder
+        .setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+    ResourceMetrics.bindOperation("getById", "application/pdf");
+
+    byte[] smile = write(smileConverter(), payload(1000), SMILE);
+
+    assertThat(meterRegistry.get(ResourceMetrics.RESPONSE_SUMMARY)
+        .tag(ResourceMetrics.TAG_OPERATION, "getById").summary().totalAmount())
+        .isEqualTo(smile.length);
+    assertThat(meterRegistry.get(ResourceMetrics.OPERATION_TIMER)
+        .tag(ResourceMetrics.TAG_STAGE, ResourceMetrics.STAGE_SERIALIZATION).timer().count())
+        .isEqualTo(1);
+  }
+
+  @Test
+  void unboundResponsesAreNotMeasured() throws IOException {
+    write(smileConverter(), payload(1000), SMILE);
+
+    assertThat(meterRegistry.find(ResourceMetrics.RESPONSE_SUMMARY).summary()).isNull();
+  }
+
+  private AbstractJackson2HttpMessageConverter smileConverter() {
+    return configuration
+        .mappingJackson2SmileHttpMessageConverter(new Jackson2ObjectMapperBuilder(),
+            resourceMetrics);
+  }
+
+  private AbstractJackson2HttpMessageConverter cborConverter() {
+    return configuration
+        .mappingJackson2CborHttpMessageConverter(new Jackson2ObjectMapperBuilder(),
+            resourceMetrics);
+  }
+
+  private static byte[] write(AbstractJackson2HttpMessageConverter converter, Payload payload,
+      MediaType mediaType) throws IOException {
+    assertThat(converter.canWrite(Payload.class, mediaType)).isTrue();
+    MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+    converter.write(payload, mediaType, outputMessage);
+    return outputMessage.getBodyAsBytes();
+  }
+
+  private static Object read(AbstractJackson2HttpMessageConverter converter, byte[] body,
+      MediaType mediaType) throws IOException {
+    MockHttpInputMessage inputMessage = new MockHttpInputMessage(body);
+    inputMessage.getHeaders().setContentType(mediaType);
+    return converter.read(Payload.class, inputMessage);
+  }
+
+  private static Payload payload(int size) {
+    Payload payload = new Payload();
+    payload.setFilename("file.bin");
+    payload.setContent(new byte[size]);
+    new Random(size).nextBytes(payload.getContent());
+    return payload;
+  }
+
+  @Data
+  static class Payload {
+
+    private String filename;
+    private byte[] content;
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.endpoint;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class ResourceContentEndpointRangeTest {
+
+  private static final long LENGTH = 1000;
+
+  @Test
+  void noOrMalformedHeaderRequestsTheWholeContent() {
+    assertThat(ResourceContentEndpoint.parseRanges(null, LENGTH)).isEmpty();
+    assertThat(ResourceContentEndpoint.parseRanges(" ", LENGTH)).isEmpty();
+    assertThat(ResourceContentEndpoint.parseRanges("bytes=a-b", LENGTH)).isEmpty();
+    assertThat(ResourceContentEndpoint.parseRanges("items=0-10", LENGTH)).isEmpty();
+  }
+
+  @Test
+  void parsesBoundedOpenAndSuffixRanges() {
+    assertThat(ranges("bytes=0-99")).containsExactly("bytes 0-99/1000");
+    assertThat(ranges("bytes=900-")).containsExactly("bytes 900-999/1000");
+    assertThat(ranges("bytes=-100")).containsExactly("bytes 900-999/1000");
+    assertThat(ranges("bytes=-5000")).containsExactly("bytes 0-999/1000");
+  }
+
+  @Test
+  void clampsTheEndToTheContent() {
+    assertThat(ranges("bytes=990-2000")).containsExactly("bytes 990-999/1000");
+    assertThat(ResourceContentEndpoint.parseRanges("bytes=990-2000", LENGTH).get(0).length())
+        .isEqualTo(10);
+  }
+
+  @Test
+  void unsatisfiableRangesAreDropped() {
+    assertThat(ResourceContentEndpoint.parseRanges("bytes=1000-1100", LENGTH)).isNull();
+    assertThat(ranges("bytes=0-9,2000-3000")).containsExactly("bytes 0-9/1000");
+  }
+
+  @Test
+  void sortsAndCoalescesOverlappingAndAdjacentRanges() {
+    assertThat(ranges("bytes=200-299,50-99,0-49,250-400,600-700"))
+        .containsExactly("bytes 0-99/1000", "bytes 200-400/1000", "bytes 600-700/1000");
+  }
+
+  private static List<String> ranges(String rangeHeader) {
+    return ResourceContentEndpoint.parseRanges(rangeHeader, LENGTH).stream()
+        .map(range -> range.contentRange(LENGTH)).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.event;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.client.model.changestream.UpdateDescription;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Instant;
+import java.util.List;
+import org.bson.BsonBoolean;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonInt64;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.repository.ChangeFeedCheckpointRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.jms.core.JmsTemplate;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class StoredFileChangeFeedTest {
+
+  private static final ObjectId ID = new ObjectId();
+
+  private StoredFileChangeFeed changeFeed;
+
+  @BeforeEach
+  void setUp() {
+    changeFeed = new StoredFileChangeFeed(mock(MongoTemplate.class), mock(JmsTemplate.class),
+        new ObjectMapper(), mock(ChangeFeedCheckpointRepository.class),
+        new ResourceServerProperties(), new SimpleMeterRegistry());
+  }
+
+  @Test
+  void insertIsACreation() {
+    Document document = new Document("filename", "invoice.pdf")
+        .append("mimeType", "application/pdf")
+        .append("filesize", 1024)
+        .append("version", 0L)
+        .append("relatedObjectId", 42L)
+        .append("relatedObjectClass", "Invoice")
+        .append("crc32c", "1a2b3c4d")
+        .append("sha256", "e3b0c442");
+
+    StoredFileEvent event = changeFeed.toEvent(change(OperationType.INSERT, document, null));
+
+    assertThat(event.getType()).isEqualTo(StoredFileEvent.Type.CREATED);
+    assertThat(event.getId()).isEqualTo(ID.toHexString());
+    assertThat(event.getTimestamp()).isEqualTo(Instant.ofEpochSecond(1_600_000_000));
+    assertThat(event.getFilename()).isEqualTo("invoice.pdf");
+    assertThat(event.getMimeType()).isEqualTo("application/pdf");
+    assertThat(event.getFilesize()).isEqualTo(1024L);
+    assertThat(event.getVersion()).isEqualTo(0L);
+    assertThat(event.getRelatedObjectId()).isEqualTo(42L);
+    assertThat(event.getRelatedObjectClass()).isEqualTo("Invoice");
+    assertThat(event.getContentHash()).isEqualTo("e3b0c442");
+  }
+
+  @Test
+  void contentHashFallsBackToTheCrc32c() {
+    StoredFileEvent event = changeFeed.toEvent(
+        change(OperationType.REPLACE, new Document("crc32c", "1a2b3c4d"), null));
+
+    assertThat(event.getType()).isEqualTo(StoredFileEvent.Type.UPDATED);
+    assertThat(event.getContentHash()).isEqualTo("1a2b3c4d");
+  }
+
+  @Test
+  void deactivationIsADeletion() {
+    assertThat(changeFeed.toEvent(
+        change(OperationType.REPLACE, new Document("isActive", false), null)).getType())
+        .isEqualTo(StoredFileEvent.Type.DELETED);
+    assertThat(changeFeed.toEvent(change(OperationType.UPDATE, new Document(),
+        update(new BsonDocument("isActive", BsonBoolean.FALSE)))).getType())
+        .isEqualTo(StoredFileEvent.Type.DELETED);
+  }
+
+  @Test
+  void clientUpdateIsPublished() {
+    StoredFileEvent event = changeFeed.toEvent(change(OperationType.UPDATE,
+        new Document("filename", "renamed.pdf"),
+        update(new BsonDocument("filename", new BsonString("renamed.pdf"))
+            .append("lastAccessed", new BsonDateTime(0)))));
+
+    assertThat(event.getType()).isEqualTo(StoredFileEvent.Type.UPDATED);
+    assertThat(event.getFilename()).isEqualTo("renamed.pdf");
+  }
+
+  @Test
+  void backgroundJobUpdateIsNotPublished() {
+    assertThat(changeFeed.toEvent(change(OperationType.UPDATE, new Document(),
+        update(new BsonDocument("lastAccessed", new BsonDateTime(0))
+            .append("accessCount", new BsonInt64(3)))))).isNull();
+    assertThat(changeFeed.toEvent(change(OperationType.UPDATE, new Document(),
+        new UpdateDescription(List.of("archiveKey"), new BsonDocument())))).isNull();
+  }
+
+  @Test
+  void deleteIsAPurge() {
+    StoredFileEvent event = changeFeed.toEvent(change(OperationType.DELETE, null, null));
+
+    assertThat(event.getType()).isEqualTo(StoredFileEvent.Type.PURGED);
+    assertThat(event.getId()).isEqualTo(ID.toHexString());
+    assertThat(event.getFilename()).isNull();
+  }
+
+  @Test
+  void otherOperationsAreNotPublished() {
+    assertThat(changeFeed.toEvent(change(OperationType.DROP, null, null))).isNull();
+  }
+
+  private static UpdateDescription update(BsonDocument updatedFields) {
+    return new UpdateDescription(List.of(), updatedFields);
+  }
+
+  private static ChangeStreamDocument<Document> change(OperationType operationType,
+      Document fullDocument, UpdateDescription updateDescription) {
+    return new ChangeStreamDocument<>(operationType, new BsonDocument(), (BsonDocument) null,
+        (BsonDocument) null, fullDocument, new BsonDocument("_id", new BsonObjectId(ID)),
+        new BsonTimestamp(1_600_000_000, 1), updateDescription, null, null);
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.ingest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.config.ResourceServerProperties.MismatchPolicy;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.exception.ContentTypeRejectedException;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class ContentInspectorTest {
+
+  @Test
+  void declaredTypeMatchesACompatibleDetectedType() {
+    ContentInspector contentInspector = contentInspector(MismatchPolicy.RECORD);
+
+    assertThat(contentInspector.matchesDetectedType(storedFile("image/jpg", "image/jpeg")))
+        .isTrue();
+    assertThat(contentInspector.matchesDetectedType(storedFile("text/html", null))).isTrue();
+    assertThat(contentInspector.matchesDetectedType(storedFile("text/html", "image/png")))
+        .isFalse();
+    assertThat(contentInspector.matchesDetectedType(storedFile(null, "image/png"))).isFalse();
+  }
+
+  @Test
+  void patchedTypeIsRecordedOrReplacedByThePolicy() {
+    StoredFile storedFile = storedFile("image/png", "image/png");
+
+    assertThat(contentInspector(MismatchPolicy.RECORD).checkDeclaredType(storedFile, "text/html"))
+        .isEqualTo("text/html");
+    assertThat(
+        contentInspector(MismatchPolicy.OVERRIDE).checkDeclaredType(storedFile, "text/html"))
+        .isEqualTo("image/png");
+    assertThatThrownBy(
+        () -> contentInspector(MismatchPolicy.REJECT).checkDeclaredType(storedFile, "text/html"))
+        .isInstanceOf(ContentTypeRejectedException.class);
+  }
+
+  @Test
+  void patchedTypeMatchingTheContentIsKept() {
+    assertThat(contentInspector(MismatchPolicy.REJECT)
+        .checkDeclaredType(storedFile("image/png", "image/jpeg"), "image/pjpeg"))
+        .isEqualTo("image/pjpeg");
+    assertThat(contentInspector(MismatchPolicy.REJECT)
+        .checkDeclaredType(storedFile("image/png", "image/png"), "application/octet-stream"))
+        .isEqualTo("image/png");
+  }
+
+  @Test
+  void deniedPatchedTypeIsRejected() {
+    ResourceServerProperties resourceServerProperties = new ResourceServerProperties();
+    resourceServerProperties.getIngest().setDeniedTypes(List.of("text/html"));
+    ContentInspector contentInspector = new ContentInspector(new ContentTypeDetector(),
+        resourceServerProperties, new SimpleMeterRegistry());
+
+    assertThatThrownBy(() -> contentInspector
+        .checkDeclaredType(storedFile("text/plain", null), "text/html; charset=UTF-8"))
+        .isInstanceOf(ContentTypeRejectedException.class);
+  }
+
+  private static ContentInspector contentInspector(MismatchPolicy mismatchPolicy) {
+    ResourceServerProperties resourceServerProperties = new ResourceServerProperties();
+    resourceServerProperties.getIngest().setMismatchPolicy(mismatchPolicy);
+    return new ContentInspector(new ContentTypeDetector(), resourceServerProperties,
+        new SimpleMeterRegistry());
+  }
+
+  private static StoredFile storedFile(String mimeType, String detectedMimeType) {
+    StoredFile storedFile = new StoredFile();
+    storedFile.setFilename("file");
+    storedFile.setMimeType(mimeType);
+    storedFile.setDetectedMimeType(detectedMimeType);
+    return storedFile;
+  }
+}
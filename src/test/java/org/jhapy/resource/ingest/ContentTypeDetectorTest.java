@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.ingest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class ContentTypeDetectorTest {
+
+  private final ContentTypeDetector contentTypeDetector = new ContentTypeDetector();
+
+  @Test
+  void detectsTheMagicNumbers() {
+    assertThat(detect(bytes(0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0, 0)))
+        .isEqualTo(new DetectedType("image/png", true));
+    assertThat(detect(bytes(0xFF, 0xD8, 0xFF, 0xE0)))
+        .isEqualTo(new DetectedType("image/jpeg", true));
+    assertThat(detect(text("%PDF-1.7\n"))).isEqualTo(new DetectedType("application/pdf", true));
+    assertThat(detect(bytes('I', 'I', 0x2A, 0x00, 8, 0, 0, 0)))
+        .isEqualTo(new DetectedType("image/tiff", false));
+    assertThat(detect(text("RIFF\0\0\0\0WEBPVP8 ")))
+        .isEqualTo(new DetectedType("image/webp", true));
+  }
+
+  @Test
+  void tellsIsoMediaApartByTheirBrand() {
+    assertThat(detect(text("\0\0\0\u0018ftypheic\0\0\0\0")).getMimeType())
+        .isEqualTo("image/heic");
+    assertThat(detect(text("\0\0\0\u0018ftypisom\0\0\0\0")).getMimeType())
+        .isEqualTo("video/mp4");
+  }
+
+  @Test
+  void detectsTextFormats() {
+    assertThat(detect(text("\uFEFF  <?xml version=\"1.0\"?><svg xmlns=\"\"/>")).getMimeType())
+        .isEqualTo("image/svg+xml");
+    assertThat(detect(text("<!DOCTYPE html><html></html>")).getMimeType())
+        .isEqualTo("text/html");
+    assertThat(detect(text("<?xml version=\"1.0\"?><root/>")).getMimeType())
+        .isEqualTo("application/xml");
+    assertThat(detect(text("\n{\"key\": 1}")).getMimeType()).isEqualTo("application/json");
+    assertThat(detect(text("Plain text\r\n")))
+        .isEqualTo(new DetectedType("text/plain", false));
+  }
+
+  @Test
+  void unknownBinaryIsNotDetected() {
+    assertThat(detect(bytes(0x00, 0x01, 0x02, 0x03))).isNull();
+    assertThat(contentTypeDetector.detect(new byte[0], 0)).isNull();
+    assertThat(contentTypeDetector.detect(null, 10)).isNull();
+  }
+
+  @Test
+  void onlyTheAvailableBytesAreRead() {
+    byte[] head = new byte[64];
+    System.arraycopy(text("%PDF-"), 0, head, 0, 5);
+
+    assertThat(contentTypeDetector.detect(head, 4))
+        .isEqualTo(new DetectedType("text/plain", false));
+    assertThat(contentTypeDetector.detect(head, 5).getMimeType()).isEqualTo("application/pdf");
+  }
+
+  private DetectedType detect(byte[] head) {
+    return contentTypeDetector.detect(head, head.length);
+  }
+
+  private static byte[] text(String text) {
+    return text.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] bytes(int... values) {
+    byte[] bytes = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      bytes[i] = (byte) values[i];
+    }
+    return bytes;
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.ingest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class ImageOptimizerTest {
+
+  private static final byte[] SOI = {(byte) 0xFF, (byte) 0xD8};
+  private static final byte[] SOS = {(byte) 0xFF, (byte) 0xDA, 0, 2};
+  private static final byte[] EOI = {(byte) 0xFF, (byte) 0xD9};
+
+  @Test
+  void readsTheOrientationOfBothByteOrders() {
+    assertThat(ImageOptimizer.exifOrientation(jpeg(app1(ByteOrder.LITTLE_ENDIAN, 6))))
+        .isEqualTo(6);
+    assertThat(ImageOptimizer.exifOrientation(jpeg(app1(ByteOrder.BIG_ENDIAN, 8))))
+        .isEqualTo(8);
+  }
+
+  @Test
+  void skipsTheSegmentsBeforeTheExifOne() {
+    assertThat(ImageOptimizer.exifOrientation(jpeg(app0(), app1(ByteOrder.BIG_ENDIAN, 3))))
+        .isEqualTo(3);
+  }
+
+  @Test
+  void defaultsToTheNormalOrientation() {
+    // No EXIF segment
+    assertThat(ImageOptimizer.exifOrientation(jpeg(app0()))).isEqualTo(1);
+    // EXIF segment after the image data
+    assertThat(ImageOptimizer.exifOrientation(
+        concat(SOI, SOS, app1(ByteOrder.BIG_ENDIAN, 6), EOI))).isEqualTo(1);
+    // Invalid orientation
+    assertThat(ImageOptimizer.exifOrientation(jpeg(app1(ByteOrder.BIG_ENDIAN, 9)))).isEqualTo(1);
+  }
+
+  @Test
+  void toleratesTruncatedContents() {
+    byte[] jpeg = jpeg(app1(ByteOrder.LITTLE_ENDIAN, 6));
+    for (int length = 0; length < jpeg.length; length++) {
+      assertThat(ImageOptimizer.exifOrientation(Arrays.copyOf(jpeg, length)))
+          .isBetween(1, 8);
+    }
+  }
+
+  private static byte[] jpeg(byte[]... segments) {
+    byte[][] parts = new byte[segments.length + 3][];
+    parts[0] = SOI;
+    System.arraycopy(segments, 0, parts, 1, segments.length);
+    parts[segments.length + 1] = SOS;
+    parts[segments.length + 2] = EOI;
+    return concat(parts);
+  }
+
+  private static byte[] app0() {
+    byte[] payload = new byte[14];
+    System.arraycopy("JFIF".getBytes(StandardCharsets.US_ASCII), 0, payload, 0, 4);
+    return segment(0xE0, payload);
+  }
+
+  /**
+   * An EXIF segment whose first directory holds a make then the orientation
+   */
+  private static byte[] app1(ByteOrder byteOrder, int orientation) {
+    ByteBuffer tiff = ByteBuffer.allocate(8 + 2 + 2 * 12 + 4).order(byteOrder);
+    tiff.put(byteOrder == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+    tiff.put(byteOrder == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+    tiff.putShort((short) 42).putInt(8);
+    tiff.putShort((short) 2);
+    tiff.putShort((short) 0x010F).putShort((short) 2).putInt(4)
+        .put("abc\0".getBytes(StandardCharsets.US_ASCII));
+    tiff.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) orientation)
+        .putShort((short) 0);
+    tiff.putInt(0);
+    return segment(0xE1, concat("Exif\0\0".getBytes(StandardCharsets.US_ASCII), tiff.array()));
+  }
+
+  private static byte[] segment(int marker, byte[] payload) {
+    int length = payload.length + 2;
+    return concat(new byte[]{(byte) 0xFF, (byte) marker, (byte) (length >> 8), (byte) length},
+        payload);
+  }
+
+  private static byte[] concat(byte[]... parts) {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    for (byte[] part : parts) {
+      outputStream.writeBytes(part);
+    }
+    return outputStream.toByteArray();
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.integrity;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.exception.ContentIntegrityException;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class ContentDigestTest {
+
+  private static final byte[] CHECK = "123456789".getBytes(StandardCharsets.US_ASCII);
+  private static final String CHECK_CRC32C = "e3069283";
+  private static final String CHECK_SHA256 =
+      "15e2b0d3c33891ebb0f1ef609ec419420c20e320ce94c65fbc8c3312448eb225";
+
+  @Test
+  void computesTheChecksumsOfTheWholeContent() {
+    ContentDigest contentDigest = ContentDigest.of(CHECK, true);
+
+    assertThat(contentDigest.getLength()).isEqualTo(CHECK.length);
+    assertThat(contentDigest.getCrc32c()).isEqualTo(CHECK_CRC32C);
+    assertThat(contentDigest.getSha256()).isEqualTo(CHECK_SHA256);
+    assertThat(ContentDigest.of(CHECK, false).getSha256()).isNull();
+  }
+
+  @Test
+  void incrementalUpdatesGiveTheSameChecksums() {
+    ContentDigest contentDigest = new ContentDigest(true);
+    contentDigest.update(CHECK, 0, 4);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(5).put(CHECK, 4, 5).flip();
+    contentDigest.update(buffer);
+
+    assertThat(buffer.remaining()).isEqualTo(5);
+    assertThat(contentDigest.getLength()).isEqualTo(CHECK.length);
+    assertThat(contentDigest.getCrc32c()).isEqualTo(CHECK_CRC32C);
+    assertThat(contentDigest.getSha256()).isEqualTo(CHECK_SHA256);
+  }
+
+  @Test
+  void verifyAcceptsTheRecordedChecksums() {
+    StoredFile storedFile = new StoredFile();
+    ContentDigest.of(CHECK, true).applyTo(storedFile);
+    storedFile.setSha256(storedFile.getSha256().toUpperCase());
+
+    ContentDigest.of(CHECK, true).verify(storedFile);
+    ContentDigest.of(CHECK, false).verify(storedFile);
+    // Nothing recorded
+    ContentDigest.of(CHECK, true).verify(new StoredFile());
+  }
+
+  @Test
+  void verifyRejectsAMismatch() {
+    StoredFile storedFile = new StoredFile();
+    storedFile.setCrc32c(CHECK_CRC32C);
+    storedFile.setSha256(CHECK_SHA256);
+    byte[] corrupted = CHECK.clone();
+    corrupted[4] ^= 1;
+
+    assertThatThrownBy(() -> ContentDigest.of(corrupted, false).verify(storedFile))
+        .isInstanceOf(ContentIntegrityException.class)
+        .hasMessageContaining("CRC32C mismatch");
+
+    storedFile.setCrc32c(null);
+    assertThatThrownBy(() -> ContentDigest.of(corrupted, true).verify(storedFile))
+        .isInstanceOf(ContentIntegrityException.class)
+        .hasMessageContaining("SHA-256 mismatch");
+  }
+}
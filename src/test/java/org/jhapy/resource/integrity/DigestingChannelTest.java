@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.integrity;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class DigestingChannelTest {
+
+  private static final byte[] CONTENT = "0123456789".getBytes(StandardCharsets.US_ASCII);
+
+  @Test
+  void digestsOnlyTheBytesWritten() throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    WritableByteChannel target = Channels.newChannel(outputStream);
+    // Accepts at most 3 bytes per write
+    WritableByteChannel partialTarget = new WritableByteChannel() {
+      @Override
+      public int write(ByteBuffer src) throws IOException {
+        ByteBuffer slice = src.duplicate();
+        slice.limit(slice.position() + Math.min(3, slice.remaining()));
+        int count = target.write(slice);
+        src.position(src.position() + count);
+        return count;
+      }
+
+      @Override
+      public boolean isOpen() {
+        return true;
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    DigestingChannel digestingChannel = new DigestingChannel(partialTarget,
+        new ContentDigest(true));
+
+    ByteBuffer buffer = ByteBuffer.wrap(CONTENT);
+    assertThat(digestingChannel.write(buffer)).isEqualTo(3);
+    assertThat(digestingChannel.getContentDigest().getLength()).isEqualTo(3);
+    while (buffer.hasRemaining()) {
+      digestingChannel.write(buffer);
+    }
+
+    assertThat(outputStream.toByteArray()).isEqualTo(CONTENT);
+    ContentDigest expected = ContentDigest.of(CONTENT, true);
+    assertThat(digestingChannel.getContentDigest().getLength()).isEqualTo(CONTENT.length);
+    assertThat(digestingChannel.getContentDigest().getCrc32c()).isEqualTo(expected.getCrc32c());
+    assertThat(digestingChannel.getContentDigest().getSha256()).isEqualTo(expected.getSha256());
+  }
+
+  @Test
+  void digestsWithoutTarget() throws IOException {
+    DigestingChannel digestingChannel = new DigestingChannel(null, new ContentDigest(false));
+    ByteBuffer buffer = ByteBuffer.wrap(CONTENT);
+
+    assertThat(digestingChannel.write(buffer)).isEqualTo(CONTENT.length);
+
+    assertThat(buffer.hasRemaining()).isFalse();
+    assertThat(digestingChannel.isOpen()).isTrue();
+    assertThat(digestingChannel.getContentDigest().getCrc32c())
+        .isEqualTo(ContentDigest.of(CONTENT, false).getCrc32c());
+  }
+}
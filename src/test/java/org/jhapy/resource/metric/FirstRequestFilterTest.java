@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.metric;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import javax.servlet.ServletException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class FirstRequestFilterTest {
+
+  private MeterRegistry meterRegistry;
+  private StartupMetrics startupMetrics;
+  private FirstRequestFilter firstRequestFilter;
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    startupMetrics = new StartupMetrics(meterRegistry);
+    firstRequestFilter = new FirstRequestFilter(startupMetrics);
+  }
+
+  @Test
+  void managementRequestsAreNotTheFirstRequest() throws Exception {
+    request("", "/management/health");
+    request("", "/actuator/info");
+    request("/resource", "/resource/management/health/readiness");
+
+    assertThat(startupMetrics.isFirstRequestServed()).isFalse();
+    assertThat(meterRegistry.find(StartupMetrics.STARTUP_GAUGE).timeGauge()).isNull();
+  }
+
+  @Test
+  void onlyTheFirstRequestIsTimed() throws Exception {
+    request("/resource", "/resource/api/resourceService/getById");
+    request("/resource", "/resource/api/resourceService/getById");
+
+    assertThat(startupMetrics.isFirstRequestServed()).isTrue();
+    assertThat(meterRegistry.find(StartupMetrics.STARTUP_GAUGE).tag("phase", "firstRequest")
+        .timeGauges()).hasSize(1);
+  }
+
+  private void request(String contextPath, String requestUri)
+      throws IOException, ServletException {
+    MockHttpServletRequest request = new MockHttpServletRequest("POST", requestUri);
+    request.setContextPath(contextPath);
+    firstRequestFilter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.metric;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.jhapy.resource.domain.StoredFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class ResourceMetricsTest {
+
+  private MeterRegistry meterRegistry;
+  private ResourceMetrics resourceMetrics;
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    resourceMetrics = new ResourceMetrics(meterRegistry);
+  }
+
+  @AfterEach
+  void tearDown() {
+    RequestContextHolder.resetRequestAttributes();
+  }
+
+  @Test
+  void mimeTypesAreReducedToTheirFamily() {
+    assertThat(ResourceMetrics.mimeTypeFamily("image/png")).isEqualTo("image");
+    assertThat(ResourceMetrics.mimeTypeFamily(" Application/PDF")).isEqualTo("application");
+    assertThat(ResourceMetrics.mimeTypeFamily("text")).isEqualTo("text");
+    assertThat(ResourceMetrics.mimeTypeFamily("x-custom/thing"))
+        .isEqualTo(ResourceMetrics.UNKNOWN_MIME_TYPE);
+    assertThat(ResourceMetrics.mimeTypeFamily(null)).isEqualTo(ResourceMetrics.UNKNOWN_MIME_TYPE);
+  }
+
+  @Test
+  void payloadCountsBothContents() {
+    StoredFile storedFile = new StoredFile();
+    storedFile.setMimeType("image/jpeg");
+    storedFile.setContent(new byte[100]);
+    storedFile.setOrginalContent(new byte[300]);
+
+    resourceMetrics.recordPayload("save", ResourceMetrics.DIRECTION_WRITTEN, storedFile);
+    resourceMetrics.recordPayload("save", ResourceMetrics.DIRECTION_WRITTEN, null);
+
+    DistributionSummary summary = meterRegistry.get(ResourceMetrics.PAYLOAD_SUMMARY)
+        .tag(ResourceMetrics.TAG_OPERATION, "save")
+        .tag(ResourceMetrics.TAG_MIME_TYPE, "image")
+        .summary();
+    assertThat(summary.count()).isEqualTo(1);
+    assertThat(summary.totalAmount()).isEqualTo(400);
+  }
+
+  @Test
+  void stagesAreTimedPerOperation() {
+    assertThat(resourceMetrics.record("getById", ResourceMetrics.STAGE_FETCH, () -> "result"))
+        .isEqualTo("result");
+
+    assertThat(meterRegistry.get(ResourceMetrics.OPERATION_TIMER)
+        .tag(ResourceMetrics.TAG_OPERATION, "getById")
+        .tag(ResourceMetrics.TAG_STAGE, ResourceMetrics.STAGE_FETCH)
+        .timer().count()).isEqualTo(1);
+  }
+
+  @Test
+  void operationIsBoundToTheCurrentRequest() {
+    ResourceMetrics.bindOperation("getById", "image/png");
+    assertThat(ResourceMetrics.currentOperation()).isNull();
+
+    RequestContextHolder
+        .setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+    ResourceMetrics.bindOperation("getById", "image/png");
+
+    assertThat(ResourceMetrics.currentOperation()).isEqualTo("getById");
+    assertThat(ResourceMetrics.currentMimeType()).isEqualTo("image/png");
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.repository;
+
+import org.jhapy.resource.config.DatabaseConfiguration;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.AutoConfigurationPackage;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+
+/**
+ * Configuration of the repository tests, on an embedded database: only the repositories and their
+ * templates, without the application configuration
+ *
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@SpringBootConfiguration
+@AutoConfigurationPackage
+public class RepositoryTestConfiguration {
+
+  @Bean
+  @Primary
+  public MongoTemplate mongoTemplate(MongoDatabaseFactory dbFactory, MongoConverter converter) {
+    return new MongoTemplate(dbFactory, converter);
+  }
+
+  @Bean(DatabaseConfiguration.METADATA_MONGO_TEMPLATE)
+  public MongoTemplate metadataMongoTemplate(MongoDatabaseFactory dbFactory,
+      MongoConverter converter) {
+    return new MongoTemplate(dbFactory, converter);
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.mongodb.ReadPreference;
+import org.jhapy.resource.domain.StoredFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class StoredFileRepositoryImplTest {
+
+  private MongoTemplate mongoTemplate;
+  private MongoTemplate metadataMongoTemplate;
+  private StoredFileRepositoryImpl storedFileRepository;
+
+  @BeforeEach
+  void setUp() {
+    mongoTemplate = mock(MongoTemplate.class);
+    metadataMongoTemplate = mock(MongoTemplate.class);
+    storedFileRepository = new StoredFileRepositoryImpl(mongoTemplate, metadataMongoTemplate);
+  }
+
+  @Test
+  void recentMetadataIsReadFromTheSecondary() {
+    StoredFile storedFile = new StoredFile();
+    when(metadataMongoTemplate.getReadPreference()).thenReturn(ReadPreference.secondaryPreferred());
+    when(metadataMongoTemplate.findOne(any(Query.class), eq(StoredFile.class)))
+        .thenReturn(storedFile);
+
+    assertThat(storedFileRepository.findRecentActiveMetadataById("id")).containsSame(storedFile);
+    verify(mongoTemplate, never()).findOne(any(Query.class), eq(StoredFile.class));
+  }
+
+  @Test
+  void fileNotReplicatedYetIsReadFromThePrimary() {
+    StoredFile storedFile = new StoredFile();
+    when(metadataMongoTemplate.getReadPreference()).thenReturn(ReadPreference.secondaryPreferred());
+    when(mongoTemplate.findOne(any(Query.class), eq(StoredFile.class))).thenReturn(storedFile);
+
+    assertThat(storedFileRepository.findRecentActiveMetadataById("id")).containsSame(storedFile);
+  }
+
+  @Test
+  void fileNotFoundOnThePrimaryIsNotReadTwice() {
+    when(metadataMongoTemplate.getReadPreference()).thenReturn(ReadPreference.primary());
+
+    assertThat(storedFileRepository.findRecentActiveMetadataById("id")).isEmpty();
+    verify(mongoTemplate, never()).findOne(any(Query.class), eq(StoredFile.class));
+  }
+}
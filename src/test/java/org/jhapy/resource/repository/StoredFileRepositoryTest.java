@@ -0,0 +1,225 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import org.jhapy.resource.domain.StoredFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.data.domain.PageRequest;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+@DataMongoTest
+class StoredFileRepositoryTest {
+
+  @Autowired
+  private StoredFileRepository storedFileRepository;
+
+  @BeforeEach
+  void clean() {
+    storedFileRepository.deleteAll();
+  }
+
+  @Test
+  void findActiveMetadataByRelatedObjectReturnsTheOldestActiveFilesWithoutContent() {
+    for (int i = 4; i >= 0; i--) {
+      storedFileRepository.save(storedFile("file-" + i, "Product", 1L, i));
+    }
+    storedFileRepository.save(storedFile("other-object", "Product", 2L, 0));
+    storedFileRepository.save(storedFile("other-class", "Order", 1L, 0));
+    StoredFile deleted = storedFile("deleted", "Product", 1L, 0);
+    deleted.setIsActive(false);
+    storedFileRepository.save(deleted);
+
+    List<StoredFile> storedFiles = storedFileRepository
+        .findActiveMetadataByRelatedObject("Product", 1L, PageRequest.of(0, 3));
+
+    assertThat(storedFiles).extracting(StoredFile::getFilename)
+        .containsExactly("file-0", "file-1", "file-2");
+    assertThat(storedFiles).allSatisfy(storedFile -> {
+      assertThat(storedFile.getContent()).isNull();
+      assertThat(storedFile.getOrginalContent()).isNull();
+    });
+  }
+
+  @Test
+  void findActiveMetadataByRelatedObjectReturnsNothingForAnUnknownObject() {
+    storedFileRepository.save(storedFile("file", "Product", 1L, 0));
+
+    assertThat(storedFileRepository
+        .findActiveMetadataByRelatedObject("Product", 3L, PageRequest.of(0, 10))).isEmpty();
+  }
+
+  @Test
+  void patchMetadataUpdatesTheCurrentVersionOnly() {
+    StoredFile storedFile = storedFileRepository.save(storedFile("file", "Product", 1L, 0));
+
+    StoredFile patched = storedFileRepository.patchMetadata(storedFile.getId(),
+        storedFile.getVersion(), Map.of("filename", "renamed"), "editor");
+
+    assertThat(patched.getFilename()).isEqualTo("renamed");
+    assertThat(patched.getVersion()).isEqualTo(storedFile.getVersion() + 1);
+    assertThat(patched.getModifiedBy()).isEqualTo("editor");
+    assertThat(patched.getContent()).isNull();
+    assertThat(storedFileRepository.findById(storedFile.getId()).get().getContent())
+        .isEqualTo("file".getBytes());
+
+    // The version read before the first patch is now stale
+    assertThat(storedFileRepository.patchMetadata(storedFile.getId(), storedFile.getVersion(),
+        Map.of("filename", "lost"), "editor")).isNull();
+    assertThat(storedFileRepository.findById(storedFile.getId()).get().getFilename())
+        .isEqualTo("renamed");
+  }
+
+  @Test
+  void patchMetadataIgnoresDeletedFiles() {
+    StoredFile storedFile = storedFile("deleted", "Product", 1L, 0);
+    storedFile.setIsActive(false);
+    storedFile = storedFileRepository.save(storedFile);
+
+    assertThat(storedFileRepository.patchMetadata(storedFile.getId(), storedFile.getVersion(),
+        Map.of("filename", "renamed"), "editor")).isNull();
+    assertThat(storedFileRepository.patchMetadata("unknown", 0L,
+        Map.of("filename", "renamed"), "editor")).isNull();
+  }
+
+  @Test
+  void softDeleteFlagsTheFileOnce() {
+    StoredFile storedFile = storedFileRepository.save(storedFile("file", "Product", 1L, 0));
+
+    StoredFile previous = storedFileRepository.softDelete(storedFile.getId());
+
+    assertThat(previous.getIsActive()).isTrue();
+    assertThat(previous.getContent()).isNull();
+    StoredFile deleted = storedFileRepository.findById(storedFile.getId()).get();
+    assertThat(deleted.getIsActive()).isFalse();
+    assertThat(deleted.getDeleted()).isNotNull();
+    assertThat(deleted.getVersion()).isEqualTo(storedFile.getVersion() + 1);
+    assertThat(storedFileRepository.softDelete(storedFile.getId())).isNull();
+  }
+
+  @Test
+  void findPurgeableReturnsTheOldestDeletionsPastTheRetention() {
+    storedFileRepository.save(deletedFile("recent", Instant.ofEpochSecond(300)));
+    storedFileRepository.save(deletedFile("newer", Instant.ofEpochSecond(200)));
+    storedFileRepository.save(deletedFile("older", Instant.ofEpochSecond(100)));
+    storedFileRepository.save(storedFile("active", "Product", 1L, 0));
+
+    List<StoredFile> storedFiles = storedFileRepository
+        .findPurgeable(Instant.ofEpochSecond(250), 10);
+
+    assertThat(storedFiles).extracting(StoredFile::getFilename)
+        .containsExactly("older", "newer");
+    assertThat(storedFiles).allSatisfy(storedFile -> assertThat(storedFile.getContent()).isNull());
+  }
+
+  @Test
+  void purgeOnlyRemovesDeletedFiles() {
+    StoredFile active = storedFileRepository.save(storedFile("active", "Product", 1L, 0));
+    StoredFile deleted = storedFileRepository
+        .save(deletedFile("deleted", Instant.ofEpochSecond(100)));
+
+    assertThat(storedFileRepository.purge(active.getId())).isFalse();
+    assertThat(storedFileRepository.purge(deleted.getId())).isTrue();
+    assertThat(storedFileRepository.purge(deleted.getId())).isFalse();
+    assertThat(storedFileRepository.findAll()).extracting(StoredFile::getFilename)
+        .containsExactly("active");
+  }
+
+  @Test
+  void findArchivableIdsReturnsTheOldestColdFiles() {
+    StoredFile newer = storedFile("newer", "Product", 1L, 200);
+    newer.setLastAccessed(Instant.ofEpochSecond(300));
+    newer = storedFileRepository.save(newer);
+    StoredFile older = storedFileRepository.save(storedFile("older", "Product", 1L, 100));
+    StoredFile accessed = storedFile("accessed", "Product", 1L, 100);
+    accessed.setLastAccessed(Instant.ofEpochSecond(600));
+    storedFileRepository.save(accessed);
+    storedFileRepository.save(storedFile("recent", "Product", 1L, 900));
+    StoredFile archived = storedFile("archived", "Product", 1L, 100);
+    archived.setArchived(true);
+    storedFileRepository.save(archived);
+    StoredFile onFileSystem = storedFile("onFileSystem", "Product", 1L, 100);
+    onFileSystem.setContentPath("00/00/onFileSystem.content");
+    storedFileRepository.save(onFileSystem);
+    storedFileRepository.save(deletedFile("deleted", Instant.ofEpochSecond(100)));
+
+    List<String> ids = storedFileRepository
+        .findArchivableIds(Instant.ofEpochSecond(500), Instant.ofEpochSecond(500), 10);
+
+    assertThat(ids).containsExactly(older.getId(), newer.getId());
+  }
+
+  @Test
+  void markArchivedDropsTheContentThenRestoreArchivedBringsItBack() {
+    StoredFile storedFile = storedFileRepository.save(storedFile("file", "Product", 1L, 0));
+
+    assertThat(storedFileRepository
+        .markArchived(storedFile.getId(), storedFile.getVersion() + 1, "key")).isFalse();
+    assertThat(storedFileRepository
+        .markArchived(storedFile.getId(), storedFile.getVersion(), "key")).isTrue();
+
+    StoredFile archived = storedFileRepository.findById(storedFile.getId()).get();
+    assertThat(archived.getArchived()).isTrue();
+    assertThat(archived.getArchiveKey()).isEqualTo("key");
+    assertThat(archived.getContent()).isNull();
+    assertThat(archived.getOrginalContent()).isNull();
+
+    assertThat(storedFileRepository.restoreArchived(archived.getId(), archived.getVersion(),
+        "file".getBytes(), null)).isTrue();
+
+    StoredFile restored = storedFileRepository.findById(storedFile.getId()).get();
+    assertThat(restored.getArchived()).isFalse();
+    assertThat(restored.getArchiveKey()).isNull();
+    assertThat(restored.getContent()).isEqualTo("file".getBytes());
+    assertThat(restored.getVersion()).isEqualTo(archived.getVersion() + 1);
+  }
+
+  private static StoredFile deletedFile(String filename, Instant deleted) {
+    StoredFile storedFile = storedFile(filename, "Product", 1L, 0);
+    storedFile.setIsActive(false);
+    storedFile.setDeleted(deleted);
+    return storedFile;
+  }
+
+  private static StoredFile storedFile(String filename, String relatedObjectClass,
+      Long relatedObjectId, long created) {
+    StoredFile storedFile = new StoredFile();
+    storedFile.setFilename(filename);
+    storedFile.setMimeType("text/plain");
+    storedFile.setContent(filename.getBytes());
+    storedFile.setOrginalContent(filename.getBytes());
+    storedFile.setFilesize(filename.length());
+    storedFile.setRelatedObjectClass(relatedObjectClass);
+    storedFile.setRelatedObjectId(relatedObjectId);
+    storedFile.setCreated(Instant.ofEpochSecond(created));
+    return storedFile;
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.security;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.time.Instant;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.domain.StoredFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.util.UriComponents;
+import org.springframework.web.util.UriComponentsBuilder;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class SignedUrlSignerTest {
+
+  private SignedUrlSigner signedUrlSigner;
+
+  @BeforeEach
+  void setUp() {
+    ResourceServerProperties resourceServerProperties = new ResourceServerProperties();
+    resourceServerProperties.getSignedUrls().setSecret("secret");
+    signedUrlSigner = new SignedUrlSigner(resourceServerProperties);
+  }
+
+  @Test
+  void signedUrlIsVerified() {
+    UriComponents url = parse(signedUrlSigner.sign(storedFile("sha", "crc")));
+
+    assertThat(url.getPath()).isEqualTo(SignedUrlSigner.PATH_PREFIX + "id/sha");
+    assertThat(signedUrlSigner.verify("id", "sha", expires(url), signature(url))).isTrue();
+  }
+
+  @Test
+  void tamperedUrlIsNotVerified() {
+    UriComponents url = parse(signedUrlSigner.sign(storedFile("sha", "crc")));
+
+    assertThat(signedUrlSigner.verify("other", "sha", expires(url), signature(url))).isFalse();
+    assertThat(signedUrlSigner.verify("id", "other", expires(url), signature(url))).isFalse();
+    assertThat(signedUrlSigner.verify("id", "sha", expires(url) + 1, signature(url))).isFalse();
+    assertThat(signedUrlSigner.verify("id", "sha", expires(url), null)).isFalse();
+  }
+
+  @Test
+  void urlSignedWithAnotherSecretIsNotVerified() {
+    ResourceServerProperties resourceServerProperties = new ResourceServerProperties();
+    resourceServerProperties.getSignedUrls().setSecret("other");
+    UriComponents url = parse(
+        new SignedUrlSigner(resourceServerProperties).sign(storedFile("sha", "crc")));
+
+    assertThat(signedUrlSigner.verify("id", "sha", expires(url), signature(url))).isFalse();
+  }
+
+  @Test
+  void expiredUrlIsNotVerified() {
+    ResourceServerProperties resourceServerProperties = new ResourceServerProperties();
+    resourceServerProperties.getSignedUrls().setSecret("secret");
+    resourceServerProperties.getSignedUrls().setTtl(Duration.ofSeconds(-10));
+    UriComponents url = parse(
+        new SignedUrlSigner(resourceServerProperties).sign(storedFile("sha", "crc")));
+
+    assertThat(signedUrlSigner.verify("id", "sha", expires(url), signature(url))).isFalse();
+  }
+
+  @Test
+  void signingRequiresASecretAndAHash() {
+    SignedUrlSigner disabled = new SignedUrlSigner(new ResourceServerProperties());
+
+    assertThat(disabled.isEnabled()).isFalse();
+    assertThatThrownBy(() -> disabled.sign(storedFile("sha", "crc")))
+        .isInstanceOf(IllegalStateException.class);
+    assertThatThrownBy(() -> signedUrlSigner.sign(storedFile(null, null)))
+        .isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  void contentIsIdentifiedBySha256ThenCrc32c() {
+    assertThat(SignedUrlSigner.contentHash(storedFile("sha", "crc"))).isEqualTo("sha");
+    assertThat(SignedUrlSigner.contentHash(storedFile(null, "crc"))).isEqualTo("crc");
+  }
+
+  @Test
+  void onlySha256ContentIsCachedAsImmutable() {
+    long expires = Instant.now().getEpochSecond() + 3600;
+
+    assertThat(signedUrlSigner.cacheControl(storedFile("sha", "crc"), expires))
+        .endsWith(", immutable");
+    assertThat(signedUrlSigner.cacheControl(storedFile(null, "crc"), expires))
+        .isEqualTo("public, max-age=60, must-revalidate");
+  }
+
+  @Test
+  void cacheIsNeverKeptPastTheUrlExpiry() {
+    long expires = Instant.now().getEpochSecond() + 10;
+
+    assertThat(signedUrlSigner.cacheControl(storedFile("sha", "crc"), expires))
+        .matches("public, max-age=(9|10), immutable");
+  }
+
+  @Test
+  void checksumEtagChangesWithTheVersion() {
+    StoredFile storedFile = storedFile(null, "crc");
+    String etag = SignedUrlSigner.etag(storedFile);
+    storedFile.setVersion(2L);
+
+    assertThat(SignedUrlSigner.etag(storedFile)).isNotEqualTo(etag);
+    assertThat(SignedUrlSigner.etag(storedFile("sha", "crc"))).isEqualTo("\"sha\"");
+  }
+
+  private static StoredFile storedFile(String sha256, String crc32c) {
+    StoredFile storedFile = new StoredFile();
+    storedFile.setId("id");
+    storedFile.setVersion(1L);
+    storedFile.setSha256(sha256);
+    storedFile.setCrc32c(crc32c);
+    return storedFile;
+  }
+
+  private static UriComponents parse(String url) {
+    return UriComponentsBuilder.fromUriString(url).build();
+  }
+
+  private static long expires(UriComponents url) {
+    return Long.parseLong(url.getQueryParams().getFirst(SignedUrlSigner.EXPIRES_PARAMETER));
+  }
+
+  private static String signature(UriComponents url) {
+    return url.getQueryParams().getFirst(SignedUrlSigner.SIGNATURE_PARAMETER);
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.service;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.exception.EntityNotFoundException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class CrudServiceTest {
+
+  private MongoRepository<StoredFile, Long> repository;
+  private CrudService<StoredFile> crudService;
+
+  @BeforeEach
+  @SuppressWarnings("unchecked")
+  void setUp() {
+    repository = mock(MongoRepository.class);
+    crudService = () -> repository;
+  }
+
+  @Test
+  void deleteByIdDoesNotLoadTheEntity() {
+    when(repository.existsById(42L)).thenReturn(true);
+
+    crudService.delete(42L);
+
+    verify(repository).deleteById(42L);
+    verify(repository, never()).findById(anyLong());
+  }
+
+  @Test
+  void deleteOfAnUnknownIdFails() {
+    when(repository.existsById(42L)).thenReturn(false);
+
+    assertThatThrownBy(() -> crudService.delete(42L))
+        .isInstanceOf(EntityNotFoundException.class);
+    verify(repository, never()).deleteById(anyLong());
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.repository.StoredFileRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class GroupCommitterTest {
+
+  private StoredFileRepository storedFileRepository;
+  private ResourceServerProperties resourceServerProperties;
+  private GroupCommitter groupCommitter;
+  private ExecutorService executorService;
+
+  @BeforeEach
+  void setUp() {
+    storedFileRepository = mock(StoredFileRepository.class);
+    resourceServerProperties = new ResourceServerProperties();
+    resourceServerProperties.getGroupCommit().setEnabled(true);
+    resourceServerProperties.getGroupCommit().setMaxSize(DataSize.ofKilobytes(1));
+    resourceServerProperties.getGroupCommit().setMaxBatch(3);
+    resourceServerProperties.getGroupCommit().setWindow(Duration.ofMillis(200));
+    groupCommitter = new GroupCommitter(storedFileRepository, () -> Optional.of("auditor"),
+        resourceServerProperties, new SimpleMeterRegistry());
+    executorService = Executors.newFixedThreadPool(3);
+  }
+
+  @AfterEach
+  void tearDown() throws InterruptedException {
+    groupCommitter.stop();
+    executorService.shutdownNow();
+  }
+
+  @Test
+  void acceptsSmallNewStoredFilesOnceStarted() {
+    assertThat(groupCommitter.accepts(new StoredFile(), 100)).isFalse();
+
+    groupCommitter.start();
+
+    assertThat(groupCommitter.accepts(new StoredFile(), 100)).isTrue();
+    assertThat(groupCommitter.accepts(new StoredFile(), 2048)).isFalse();
+    StoredFile existing = new StoredFile();
+    existing.setId("existing");
+    assertThat(groupCommitter.accepts(existing, 100)).isFalse();
+  }
+
+  @Test
+  void insertsTheBatchAtOnce() throws Exception {
+    when(storedFileRepository.insert(anyList()))
+        .thenAnswer(invocation -> invocation.getArgument(0));
+    groupCommitter.start();
+
+    List<Future<StoredFile>> results = submit("a.txt", "b.txt", "c.txt");
+
+    for (Future<StoredFile> result : results) {
+      StoredFile inserted = result.get(10, TimeUnit.SECONDS);
+      assertThat(inserted.getId()).isNotNull();
+      assertThat(inserted.getCreatedBy()).isEqualTo("auditor");
+    }
+  }
+
+  @Test
+  void failedBatchReportsTheFailureToItsCallerOnly() throws Exception {
+    when(storedFileRepository.insert(anyList()))
+        .thenThrow(new DuplicateKeyException("Duplicate key"));
+    when(storedFileRepository.existsById(anyString())).thenReturn(false);
+    when(storedFileRepository.insert(any(StoredFile.class))).thenAnswer(invocation -> {
+      StoredFile storedFile = invocation.getArgument(0);
+      if ("duplicate.txt".equals(storedFile.getFilename())) {
+        throw new DuplicateKeyException("Duplicate key");
+      }
+      return storedFile;
+    });
+    groupCommitter.start();
+
+    List<Future<StoredFile>> results = submit("a.txt", "duplicate.txt", "c.txt");
+
+    assertThat(results.get(0).get(10, TimeUnit.SECONDS).getFilename()).isEqualTo("a.txt");
+    assertThatThrownBy(() -> results.get(1).get(10, TimeUnit.SECONDS))
+        .hasCauseInstanceOf(DuplicateKeyException.class);
+    assertThat(results.get(2).get(10, TimeUnit.SECONDS).getFilename()).isEqualTo("c.txt");
+  }
+
+  @Test
+  void storedFileWrittenBeforeTheFailureIsRecognised() throws Exception {
+    when(storedFileRepository.insert(anyList()))
+        .thenThrow(new DuplicateKeyException("Duplicate key"));
+    when(storedFileRepository.existsById(anyString())).thenReturn(true);
+    groupCommitter.start();
+
+    StoredFile inserted = submit("a.txt").get(0).get(10, TimeUnit.SECONDS);
+
+    assertThat(inserted.getFilename()).isEqualTo("a.txt");
+  }
+
+  private List<Future<StoredFile>> submit(String... filenames) {
+    List<Future<StoredFile>> results = new ArrayList<>();
+    for (String filename : filenames) {
+      StoredFile storedFile = new StoredFile();
+      storedFile.setFilename(filename);
+      results.add(executorService.submit(() -> groupCommitter.insert(storedFile)));
+    }
+    return results;
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.domain.StoredFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class ReadCoalescerTest {
+
+  private MeterRegistry meterRegistry;
+  private ReadCoalescer readCoalescer;
+  private ExecutorService executorService;
+
+  private final CountDownLatch loading = new CountDownLatch(1);
+  private final AtomicInteger loads = new AtomicInteger();
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    readCoalescer = new ReadCoalescer(new ResourceServerProperties(), meterRegistry);
+    executorService = Executors.newFixedThreadPool(2);
+  }
+
+  @AfterEach
+  void tearDown() {
+    executorService.shutdownNow();
+  }
+
+  @Test
+  void concurrentReadsShareOneLoad() throws Exception {
+    Function<String, StoredFile> loader = blockingLoader(id -> {
+      StoredFile storedFile = new StoredFile();
+      storedFile.setId(id);
+      return storedFile;
+    });
+
+    Future<StoredFile> first = executorService.submit(() -> readCoalescer.load("id", loader));
+    awaitReads("loaded", 1);
+    Future<StoredFile> second = executorService.submit(() -> readCoalescer.load("id", loader));
+    awaitReads("coalesced", 1);
+    loading.countDown();
+
+    assertThat(second.get(10, TimeUnit.SECONDS)).isSameAs(first.get(10, TimeUnit.SECONDS));
+    assertThat(loads).hasValue(1);
+    assertThat(meterRegistry.get("resource.coalescing.inflight").gauge().value()).isZero();
+
+    // Nothing is kept once loaded
+    readCoalescer.load("id", loader);
+    assertThat(loads).hasValue(2);
+  }
+
+  @Test
+  void failureIsSharedWithTheWaitingReads() throws Exception {
+    Function<String, StoredFile> loader = blockingLoader(id -> {
+      throw new IllegalStateException("Database down");
+    });
+
+    Future<StoredFile> first = executorService.submit(() -> readCoalescer.load("id", loader));
+    awaitReads("loaded", 1);
+    Future<StoredFile> second = executorService.submit(() -> readCoalescer.load("id", loader));
+    awaitReads("coalesced", 1);
+    loading.countDown();
+
+    assertThatThrownBy(() -> first.get(10, TimeUnit.SECONDS))
+        .isInstanceOf(ExecutionException.class)
+        .hasCauseInstanceOf(IllegalStateException.class);
+    assertThatThrownBy(() -> second.get(10, TimeUnit.SECONDS))
+        .isInstanceOf(ExecutionException.class)
+        .hasCauseInstanceOf(IllegalStateException.class);
+    assertThat(loads).hasValue(1);
+  }
+
+  @Test
+  void readsOfDifferentIdsAreNotCoalesced() throws Exception {
+    Function<String, StoredFile> loader = blockingLoader(id -> null);
+
+    CompletableFuture<StoredFile> first = CompletableFuture
+        .supplyAsync(() -> readCoalescer.load("first", loader), executorService);
+    CompletableFuture<StoredFile> second = CompletableFuture
+        .supplyAsync(() -> readCoalescer.load("second", loader), executorService);
+    awaitReads("loaded", 2);
+    loading.countDown();
+    CompletableFuture.allOf(first, second).get(10, TimeUnit.SECONDS);
+
+    assertThat(loads).hasValue(2);
+  }
+
+  @Test
+  void disabledCoalescingLoadsEveryRead() {
+    ResourceServerProperties resourceServerProperties = new ResourceServerProperties();
+    resourceServerProperties.getCoalescing().setEnabled(false);
+    readCoalescer = new ReadCoalescer(resourceServerProperties, new SimpleMeterRegistry());
+    loading.countDown();
+
+    readCoalescer.load("id", blockingLoader(id -> null));
+    readCoalescer.load("id", blockingLoader(id -> null));
+
+    assertThat(loads).hasValue(2);
+  }
+
+  /**
+   * A loader counting its calls, which waits for the test before loading
+   */
+  private Function<String, StoredFile> blockingLoader(Function<String, StoredFile> loader) {
+    return id -> {
+      loads.incrementAndGet();
+      try {
+        loading.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return loader.apply(id);
+    };
+  }
+
+  private void awaitReads(String result, int count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (meterRegistry.get("resource.coalescing.reads").tag("result", result).counter().count()
+        < count && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+}
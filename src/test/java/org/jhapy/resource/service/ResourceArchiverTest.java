@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.Optional;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.repository.StoredFileRepository;
+import org.jhapy.resource.store.ArchiveStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class ResourceArchiverTest {
+
+  private static final byte[] CONTENT = {1, 2, 3, 4};
+  private static final byte[] ORIGINAL_CONTENT = {5, 6};
+
+  private StoredFileRepository storedFileRepository;
+  private ArchiveStore archiveStore;
+  private MeterRegistry meterRegistry;
+  private ResourceArchiver resourceArchiver;
+
+  @BeforeEach
+  void setUp() {
+    storedFileRepository = mock(StoredFileRepository.class);
+    archiveStore = mock(ArchiveStore.class);
+    meterRegistry = new SimpleMeterRegistry();
+    resourceArchiver = new ResourceArchiver(storedFileRepository, archiveStore,
+        new ResourceServerProperties(), meterRegistry);
+  }
+
+  @Test
+  void coldFileContentIsMovedToTheArchive() throws Exception {
+    storedFile("cold");
+    when(storedFileRepository.markArchived("cold", 3L, "cold")).thenReturn(true);
+
+    resourceArchiver.archiveColdFiles();
+
+    verify(archiveStore).write("cold", CONTENT, ORIGINAL_CONTENT);
+    verify(archiveStore, never()).delete(any());
+    assertThat(meterRegistry.get("resource.archive.files").counter().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("resource.archive.bytes").counter().count()).isEqualTo(6);
+  }
+
+  @Test
+  void fileModifiedMeanwhileIsLeftForTheNextRun() throws Exception {
+    storedFile("modified");
+    when(storedFileRepository.markArchived("modified", 3L, "modified")).thenReturn(false);
+
+    resourceArchiver.archiveColdFiles();
+
+    verify(archiveStore).delete("modified");
+    assertThat(meterRegistry.get("resource.archive.files").counter().count()).isZero();
+  }
+
+  @Test
+  void archivedFileIsSkipped() {
+    storedFile("archived").setArchived(true);
+
+    resourceArchiver.archiveColdFiles();
+
+    verifyNoInteractions(archiveStore);
+  }
+
+  private StoredFile storedFile(String id) {
+    StoredFile storedFile = new StoredFile();
+    storedFile.setId(id);
+    storedFile.setVersion(3L);
+    storedFile.setContent(CONTENT);
+    storedFile.setOrginalContent(ORIGINAL_CONTENT);
+    when(storedFileRepository.findArchivableIds(any(), any(), anyInt())).thenReturn(List.of(id));
+    when(storedFileRepository.findById(id)).thenReturn(Optional.of(storedFile));
+    return storedFile;
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.jhapy.resource.access.AccessTracker;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.transfer.ContentTransfer;
+import org.jhapy.resource.transfer.DirectBufferPool;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class ResourceExporterTest {
+
+  private ResourceService resourceService;
+  private AccessTracker accessTracker;
+  private ResourceExporter resourceExporter;
+
+  @BeforeEach
+  void setUp() {
+    ResourceServerProperties resourceServerProperties = new ResourceServerProperties();
+    resourceService = mock(ResourceService.class);
+    accessTracker = mock(AccessTracker.class);
+    resourceExporter = new ResourceExporter(resourceService, new ContentTransfer(
+        new DirectBufferPool(resourceServerProperties, new SimpleMeterRegistry())),
+        accessTracker);
+  }
+
+  @Test
+  void entriesHaveUniqueNamesWithoutDirectories() throws IOException {
+    List<StoredFile> storedFiles = List.of(
+        inDocument("1", "report.txt", "first"),
+        inDocument("2", "report.txt", "second"),
+        inDocument("3", "../../etc/passwd", "third"),
+        inDocument("4", null, "fourth"));
+
+    Map<String, String> entries = unzip(export(storedFiles, 22));
+
+    assertThat(entries).containsExactly(
+        Map.entry("report.txt", "first"),
+        Map.entry("report (2).txt", "second"),
+        Map.entry("passwd", "third"),
+        Map.entry("4", "fourth"));
+  }
+
+  @Test
+  void compressedContentIsStored() throws IOException {
+    StoredFile storedFile = inDocument("1", "photo.jpg", "already compressed");
+    storedFile.setCompressed(true);
+
+    byte[] zip = export(List.of(storedFile), 18);
+
+    try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zip))) {
+      ZipEntry entry = zipInputStream.getNextEntry();
+      assertThat(entry.getMethod()).isEqualTo(ZipEntry.STORED);
+      CRC32 crc = new CRC32();
+      crc.update("already compressed".getBytes(StandardCharsets.UTF_8));
+      assertThat(entry.getCrc()).isEqualTo(crc.getValue());
+      assertThat(new String(zipInputStream.readAllBytes(), StandardCharsets.UTF_8))
+          .isEqualTo("already compressed");
+    }
+  }
+
+  @Test
+  void fileBackedContentIsTransferredFromItsStore() throws IOException {
+    StoredFile storedFile = storedFile("1", "large.bin");
+    when(resourceService.getContentFile(storedFile)).thenReturn(Paths.get("large.content"));
+    when(resourceService.transferContent(any(), any())).thenAnswer(invocation -> {
+      WritableByteChannel target = invocation.getArgument(1);
+      return (long) target.write(ByteBuffer.wrap("from the store".getBytes(
+          StandardCharsets.UTF_8)));
+    });
+
+    Map<String, String> entries = unzip(export(List.of(storedFile), 14));
+
+    assertThat(entries).containsExactly(Map.entry("large.bin", "from the store"));
+    verify(accessTracker).recordAccess("1", 14);
+  }
+
+  @Test
+  void fileWithoutContentIsSkipped() throws IOException {
+    StoredFile storedFile = storedFile("1", "missing.txt");
+
+    assertThat(unzip(export(List.of(storedFile), 0))).isEmpty();
+  }
+
+  private byte[] export(List<StoredFile> storedFiles, long expectedBytes) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    assertThat(resourceExporter.export(storedFiles, outputStream)).isEqualTo(expectedBytes);
+    return outputStream.toByteArray();
+  }
+
+  private StoredFile inDocument(String id, String filename, String content) {
+    StoredFile storedFile = storedFile(id, filename);
+    StoredFile loaded = storedFile(id, filename);
+    loaded.setContent(content.getBytes(StandardCharsets.UTF_8));
+    when(resourceService.getById(id)).thenReturn(loaded);
+    return storedFile;
+  }
+
+  private static StoredFile storedFile(String id, String filename) {
+    StoredFile storedFile = new StoredFile();
+    storedFile.setId(id);
+    storedFile.setFilename(filename);
+    return storedFile;
+  }
+
+  private static Map<String, String> unzip(byte[] zip) throws IOException {
+    Map<String, String> entries = new LinkedHashMap<>();
+    try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zip))) {
+      for (ZipEntry entry = zipInputStream.getNextEntry(); entry != null;
+          entry = zipInputStream.getNextEntry()) {
+        entries.put(entry.getName(),
+            new String(zipInputStream.readAllBytes(), StandardCharsets.UTF_8));
+      }
+    }
+    return entries;
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.util.List;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.repository.StoredFileRepository;
+import org.jhapy.resource.store.ArchiveStore;
+import org.jhapy.resource.store.ContentStore;
+import org.jhapy.resource.store.ContentStores;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class ResourcePurgerTest {
+
+  private StoredFileRepository storedFileRepository;
+  private ContentStore contentStore;
+  private ArchiveStore archiveStore;
+  private MeterRegistry meterRegistry;
+  private ResourcePurger resourcePurger;
+
+  @BeforeEach
+  void setUp() {
+    storedFileRepository = mock(StoredFileRepository.class);
+    contentStore = mock(ContentStore.class);
+    ContentStores contentStores = mock(ContentStores.class);
+    when(contentStores.forRead(any())).thenReturn(contentStore);
+    archiveStore = mock(ArchiveStore.class);
+    ResourceServerProperties resourceServerProperties = new ResourceServerProperties();
+    resourceServerProperties.getPurge().setMaxFilesPerSecond(1000);
+    meterRegistry = new SimpleMeterRegistry();
+    resourcePurger = new ResourcePurger(storedFileRepository, contentStores, archiveStore,
+        resourceServerProperties, meterRegistry);
+  }
+
+  @Test
+  void contentIsReclaimedBeforeTheDocument() throws Exception {
+    StoredFile storedFile = storedFile("archived", 100);
+    storedFile.setArchiveKey("2020/06/archived");
+    when(storedFileRepository.findPurgeable(any(), anyInt())).thenReturn(List.of(storedFile));
+    when(storedFileRepository.purge("archived")).thenReturn(true);
+
+    resourcePurger.purgeDeletedFiles();
+
+    InOrder inOrder = inOrder(contentStore, archiveStore, storedFileRepository);
+    inOrder.verify(contentStore).delete(storedFile);
+    inOrder.verify(archiveStore).delete("2020/06/archived");
+    inOrder.verify(storedFileRepository).purge("archived");
+    assertThat(meterRegistry.get("resource.purge.files").counter().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("resource.purge.bytes").counter().count()).isEqualTo(100);
+  }
+
+  @Test
+  void failureKeepsTheDocumentForTheNextRun() throws Exception {
+    StoredFile failing = storedFile("failing", 100);
+    StoredFile next = storedFile("next", 50);
+    when(storedFileRepository.findPurgeable(any(), anyInt())).thenReturn(List.of(failing, next));
+    doThrow(new IOException("Disk failure")).when(contentStore).delete(failing);
+    when(storedFileRepository.purge("next")).thenReturn(true);
+
+    resourcePurger.purgeDeletedFiles();
+
+    verify(storedFileRepository, never()).purge("failing");
+    verify(storedFileRepository).purge("next");
+    assertThat(meterRegistry.get("resource.purge.bytes").counter().count()).isEqualTo(50);
+  }
+
+  @Test
+  void fileAlreadyPurgedIsNotCounted() {
+    when(storedFileRepository.findPurgeable(any(), anyInt()))
+        .thenReturn(List.of(storedFile("purged", 100)));
+    when(storedFileRepository.purge("purged")).thenReturn(false);
+
+    resourcePurger.purgeDeletedFiles();
+
+    assertThat(meterRegistry.get("resource.purge.files").counter().count()).isZero();
+    verifyNoInteractions(archiveStore);
+  }
+
+  private static StoredFile storedFile(String id, long filesize) {
+    StoredFile storedFile = new StoredFile();
+    storedFile.setId(id);
+    storedFile.setFilesize(filesize);
+    storedFile.setIsActive(false);
+    return storedFile;
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.domain.StoredFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class StaleReadCacheTest {
+
+  private MeterRegistry meterRegistry;
+  private StaleReadCache staleReadCache;
+
+  @BeforeEach
+  void setUp() {
+    ResourceServerProperties resourceServerProperties = new ResourceServerProperties();
+    resourceServerProperties.getStaleCache().setMaxSize(DataSize.ofBytes(10));
+    resourceServerProperties.getStaleCache().setMaxEntrySize(DataSize.ofBytes(6));
+    meterRegistry = new SimpleMeterRegistry();
+    staleReadCache = new StaleReadCache(resourceServerProperties, meterRegistry);
+  }
+
+  @Test
+  void leastRecentlyServedFileIsEvictedFirst() {
+    StoredFile first = storedFile("first", 4);
+    staleReadCache.put(first);
+    staleReadCache.put(storedFile("second", 4));
+    staleReadCache.getStale("getById", "first");
+
+    staleReadCache.put(storedFile("third", 4));
+
+    assertThat(staleReadCache.getStale("getById", "first")).isSameAs(first);
+    assertThat(staleReadCache.getStale("getById", "second")).isNull();
+    assertThat(staleReadCache.getStale("getById", "third")).isNotNull();
+    assertThat(bytes()).isEqualTo(8);
+  }
+
+  @Test
+  void fileLargerThanTheMaximumEntrySizeReplacesItsPreviousVersion() {
+    staleReadCache.put(storedFile("file", 4));
+
+    staleReadCache.put(storedFile("file", 7));
+
+    assertThat(staleReadCache.getStale("getById", "file")).isNull();
+    assertThat(bytes()).isZero();
+  }
+
+  @Test
+  void evictedFileIsNotServed() {
+    staleReadCache.put(storedFile("file", 4));
+
+    staleReadCache.evict("file");
+
+    assertThat(staleReadCache.getStale("getById", "file")).isNull();
+    assertThat(bytes()).isZero();
+  }
+
+  @Test
+  void staleReadsAreCountedByResult() {
+    staleReadCache.put(storedFile("file", 4));
+
+    staleReadCache.getStale("getById", "file");
+    staleReadCache.getStale("getById", "unknown");
+    staleReadCache.getStale("getById", null);
+
+    assertThat(staleReads("served")).isEqualTo(1);
+    assertThat(staleReads("missed")).isEqualTo(2);
+  }
+
+  private double bytes() {
+    return meterRegistry.get("resource.stale.cache.bytes").gauge().value();
+  }
+
+  private double staleReads(String result) {
+    return meterRegistry.get("resource.stale.reads").tag("result", result).counter().count();
+  }
+
+  private static StoredFile storedFile(String id, int size) {
+    StoredFile storedFile = new StoredFile();
+    storedFile.setId(id);
+    storedFile.setContent(new byte[size]);
+    return storedFile;
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Optional;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.domain.UploadSession;
+import org.jhapy.resource.integrity.ContentDigest;
+import org.jhapy.resource.metric.ResourceMetrics;
+import org.jhapy.resource.repository.UploadSessionRepository;
+import org.jhapy.resource.transfer.ContentTransfer;
+import org.jhapy.resource.transfer.DirectBufferPool;
+import org.jhapy.resource.usage.StorageUsageTracker;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class UploadSessionServiceImplTest {
+
+  private static final String ID = "5f0c8e1a2b3c4d5e6f708192";
+  private static final byte[] CONTENT = "0123456789".getBytes(StandardCharsets.US_ASCII);
+
+  @TempDir
+  Path directory;
+
+  private UploadSessionRepository uploadSessionRepository;
+  private ResourceService resourceService;
+  private UploadSessionServiceImpl uploadSessionService;
+  private UploadSession uploadSession;
+
+  @BeforeEach
+  void setUp() {
+    ResourceServerProperties resourceServerProperties = new ResourceServerProperties();
+    resourceServerProperties.getUpload().setDirectory(directory.toString());
+    resourceServerProperties.getUpload().setMinChunkSize(DataSize.ofBytes(4));
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    uploadSessionRepository = mock(UploadSessionRepository.class);
+    resourceService = mock(ResourceService.class);
+    uploadSessionService = new UploadSessionServiceImpl(uploadSessionRepository, resourceService,
+        new ResourceMetrics(meterRegistry),
+        new ContentTransfer(new DirectBufferPool(resourceServerProperties, meterRegistry)),
+        mock(StorageUsageTracker.class), resourceServerProperties);
+
+    uploadSession = new UploadSession();
+    uploadSession.setId(ID);
+    uploadSession.setFilename("digits.txt");
+    uploadSession.setMimeType("text/plain");
+    uploadSession.setTotalSize(CONTENT.length);
+    uploadSession.setChunkSize(4);
+    uploadSession.setChunkCount(3);
+    uploadSession.setExpiresAt(Instant.now().plus(Duration.ofHours(1)));
+    when(uploadSessionRepository.findById(ID)).thenReturn(Optional.of(uploadSession));
+    when(uploadSessionRepository.addReceivedChunk(eq(ID), anyInt(), any())).thenReturn(true);
+    when(uploadSessionRepository.claimCommit(eq(ID), anyString())).thenReturn(true);
+    when(resourceService.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+  }
+
+  @Test
+  void openCountsTheChunks() {
+    when(uploadSessionRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+    UploadSession newSession = new UploadSession();
+    newSession.setFilename("digits.txt");
+    newSession.setTotalSize(CONTENT.length);
+    newSession.setChunkSize(4);
+
+    assertThat(uploadSessionService.open(newSession).getChunkCount()).isEqualTo(3);
+
+    newSession.setChecksum("not a checksum");
+    assertThatThrownBy(() -> uploadSessionService.open(newSession))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void chunksAreAssembledInOrder() throws Exception {
+    uploadSession.setChecksum(sha256(CONTENT));
+    writeChunk(2);
+    writeChunk(0);
+    writeChunk(1);
+
+    StoredFile storedFile = uploadSessionService.commit(ID);
+
+    assertThat(storedFile.getContent()).isEqualTo(CONTENT);
+    assertThat(storedFile.getFilesize()).isEqualTo(CONTENT.length);
+    assertThat(storedFile.getCrc32c()).isEqualTo(ContentDigest.of(CONTENT, false).getCrc32c());
+    assertThat(storedFile.getSha256()).isEqualTo(sha256(CONTENT));
+    assertThat(directory.resolve(ID)).doesNotExist();
+  }
+
+  @Test
+  void checksumMismatchIsRejected() throws Exception {
+    uploadSession.setChecksum(sha256("9876543210".getBytes(StandardCharsets.US_ASCII)));
+    for (int index = 0; index < 3; index++) {
+      writeChunk(index);
+    }
+
+    assertThatThrownBy(() -> uploadSessionService.commit(ID))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("Checksum mismatch");
+    verify(uploadSessionRepository).releaseCommit(eq(ID), anyString());
+    assertThat(directory.resolve(ID).toFile().list()).hasSize(3);
+  }
+
+  @Test
+  void incompleteChunkIsRejected() {
+    assertThatThrownBy(() -> uploadSessionService.writeChunk(ID, 0,
+        new ByteArrayInputStream(CONTENT, 0, 3), -1))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> uploadSessionService.writeChunk(ID, 2,
+        new ByteArrayInputStream(CONTENT, 8, 2), 4))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void commitRequiresEveryChunk() {
+    writeChunk(0);
+    writeChunk(2);
+
+    assertThatThrownBy(() -> uploadSessionService.commit(ID))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("missing 1 chunks");
+  }
+
+  private void writeChunk(int index) {
+    int offset = index * 4;
+    byte[] chunk = Arrays.copyOfRange(CONTENT, offset, Math.min(CONTENT.length, offset + 4));
+    uploadSessionService.writeChunk(ID, index, new ByteArrayInputStream(chunk), chunk.length);
+  }
+
+  private static String sha256(byte[] content) throws Exception {
+    StringBuilder hex = new StringBuilder();
+    for (byte b : MessageDigest.getInstance("SHA-256").digest(content)) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class FileSystemArchiveStoreTest {
+
+  private static final String KEY = "5f0c8e1a2b3c4d5e6f708192";
+
+  @TempDir
+  Path directory;
+
+  private FileSystemArchiveStore archiveStore;
+
+  @BeforeEach
+  void setUp() {
+    ResourceServerProperties resourceServerProperties = new ResourceServerProperties();
+    resourceServerProperties.getArchive().setDirectory(directory.toString());
+    archiveStore = new FileSystemArchiveStore(resourceServerProperties);
+  }
+
+  @Test
+  void archivedContentIsReadBack() throws IOException {
+    archiveStore.write(KEY, new byte[]{1, 2, 3}, new byte[]{4, 5});
+
+    assertThat(archiveStore.readContent(KEY)).containsExactly(1, 2, 3);
+    assertThat(archiveStore.readOriginalContent(KEY)).containsExactly(4, 5);
+    // Spread by the end of the key
+    assertThat(directory.resolve("92").resolve("81").resolve(KEY + ".content")).isRegularFile();
+  }
+
+  @Test
+  void missingContentIsNull() throws IOException {
+    archiveStore.write(KEY, new byte[]{1, 2, 3}, null);
+
+    assertThat(archiveStore.readOriginalContent(KEY)).isNull();
+    assertThat(archiveStore.readContent("unknown")).isNull();
+  }
+
+  @Test
+  void deleteRemovesBothContents() throws IOException {
+    archiveStore.write(KEY, new byte[]{1, 2, 3}, new byte[]{4, 5});
+
+    archiveStore.delete(KEY);
+
+    assertThat(archiveStore.readContent(KEY)).isNull();
+    assertThat(archiveStore.readOriginalContent(KEY)).isNull();
+  }
+
+  @Test
+  void keyMustNotEscapeTheDirectory() {
+    assertThatThrownBy(() -> archiveStore.readContent("../" + KEY))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.transfer.ContentTransfer;
+import org.jhapy.resource.transfer.DirectBufferPool;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class FileSystemContentStoreTest {
+
+  private static final byte[] SMALL = content(100);
+  private static final byte[] LARGE = content(20_000);
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void writeMovesTheContentOutOfTheDocument() throws IOException {
+    FileSystemContentStore contentStore = contentStore(DataSize.ofKilobytes(256), 1);
+    StoredFile storedFile = storedFile(SMALL);
+    storedFile.setOrginalContent(LARGE);
+
+    contentStore.write(storedFile);
+
+    assertThat(storedFile.getContent()).isNull();
+    assertThat(storedFile.getOrginalContent()).isNull();
+    assertThat(contentStore.holds(storedFile)).isTrue();
+    assertThat(contentStore.getContentFile(storedFile)).startsWith(directory).isRegularFile();
+    assertThat(storedFile.getContentPath()).contains(storedFile.getId());
+
+    contentStore.read(storedFile);
+
+    assertThat(storedFile.getContent()).isEqualTo(SMALL);
+    assertThat(storedFile.getOrginalContent()).isEqualTo(LARGE);
+  }
+
+  @Test
+  void everyWriteCreatesNewFiles() throws IOException {
+    FileSystemContentStore contentStore = contentStore(DataSize.ofKilobytes(256), 1);
+    StoredFile storedFile = storedFile(SMALL);
+    contentStore.write(storedFile);
+    String firstPath = storedFile.getContentPath();
+
+    storedFile.setContent(LARGE);
+    contentStore.write(storedFile);
+
+    assertThat(storedFile.getContentPath()).isNotEqualTo(firstPath);
+    assertThat(directory.resolve(firstPath)).isRegularFile();
+  }
+
+  @Test
+  void transfersRangesOfAMappedFile() throws IOException {
+    assertTransfers(contentStore(DataSize.ofKilobytes(256), 1), SMALL);
+  }
+
+  @Test
+  void transfersRangesOfALargeFile() throws IOException {
+    assertTransfers(contentStore(DataSize.ofKilobytes(1), 1), LARGE);
+  }
+
+  @Test
+  void transfersRangesOfALargeFileWithReadAhead() throws IOException {
+    assertTransfers(contentStore(DataSize.ofKilobytes(1), 3), LARGE);
+  }
+
+  @Test
+  void deleteRemovesTheFiles() throws IOException {
+    FileSystemContentStore contentStore = contentStore(DataSize.ofKilobytes(256), 1);
+    StoredFile storedFile = storedFile(SMALL);
+    storedFile.setOrginalContent(SMALL);
+    contentStore.write(storedFile);
+    // Mapped once read
+    contentStore.read(storedFile);
+
+    contentStore.delete(storedFile);
+
+    assertThat(directory.resolve(storedFile.getContentPath())).doesNotExist();
+    assertThat(directory.resolve(storedFile.getOrginalContentPath())).doesNotExist();
+  }
+
+  @Test
+  void pathsOutsideOfTheDirectoryAreRejected() {
+    FileSystemContentStore contentStore = contentStore(DataSize.ofKilobytes(256), 1);
+    StoredFile storedFile = new StoredFile();
+    storedFile.setContentPath("../outside.content");
+
+    assertThatThrownBy(() -> contentStore.read(storedFile))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private void assertTransfers(FileSystemContentStore contentStore, byte[] content)
+      throws IOException {
+    StoredFile storedFile = storedFile(content);
+    contentStore.write(storedFile);
+
+    assertThat(transfer(contentStore, storedFile, 0, Long.MAX_VALUE)).isEqualTo(content);
+    assertThat(transfer(contentStore, storedFile, 10, 50))
+        .isEqualTo(Arrays.copyOfRange(content, 10, 60));
+    assertThat(transfer(contentStore, storedFile, content.length - 5, 100))
+        .isEqualTo(Arrays.copyOfRange(content, content.length - 5, content.length));
+    assertThat(transfer(contentStore, storedFile, content.length, 10)).isEmpty();
+  }
+
+  private static byte[] transfer(FileSystemContentStore contentStore, StoredFile storedFile,
+      long position, long count) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    long transferred = contentStore
+        .transferTo(storedFile, Channels.newChannel(outputStream), position, count);
+    assertThat(transferred).isEqualTo(outputStream.size());
+    return outputStream.toByteArray();
+  }
+
+  private FileSystemContentStore contentStore(DataSize mmapThreshold, int readAheadBlocks) {
+    ResourceServerProperties resourceServerProperties = new ResourceServerProperties();
+    resourceServerProperties.getStore().setDirectory(directory.toString());
+    resourceServerProperties.getStore().setMmapThreshold(mmapThreshold);
+    resourceServerProperties.getStore().setReadAheadBlocks(readAheadBlocks);
+    resourceServerProperties.getBufferPool().setBufferSize(DataSize.ofKilobytes(4));
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    return new FileSystemContentStore(resourceServerProperties,
+        new ContentTransfer(new DirectBufferPool(resourceServerProperties, meterRegistry)),
+        meterRegistry);
+  }
+
+  private static StoredFile storedFile(byte[] content) {
+    StoredFile storedFile = new StoredFile();
+    storedFile.setId("5f0c8e1a2b3c4d5e6f708192");
+    storedFile.setContent(content);
+    return storedFile;
+  }
+
+  private static byte[] content(int length) {
+    byte[] content = new byte[length];
+    new Random(length).nextBytes(content);
+    return content;
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.transfer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.ByteBuffer;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.transfer.DirectBufferPool.Lease;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class DirectBufferPoolTest {
+
+  private MeterRegistry meterRegistry;
+  private DirectBufferPool directBufferPool;
+
+  @BeforeEach
+  void setUp() {
+    ResourceServerProperties resourceServerProperties = new ResourceServerProperties();
+    resourceServerProperties.getBufferPool().setBufferSize(DataSize.ofKilobytes(4));
+    resourceServerProperties.getBufferPool().setMaxPooledBuffers(1);
+    meterRegistry = new SimpleMeterRegistry();
+    directBufferPool = new DirectBufferPool(resourceServerProperties, meterRegistry);
+  }
+
+  @Test
+  void releasedBufferIsReusedCleared() {
+    Lease lease = directBufferPool.acquire();
+    ByteBuffer buffer = lease.buffer();
+    assertThat(buffer.isDirect()).isTrue();
+    assertThat(buffer.capacity()).isEqualTo(4096);
+    buffer.putInt(42).flip();
+    lease.close();
+
+    try (Lease reused = directBufferPool.acquire()) {
+      assertThat(reused.buffer()).isSameAs(buffer);
+      assertThat(reused.buffer().position()).isZero();
+      assertThat(reused.buffer().limit()).isEqualTo(4096);
+    }
+    assertThat(allocations()).isEqualTo(1);
+  }
+
+  @Test
+  void poolKeepsAtMostTheMaximumIdleBuffers() {
+    Lease first = directBufferPool.acquire();
+    Lease second = directBufferPool.acquire();
+    assertThat(buffers("leased")).isEqualTo(2);
+
+    first.close();
+    second.close();
+
+    assertThat(buffers("leased")).isZero();
+    assertThat(buffers("idle")).isEqualTo(1);
+    assertThat(allocations()).isEqualTo(2);
+  }
+
+  @Test
+  void closingALeaseTwiceReleasesItOnce() {
+    Lease lease = directBufferPool.acquire();
+    lease.close();
+    lease.close();
+
+    assertThat(buffers("idle")).isEqualTo(1);
+    assertThat(buffers("leased")).isZero();
+    assertThat(directBufferPool.acquire().buffer()).isSameAs(lease.buffer());
+    assertThat(directBufferPool.acquire().buffer()).isNotSameAs(lease.buffer());
+  }
+
+  private double buffers(String state) {
+    return meterRegistry.get("resource.buffer.pool.buffers").tag("state", state).gauge().value();
+  }
+
+  private double allocations() {
+    return meterRegistry.get("resource.buffer.pool.allocations").functionCounter().count();
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.transfer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.exception.TransferRejectedException;
+import org.jhapy.resource.transfer.TransferAdmissionController.Permit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class TransferAdmissionControllerTest {
+
+  private static final long KB = 1024;
+
+  private ResourceServerProperties resourceServerProperties;
+  private MeterRegistry meterRegistry;
+  private TransferAdmissionController admissionController;
+
+  @BeforeEach
+  void setUp() {
+    resourceServerProperties = new ResourceServerProperties();
+    ResourceServerProperties.Admission admission = resourceServerProperties.getAdmission();
+    admission.setLargeTransferThreshold(DataSize.ofKilobytes(1));
+    admission.setMaxInFlightBytes(DataSize.ofKilobytes(4));
+    admission.setMaxConcurrentLargeTransfers(2);
+    admission.setMaxQueuedLargeTransfers(1);
+    admission.setMaxConcurrentSmallTransfers(2);
+    admission.setQueueTimeout(Duration.ofMillis(50));
+    meterRegistry = new SimpleMeterRegistry();
+    admissionController = new TransferAdmissionController(resourceServerProperties,
+        meterRegistry);
+  }
+
+  @Test
+  void disabledAdmissionAdmitsEverything() {
+    resourceServerProperties.getAdmission().setEnabled(false);
+
+    assertThat(admissionController.admit(100 * KB)).isSameAs(Permit.NONE);
+    assertThat(largeInFlightTransfers()).isZero();
+  }
+
+  @Test
+  void smallLaneRejectsWithoutWaiting() {
+    Permit first = admissionController.admit(KB);
+    admissionController.admit(0);
+
+    assertThatThrownBy(() -> admissionController.admit(10))
+        .isInstanceOf(TransferRejectedException.class);
+
+    first.close();
+    first.close();
+    Permit third = admissionController.admit(10);
+    assertThatThrownBy(() -> admissionController.admit(10))
+        .isInstanceOf(TransferRejectedException.class);
+    third.close();
+  }
+
+  @Test
+  void largeLaneBoundsTheBytesInFlight() {
+    Permit first = admissionController.admit(3 * KB);
+
+    assertThatThrownBy(() -> admissionController.admit(2 * KB))
+        .isInstanceOf(TransferRejectedException.class)
+        .hasMessageContaining("not admitted in time");
+    assertThat(meterRegistry.get("resource.admission.inflight.bytes").gauge().value())
+        .isEqualTo(3 * KB);
+
+    first.close();
+    admissionController.admit(2 * KB);
+    assertThat(largeInFlightTransfers()).isEqualTo(1);
+  }
+
+  @Test
+  void largeLaneBoundsTheTransfersInFlight() {
+    admissionController.admit(2 * KB);
+    admissionController.admit(2 * KB);
+
+    assertThatThrownBy(() -> admissionController.admit(2 * KB))
+        .isInstanceOf(TransferRejectedException.class);
+  }
+
+  @Test
+  void transferLargerThanTheBudgetIsAdmittedAlone() {
+    Permit oversized = admissionController.admit(10 * KB);
+
+    assertThat(largeInFlightTransfers()).isEqualTo(1);
+    assertThatThrownBy(() -> admissionController.admit(2 * KB))
+        .isInstanceOf(TransferRejectedException.class);
+    oversized.close();
+  }
+
+  @Test
+  void unknownSizeIsALargeTransfer() {
+    admissionController.admit(-1);
+
+    assertThat(largeInFlightTransfers()).isEqualTo(1);
+    assertThat(meterRegistry.get("resource.admission.inflight.bytes").gauge().value())
+        .isEqualTo(KB);
+  }
+
+  @Test
+  void queuedTransferIsAdmittedOnRelease() throws Exception {
+    resourceServerProperties.getAdmission().setQueueTimeout(Duration.ofSeconds(10));
+    Permit first = admissionController.admit(3 * KB);
+
+    CompletableFuture<Permit> queued = CompletableFuture
+        .supplyAsync(() -> admissionController.admit(2 * KB));
+    while (meterRegistry.get("resource.admission.queue.size").gauge().value() < 1) {
+      Thread.sleep(10);
+    }
+    // The queue is full
+    assertThatThrownBy(() -> admissionController.admit(2 * KB))
+        .isInstanceOf(TransferRejectedException.class)
+        .hasMessageContaining("waiting");
+
+    first.close();
+    queued.get(10, TimeUnit.SECONDS).close();
+    assertThat(largeInFlightTransfers()).isZero();
+  }
+
+  private double largeInFlightTransfers() {
+    return meterRegistry.get("resource.admission.inflight.transfers").tag("lane", "large")
+        .gauge().value();
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2020-2020 the original author or authors from the JHapy project.
+ *
+ * This file is part of the JHapy project, see https://www.jhapy.org/ for more information.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jhapy.resource.usage;
+
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.Optional;
+import org.jhapy.resource.config.ResourceServerProperties;
+import org.jhapy.resource.domain.StorageUsage;
+import org.jhapy.resource.domain.StorageUsage.Dimension;
+import org.jhapy.resource.domain.StoredFile;
+import org.jhapy.resource.exception.QuotaExceededException;
+import org.jhapy.resource.repository.StorageUsageRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * @author jHapy Lead Dev.
+ * @version 1.0
+ * @since 2020-06-20
+ */
+class StorageUsageTrackerTest {
+
+  private StorageUsageTracker storageUsageTracker;
+
+  @BeforeEach
+  void setUp() {
+    ResourceServerProperties resourceServerProperties = new ResourceServerProperties();
+    resourceServerProperties.getUsage().getQuotas().getCreatedBy().setMaxFiles(2L);
+    resourceServerProperties.getUsage().getQuotas().getCreatedBy()
+        .setMaxBytes(DataSize.ofBytes(100));
+
+    StorageUsage storageUsage = new StorageUsage();
+    storageUsage.setId(StorageUsage.id(Dimension.CREATED_BY, "user"));
+    storageUsage.setDimension(Dimension.CREATED_BY);
+    storageUsage.setOwner("user");
+    storageUsage.setFiles(2);
+    storageUsage.setBytes(90);
+    StorageUsageRepository storageUsageRepository = mock(StorageUsageRepository.class);
+    when(storageUsageRepository.findAllById(any())).thenReturn(List.of(storageUsage));
+
+    storageUsageTracker = new StorageUsageTracker(storageUsageRepository,
+        () -> Optional.of("user"), resourceServerProperties, new SimpleMeterRegistry());
+  }
+
+  @Test
+  void newFileOverTheFileQuotaIsRejected() {
+    assertThatThrownBy(() -> storageUsageTracker.checkQuota(null, null, 1))
+        .isInstanceOf(QuotaExceededException.class);
+  }
+
+  @Test
+  void replacedFileDoesNotCountAsANewFile() {
+    assertThatCode(() -> storageUsageTracker.checkQuota(null, null, 40, storedFile(30)))
+        .doesNotThrowAnyException();
+  }
+
+  @Test
+  void replacedFileReleasesOnlyItsOwnSize() {
+    assertThatThrownBy(() -> storageUsageTracker.checkQuota(null, null, 50, storedFile(30)))
+        .isInstanceOf(QuotaExceededException.class);
+  }
+
+  @Test
+  void deletedReplacedFileReleasesNothing() {
+    StoredFile deleted = storedFile(30);
+    deleted.setIsActive(false);
+
+    assertThatThrownBy(() -> storageUsageTracker.checkQuota(null, null, 0, deleted))
+        .isInstanceOf(QuotaExceededException.class);
+  }
+
+  private static StoredFile storedFile(long filesize) {
+    StoredFile storedFile = new StoredFile();
+    storedFile.setCreatedBy("user");
+    storedFile.setFilesize(filesize);
+    return storedFile;
+  }
+}